@@ -25,6 +25,10 @@ public class PhotatoApplication implements CommandLineRunner {
 	        .registerHandler(Routes.fullScreenPicturesRootUrl + "/*", new ImageHandler(fileSystem.getPath(fullscreenCacheFolder), Routes.fullScreenPicturesRootUrl))
 	        .registerHandler(Routes.thumbnailRootUrl + "/*", new ImageHandler(fileSystem.getPath(thumbnailCacheFolder), Routes.thumbnailRootUrl))
 	        .registerHandler(Routes.listItemsApiUrl, new FolderListHandler(Routes.listItemsApiUrl, photatoFilesManager))
+	        .registerHandler(Routes.indexingProgressApiUrl, new IndexingProgressHandler(Routes.indexingProgressApiUrl, photatoFilesManager))
+	        .registerHandler(Routes.geoClustersApiUrl, new GeoClustersHandler(Routes.geoClustersApiUrl, photatoFilesManager))
+	        .registerHandler(Routes.rescanApiUrl, new RescanHandler(Routes.rescanApiUrl, photatoFilesManager, config.getAdminToken()))
+	        .registerHandler(Routes.searchCacheStatsApiUrl, new SearchCacheStatsHandler(Routes.searchCacheStatsApiUrl, photatoFilesManager))
 		
 		FileSystem fileSystem = FileSystems.getDefault();
 		if (!Files.exists(fileSystem.getPath("cache"))) {
@@ -43,8 +47,26 @@ public class PhotatoApplication implements CommandLineRunner {
 				config.getExtractedCacheDir(), config.getFullScreenPictureQuality(), config.getFullScreenMaxPictureWidth(),
 				config.getFullScreenMaxPictureHeight());
 
-		PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(rootFolder, fileSystem, metadataGetter, thumbnailGenerator, fullScreenImageGetter,
-				config.isIndexPrefixModeOnly(), config.isIndexFolderName(), config.isThumbnailUseParallelPicturesGeneration());
+		PhotatoFilesManagerOptions options = new PhotatoFilesManagerOptions();
+		options.prefixOnlyMode = config.isIndexPrefixModeOnly();
+		options.indexFolderName = config.isIndexFolderName();
+		options.useParallelPicturesGeneration = config.isThumbnailUseParallelPicturesGeneration();
+		options.explorationParallelism = config.getExplorationParallelism();
+		options.imageGenerationWorkers = config.getImageGenerationWorkers();
+		options.imageGenerationQueueSize = config.getImageGenerationQueueSize();
+		options.snapshotFile = fileSystem.getPath(config.getTreeSnapshotFile());
+		options.watchQuietPeriodMs = config.getWatchQuietPeriodMs();
+		options.changeDetectionMode = ChangeDetectionMode.valueOf(config.getChangeDetectionMode().toUpperCase());
+		options.pollIntervalMs = config.getPollIntervalMs();
+		options.pollMaxDirectoriesPerCycle = config.getPollMaxDirectoriesPerCycle();
+		options.ingestBatchSize = config.getIngestBatchSize();
+		options.ingestBatchDelayMs = config.getIngestBatchDelayMs();
+		options.ingestExtractionWorkers = config.getIngestExtractionWorkers();
+		options.searchCacheSize = config.getSearchCacheSize();
+		options.searchIndexType = SearchIndexType.valueOf(config.getSearchIndexType().toUpperCase());
+		options.searchIndexMemoryBudget = config.getSearchIndexMemoryBudgetMb() * 1024L * 1024L;
+		options.searchIndexFile = fileSystem.getPath(config.getSearchIndexFile());
+		PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(rootFolder, fileSystem, metadataGetter, thumbnailGenerator, fullScreenImageGetter, options);
 	*/
 	}
 
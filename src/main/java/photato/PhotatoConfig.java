@@ -14,6 +14,20 @@ public class PhotatoConfig {
     private boolean indexPrefixModeOnly;
     private boolean indexFolderName;
     private boolean thumbnailUseParallelPicturesGeneration;
+    private int explorationParallelism;
+    private int imageGenerationWorkers;
+    private int imageGenerationQueueSize;
+    private long watchQuietPeriodMs;
+    private String changeDetectionMode;
+    private long pollIntervalMs;
+    private int pollMaxDirectoriesPerCycle;
+    private int ingestBatchSize;
+    private long ingestBatchDelayMs;
+    private int ingestExtractionWorkers;
+    private int searchCacheSize;
+    private String searchIndexType;
+    private int searchIndexMemoryBudgetMb;
+    private String adminToken;
     private boolean forceFfmpegToolsDownload;
     private boolean forceExifToolsDownload;
     private int thumbnailHeight;
@@ -36,4 +50,12 @@ public class PhotatoConfig {
 		return cacheDir + "/extracted";
 	}
 	
+	public String getTreeSnapshotFile() {
+		return cacheDir + "/tree.snapshot";
+	}
+	
+	public String getSearchIndexFile() {
+		return cacheDir + "/search.index";
+	}
+	
 }
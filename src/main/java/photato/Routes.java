@@ -7,4 +7,8 @@ public class Routes {
     public static final String rawPicturesRootUrl = "/img/raw";
     public static final String rawVideosRootUrl = "/video/raw";
     public static final String listItemsApiUrl = "/api/list";
+    public static final String indexingProgressApiUrl = "/api/progress";
+    public static final String geoClustersApiUrl = "/api/clusters";
+    public static final String rescanApiUrl = "/api/admin/rescan";
+    public static final String searchCacheStatsApiUrl = "/api/admin/searchCacheStats";
 }
@@ -2,17 +2,21 @@ package photato.controllers;
 
 import photato.controllers.entities.FolderListResponse;
 import photato.helpers.SerialisationGsonBuilder;
+import java.util.ArrayList;
 import java.util.List;
 import org.apache.http.HttpStatus;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import photato.core.PhotatoFilesManager;
+import photato.core.SearchResultsPage;
 import photato.core.entities.PhotatoFolder;
 import photato.core.entities.PhotatoMedia;
 import java.util.Map;
 
 public class FolderListHandler extends PhotatoHandler {
 
+    private static final int maxLimit = 1000;
+
     private final PhotatoFilesManager photatoFilesManager;
 
     public FolderListHandler(String prefix, PhotatoFilesManager photatoFilesManager) {
@@ -30,20 +34,40 @@ public class FolderListHandler extends PhotatoHandler {
 
             String query = queryStringMap.get("query"); // Can be null
 
-            List<PhotatoFolder> folders = query == null ? this.photatoFilesManager.getFoldersInFolder(folder) : this.photatoFilesManager.searchFoldersInFolder(folder, query);
-            List<PhotatoMedia> medias = query == null ? this.photatoFilesManager.getMediasInFolder(folder) : this.photatoFilesManager.searchMediasInFolder(folder, query);
+            // Ranked search results, one page at a time. The folders come with the first page
+            boolean paged = query != null && queryStringMap.containsKey("limit");
+            int offset;
+            int limit;
+            try {
+                offset = queryStringMap.containsKey("offset") ? Integer.parseInt(queryStringMap.get("offset")) : 0;
+                limit = paged ? Math.min(Integer.parseInt(queryStringMap.get("limit")), maxLimit) : 0;
+            } catch (NumberFormatException ex) {
+                return PhotatoHandler.http400;
+            }
+            if (offset < 0 || limit < 0) {
+                return PhotatoHandler.http400;
+            }
 
+            List<PhotatoFolder> folders = paged && offset > 0 ? new ArrayList<>() : query == null ? this.photatoFilesManager.getFoldersInFolder(folder) : this.photatoFilesManager.searchFoldersInFolder(folder, query);
             folders.sort((PhotatoFolder f1, PhotatoFolder f2) -> f1.filename.toLowerCase().compareTo(f2.filename.toLowerCase()));
-            medias.sort((PhotatoMedia m1, PhotatoMedia m2) -> {
-                int c = Long.compare(m1.timestamp, m2.timestamp);
-                if (c == 0) {
-                    return m1.filename.toLowerCase().compareTo(m2.filename.toLowerCase());
-                } else {
-                    return c;
-                }
-            });
-
-            FolderListResponse result = new FolderListResponse(folders, medias);
+
+            FolderListResponse result;
+            if (paged) {
+                SearchResultsPage medias = this.photatoFilesManager.searchMediasInFolder(folder, query, offset, limit);
+                result = new FolderListResponse(folders, medias);
+            } else {
+                List<PhotatoMedia> medias = query == null ? this.photatoFilesManager.getMediasInFolder(folder) : this.photatoFilesManager.searchMediasInFolder(folder, query);
+                medias.sort((PhotatoMedia m1, PhotatoMedia m2) -> {
+                    int c = Long.compare(m1.timestamp, m2.timestamp);
+                    if (c == 0) {
+                        return m1.filename.toLowerCase().compareTo(m2.filename.toLowerCase());
+                    } else {
+                        return c;
+                    }
+                });
+
+                result = new FolderListResponse(folders, medias);
+            }
 
             return new Response(HttpStatus.SC_OK, new StringEntity(SerialisationGsonBuilder.getGson().toJson(result), ContentType.create("application/json", "UTF-8")));
         } else {
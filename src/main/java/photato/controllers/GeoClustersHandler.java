@@ -0,0 +1,57 @@
+package photato.controllers;
+
+import photato.controllers.entities.GeoClustersResponse;
+import photato.helpers.SerialisationGsonBuilder;
+import java.util.Map;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import photato.core.PhotatoFilesManager;
+
+/**
+ * The clusters of the geotagged medias in the view of a map, given by its
+ * south, west, north and east bounds in degrees and its zoom
+ */
+public class GeoClustersHandler extends PhotatoHandler {
+
+    private static final int maxZoom = 30; // Far beyond the deepest zoom of the web maps
+
+    private final PhotatoFilesManager photatoFilesManager;
+
+    public GeoClustersHandler(String prefix, PhotatoFilesManager photatoFilesManager) {
+        super(prefix, new String[]{"GET"});
+        this.photatoFilesManager = photatoFilesManager;
+    }
+
+    @Override
+    protected Response getResponse(String path, Map<String, String> queryStringMap) throws Exception {
+        for (String parameter : new String[]{"south", "west", "north", "east", "zoom"}) {
+            if (!queryStringMap.containsKey(parameter)) {
+                return PhotatoHandler.http404;
+            }
+        }
+
+        double south;
+        double west;
+        double north;
+        double east;
+        int zoom;
+        try {
+            south = Double.parseDouble(queryStringMap.get("south"));
+            west = Double.parseDouble(queryStringMap.get("west"));
+            north = Double.parseDouble(queryStringMap.get("north"));
+            east = Double.parseDouble(queryStringMap.get("east"));
+            zoom = Integer.parseInt(queryStringMap.get("zoom"));
+        } catch (NumberFormatException ex) {
+            return PhotatoHandler.http400;
+        }
+        // Written so that NaN, which fails every comparison, is rejected too
+        if (!(Math.abs(south) <= 90 && Math.abs(north) <= 90 && south <= north && Math.abs(west) <= 180 && Math.abs(east) <= 180) || zoom < 0 || zoom > maxZoom) {
+            return PhotatoHandler.http400;
+        }
+
+        GeoClustersResponse result = new GeoClustersResponse(this.photatoFilesManager.getGeoClusters(south, west, north, east, zoom));
+
+        return new Response(HttpStatus.SC_OK, new StringEntity(SerialisationGsonBuilder.getGson().toJson(result), ContentType.create("application/json", "UTF-8")));
+    }
+}
@@ -0,0 +1,26 @@
+package photato.controllers;
+
+import photato.controllers.entities.IndexingProgressResponse;
+import photato.helpers.SerialisationGsonBuilder;
+import java.util.Map;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import photato.core.PhotatoFilesManager;
+
+public class IndexingProgressHandler extends PhotatoHandler {
+
+    private final PhotatoFilesManager photatoFilesManager;
+
+    public IndexingProgressHandler(String prefix, PhotatoFilesManager photatoFilesManager) {
+        super(prefix, new String[]{"GET"});
+        this.photatoFilesManager = photatoFilesManager;
+    }
+
+    @Override
+    protected Response getResponse(String path, Map<String, String> queryStringMap) throws Exception {
+        IndexingProgressResponse result = new IndexingProgressResponse(this.photatoFilesManager.getIndexingProgress());
+
+        return new Response(HttpStatus.SC_OK, new StringEntity(SerialisationGsonBuilder.getGson().toJson(result), ContentType.create("application/json", "UTF-8")));
+    }
+}
@@ -20,6 +20,7 @@ import photato.helpers.Tuple;
 
 public abstract class PhotatoHandler implements HttpRequestHandler {
 
+    protected static final Response http400 = new Response(400, new StringEntity("<html><body><h1>Bad request</h1></body></html>", ContentType.create("text/html", "UTF-8")));
     protected static final Response http403 = new Response(403, new StringEntity("<html><body><h1>Forbidden/h1></body></html>", ContentType.create("text/html", "UTF-8")));
     protected static final Response http404 = new Response(404, new StringEntity("<html><body><h1>Not found</h1></body></html>", ContentType.create("text/html", "UTF-8")));
     protected static final Response http500 = new Response(500, new StringEntity("<html><body><h1>Server error</h1></body></html>", ContentType.create("text/html", "UTF-8")));
@@ -0,0 +1,57 @@
+package photato.controllers;
+
+import photato.controllers.entities.IndexingProgressResponse;
+import photato.helpers.SerialisationGsonBuilder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import photato.core.PhotatoFilesManager;
+
+/**
+ * Queues the resync of a subtree with the filesystem, for when changes have
+ * been missed. Only allowed with the admin token, the endpoint is disabled
+ * when none is configured
+ */
+public class RescanHandler extends PhotatoHandler {
+
+    private final PhotatoFilesManager photatoFilesManager;
+    private final String adminToken;
+
+    public RescanHandler(String prefix, PhotatoFilesManager photatoFilesManager, String adminToken) {
+        super(prefix, new String[]{"POST"});
+        this.photatoFilesManager = photatoFilesManager;
+        this.adminToken = adminToken;
+    }
+
+    @Override
+    protected boolean isAuthorized(String path, Map<String, String> query) {
+        String token = query.get("token");
+        if (this.adminToken == null || this.adminToken.isEmpty() || token == null) {
+            return false;
+        }
+
+        // Constant time, so that the token cannot be guessed from the response times
+        return MessageDigest.isEqual(this.adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected Response getResponse(String path, Map<String, String> queryStringMap) throws Exception {
+        if (queryStringMap.containsKey("folder")) {
+            String folder = queryStringMap.get("folder");
+            while (!folder.isEmpty() && folder.startsWith("/")) { // Remove the leading slashes if needed
+                folder = folder.substring(1);
+            }
+
+            if (this.photatoFilesManager.rescanFolder(folder)) {
+                IndexingProgressResponse result = new IndexingProgressResponse(this.photatoFilesManager.getIndexingProgress());
+
+                return new Response(HttpStatus.SC_ACCEPTED, new StringEntity(SerialisationGsonBuilder.getGson().toJson(result), ContentType.create("application/json", "UTF-8")));
+            }
+        }
+
+        return PhotatoHandler.http404;
+    }
+}
@@ -0,0 +1,29 @@
+package photato.controllers;
+
+import photato.controllers.entities.SearchCacheStatsResponse;
+import photato.helpers.SerialisationGsonBuilder;
+import java.util.Map;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import photato.core.PhotatoFilesManager;
+
+/**
+ * Hit rates of the search results caches
+ */
+public class SearchCacheStatsHandler extends PhotatoHandler {
+
+    private final PhotatoFilesManager photatoFilesManager;
+
+    public SearchCacheStatsHandler(String prefix, PhotatoFilesManager photatoFilesManager) {
+        super(prefix, new String[]{"GET"});
+        this.photatoFilesManager = photatoFilesManager;
+    }
+
+    @Override
+    protected Response getResponse(String path, Map<String, String> queryStringMap) throws Exception {
+        SearchCacheStatsResponse result = new SearchCacheStatsResponse(this.photatoFilesManager.getMediasSearchCache(), this.photatoFilesManager.getFoldersSearchCache());
+
+        return new Response(HttpStatus.SC_OK, new StringEntity(SerialisationGsonBuilder.getGson().toJson(result), ContentType.create("application/json", "UTF-8")));
+    }
+}
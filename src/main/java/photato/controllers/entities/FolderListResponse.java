@@ -2,6 +2,7 @@ package photato.controllers.entities;
 
 import com.google.gson.annotations.Expose;
 import java.util.Collection;
+import photato.core.SearchResultsPage;
 import photato.core.entities.PhotatoFolder;
 import photato.core.entities.PhotatoMedia;
 
@@ -13,9 +14,24 @@ public class FolderListResponse {
     @Expose
     public final Collection<PhotatoMedia> medias;
 
+    @Expose
+    public final Integer mediasCount; // Only for a page of search results, null otherwise
+
+    @Expose
+    public final Integer nextOffset; // Only for a page of search results, null after the last one
+
     public FolderListResponse(Collection<PhotatoFolder> folders, Collection<PhotatoMedia> medias) {
         this.folders = folders;
         this.medias = medias;
+        this.mediasCount = null;
+        this.nextOffset = null;
+    }
+
+    public FolderListResponse(Collection<PhotatoFolder> folders, SearchResultsPage mediasPage) {
+        this.folders = folders;
+        this.medias = mediasPage.getMedias();
+        this.mediasCount = mediasPage.getTotalCount();
+        this.nextOffset = mediasPage.getNextOffset() >= 0 ? mediasPage.getNextOffset() : null;
     }
 
 }
@@ -0,0 +1,60 @@
+package photato.controllers.entities;
+
+import com.google.gson.annotations.Expose;
+import java.util.ArrayList;
+import java.util.List;
+import photato.core.GeoCluster;
+import photato.core.entities.PictureInfos;
+
+public class GeoClustersResponse {
+
+    public static class Cluster {
+
+        @Expose
+        public final int count;
+
+        @Expose
+        public final double latitude;
+
+        @Expose
+        public final double longitude;
+
+        @Expose
+        public final PictureInfos thumbnail; // Of the most recent media
+
+        @Expose
+        public final double south; // Bounds of the cell, to zoom on it or search it with a bbox: filter
+
+        @Expose
+        public final double west;
+
+        @Expose
+        public final double north;
+
+        @Expose
+        public final double east;
+
+        public Cluster(GeoCluster cluster) {
+            this.count = cluster.getCount();
+            this.latitude = cluster.getLatitude();
+            this.longitude = cluster.getLongitude();
+            this.thumbnail = cluster.getRepresentative().thumbnail;
+            this.south = cluster.getSouth();
+            this.west = cluster.getWest();
+            this.north = cluster.getNorth();
+            this.east = cluster.getEast();
+        }
+
+    }
+
+    @Expose
+    public final List<Cluster> clusters;
+
+    public GeoClustersResponse(List<GeoCluster> clusters) {
+        this.clusters = new ArrayList<>();
+        for (GeoCluster cluster : clusters) {
+            this.clusters.add(new Cluster(cluster));
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package photato.controllers.entities;
+
+import com.google.gson.annotations.Expose;
+import photato.core.IndexingProgress;
+
+public class IndexingProgressResponse {
+
+    @Expose
+    public final boolean initialIndexingDone;
+
+    @Expose
+    public final long foldersScanned;
+
+    @Expose
+    public final long mediasIndexed;
+
+    @Expose
+    public final long imagesPending;
+
+    public IndexingProgressResponse(IndexingProgress progress) {
+        this.initialIndexingDone = progress.isInitialIndexingDone();
+        this.foldersScanned = progress.getFoldersScanned();
+        this.mediasIndexed = progress.getMediasIndexed();
+        this.imagesPending = progress.getImagesPending();
+    }
+
+}
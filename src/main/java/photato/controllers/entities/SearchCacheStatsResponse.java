@@ -0,0 +1,42 @@
+package photato.controllers.entities;
+
+import com.google.gson.annotations.Expose;
+import photato.helpers.QueryResultCache;
+
+public class SearchCacheStatsResponse {
+
+    public static class CacheStats {
+
+        @Expose
+        public final long hits;
+
+        @Expose
+        public final long misses;
+
+        @Expose
+        public final double hitRate;
+
+        @Expose
+        public final int size;
+
+        public CacheStats(QueryResultCache<?, ?> cache) {
+            this.hits = cache.getHits();
+            this.misses = cache.getMisses();
+            this.hitRate = cache.getHitRate();
+            this.size = cache.size();
+        }
+
+    }
+
+    @Expose
+    public final CacheStats medias;
+
+    @Expose
+    public final CacheStats folders;
+
+    public SearchCacheStatsResponse(QueryResultCache<?, ?> mediasCache, QueryResultCache<?, ?> foldersCache) {
+        this.medias = new CacheStats(mediasCache);
+        this.folders = new CacheStats(foldersCache);
+    }
+
+}
@@ -25,7 +25,9 @@ public class AlbumsManager {
 
     public synchronized void addMedia(PhotatoMedia media) {
         for (Path virtualPath : media.virtualPaths) {
+            List<PhotatoFolder> foldersStack = new ArrayList<>();
             PhotatoFolder currentFolder = this.virtualRootFolder;
+            foldersStack.add(currentFolder);
 
             for (int i = 0; i < virtualPath.getNameCount(); i++) {
                 String folderName = virtualPath.getName(i).toString();
@@ -38,9 +40,14 @@ public class AlbumsManager {
                 }
 
                 currentFolder = folder;
+                foldersStack.add(currentFolder);
             }
 
-            currentFolder.medias.add(media);
+            // The virtual paths nest (a year and its months for instance), so the aggregates count the distinct medias of each subtree rather than summing the subfolders ones
+            for (PhotatoFolder folder : foldersStack) {
+                folder.addSubtreeMedia(media);
+            }
+            currentFolder.addMedia(media);
         }
     }
 
@@ -50,9 +57,9 @@ public class AlbumsManager {
             foldersStack.add(this.virtualRootFolder);
 
             for (int i = 0; i < virtualPath.getNameCount(); i++) {
-                String folderName = virtualPath.getName(i).toString();
+                String normalizedFolderName = SearchQueryHelper.normalizeString(virtualPath.getName(i).toString());
 
-                PhotatoFolder folder = foldersStack.get(foldersStack.size() - 1).subFolders.get(folderName);
+                PhotatoFolder folder = foldersStack.get(foldersStack.size() - 1).subFolders.get(normalizedFolderName);
                 if (folder == null) {
                     break;
                 }
@@ -60,14 +67,11 @@ public class AlbumsManager {
                 foldersStack.add(folder);
             }
 
-            // Remove from all parents folders
-            for (int i = 0; i < foldersStack.size(); i++) {
-                foldersStack.get(i).medias.remove(media);
-            }
-
-            // Remove empty folders
-            for (int i = foldersStack.size() - 1; i >= 1; i--) {
-                if (foldersStack.get(i).isEmpty()) {
+            // Remove from all parents folders, and remove the empty folders
+            for (int i = foldersStack.size() - 1; i >= 0; i--) {
+                foldersStack.get(i).removeSubtreeMedia(media);
+                foldersStack.get(i).removeMedia(media);
+                if (i >= 1 && foldersStack.get(i).isEmpty()) {
                     foldersStack.get(i - 1).subFolders.remove(SearchQueryHelper.normalizeString(foldersStack.get(i).filename));
                 }
             }
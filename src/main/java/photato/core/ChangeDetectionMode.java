@@ -0,0 +1,6 @@
+package photato.core;
+
+public enum ChangeDetectionMode {
+    WATCH, // Filesystem notifications, changes are applied almost immediately
+    POLL // Periodic rescan of the directories modification dates, for huge trees and network filesystems
+}
@@ -0,0 +1,152 @@
+package photato.core;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Numbers the folders holding indexed medias in depth-first order, so that
+ * each folder covers the interval [start, end) of the numbers of its subtree.
+ * Whether a media is below a folder is then an integer comparison instead of
+ * a path comparison. Only the creation of folders requires numbering them
+ * again, which is done lazily by the next search
+ */
+public class FolderIntervalIndex {
+
+    public static class Folder {
+
+        private final Folder parent;
+        private final Path path;
+        private final Map<Path, Folder> subFolders;
+        private int references; // Medias directly in the folder plus subfolders. The folder is dropped when it reaches 0
+        private int start;
+        private int end;
+
+        private Folder(Folder parent, Path path) {
+            this.parent = parent;
+            this.path = path;
+            this.subFolders = new HashMap<>();
+        }
+
+        /**
+         * Only meaningful within FolderIntervalIndex.read()
+         */
+        public boolean contains(Folder folder) {
+            return this.start <= folder.start && folder.start < this.end;
+        }
+
+    }
+
+    private final ReentrantReadWriteLock lock;
+    private final Folder rootFolder; // Above the filesystem roots
+    private final Map<Path, Folder> folders;
+    private boolean numbered;
+
+    public FolderIntervalIndex() {
+        this.lock = new ReentrantReadWriteLock();
+        this.rootFolder = new Folder(null, null);
+        this.folders = new HashMap<>();
+        this.numbered = true;
+    }
+
+    /**
+     * Registers a media in the folder, creating the folder and its parents if
+     * needed
+     *
+     * @return the position of the media, to be given back to removeMedia
+     */
+    public Folder addMedia(Path folderPath) {
+        this.lock.writeLock().lock();
+        try {
+            Folder folder = this.getOrCreateFolder(folderPath);
+            folder.references++;
+            return folder;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void removeMedia(Folder folder) {
+        this.lock.writeLock().lock();
+        try {
+            folder.references--;
+            // The intervals of the remaining folders stay valid, no numbering needed
+            while (folder != this.rootFolder && folder.references == 0) {
+                folder.parent.subFolders.remove(folder.path);
+                this.folders.remove(folder.path);
+                folder = folder.parent;
+                folder.references--;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return null if there is no media below this folder
+     */
+    public Folder getFolder(Path folderPath) {
+        this.lock.readLock().lock();
+        try {
+            return this.folders.get(folderPath);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs the reader with the folders numbered, and prevents any change
+     * meanwhile, so that the intervals it compares are consistent
+     */
+    public <R> R read(Supplier<R> reader) {
+        this.lock.readLock().lock();
+        if (!this.numbered) {
+            this.lock.readLock().unlock();
+            this.lock.writeLock().lock();
+            try {
+                if (!this.numbered) {
+                    number(this.rootFolder, 0);
+                    this.numbered = true;
+                }
+                this.lock.readLock().lock(); // Downgrading
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        try {
+            return reader.get();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private Folder getOrCreateFolder(Path folderPath) {
+        Folder folder = this.folders.get(folderPath);
+        if (folder == null) {
+            Folder parent = folderPath.getParent() == null ? this.rootFolder : this.getOrCreateFolder(folderPath.getParent());
+            folder = new Folder(parent, folderPath);
+            parent.subFolders.put(folderPath, folder);
+            parent.references++;
+            this.folders.put(folderPath, folder);
+            this.numbered = false;
+        }
+        return folder;
+    }
+
+    /**
+     * @return the next free number
+     */
+    private static int number(Folder folder, int start) {
+        folder.start = start;
+        int next = start + 1;
+        for (Folder subFolder : folder.subFolders.values()) {
+            next = number(subFolder, next);
+        }
+        folder.end = next;
+        return next;
+    }
+
+}
@@ -0,0 +1,71 @@
+package photato.core;
+
+import photato.core.entities.PhotatoMedia;
+
+/**
+ * The geotagged medias of a cell of the map grid
+ */
+public class GeoCluster {
+
+    private final int count;
+    private final double latitude;
+    private final double longitude;
+    private final PhotatoMedia representative;
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+
+    public GeoCluster(int count, double latitude, double longitude, PhotatoMedia representative, double south, double west, double north, double east) {
+        this.count = count;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.representative = representative;
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the latitude of the centroid of the medias
+     */
+    public double getLatitude() {
+        return this.latitude;
+    }
+
+    public double getLongitude() {
+        return this.longitude;
+    }
+
+    /**
+     * @return the most recent media of the cluster
+     */
+    public PhotatoMedia getRepresentative() {
+        return this.representative;
+    }
+
+    /**
+     * The bounds of the cell, to zoom on the cluster or search its medias
+     */
+    public double getSouth() {
+        return this.south;
+    }
+
+    public double getWest() {
+        return this.west;
+    }
+
+    public double getNorth() {
+        return this.north;
+    }
+
+    public double getEast() {
+        return this.east;
+    }
+
+}
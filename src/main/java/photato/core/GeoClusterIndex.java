@@ -0,0 +1,215 @@
+package photato.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import photato.core.entities.PhotatoMedia;
+import photato.core.metadata.gps.GpsCoordinatesHelper;
+
+/**
+ * Clusters of the geotagged medias for the map views, precomputed in a
+ * hierarchical grid: the cells of level L split the latitudes and the
+ * longitudes in 2^L, each cell keeping the count, the sum of the coordinates
+ * and the most recent media of the medias below it. Adding or removing a
+ * media updates its one cell of each level, so that a view only reads the
+ * cells it shows instead of aggregating all the positions
+ */
+public class GeoClusterIndex {
+
+    public static final int maxLevel = 18; // Cells of about 150 x 75 meters at the equator
+    private static final int levelsAboveZoom = 2; // Cells of about 64 pixels on the 256 pixels tiles of a web map
+
+    private static class Cell {
+
+        public int count;
+        public double latitudesSum;
+        public double longitudesSum;
+        public PhotatoMedia representative;
+        public List<PhotatoMedia> medias; // Only in the cells of the finest level
+
+    }
+
+    private final ReentrantReadWriteLock lock;
+    private final List<Map<Long, Cell>> levels; // The cells by key of their row and column
+
+    public GeoClusterIndex() {
+        this.lock = new ReentrantReadWriteLock();
+        this.levels = new ArrayList<>();
+        for (int level = 0; level <= maxLevel; level++) {
+            this.levels.add(new HashMap<>());
+        }
+    }
+
+    public void addMedia(PhotatoMedia media) {
+        if (!hasPosition(media)) {
+            return;
+        }
+
+        int y = GpsCoordinatesHelper.getCellY(media.position.latitude);
+        int x = GpsCoordinatesHelper.getCellX(media.position.longitude);
+        this.lock.writeLock().lock();
+        try {
+            for (int level = 0; level <= maxLevel; level++) {
+                int shift = GpsCoordinatesHelper.cellBits - level;
+                Cell cell = this.levels.get(level).computeIfAbsent(GpsCoordinatesHelper.getCellKey(y >> shift, x >> shift), (Long k) -> new Cell());
+                cell.count++;
+                cell.latitudesSum += media.position.latitude;
+                cell.longitudesSum += media.position.longitude;
+                if (cell.representative == null || isMoreRecent(media, cell.representative)) {
+                    cell.representative = media;
+                }
+                if (level == maxLevel) {
+                    if (cell.medias == null) {
+                        cell.medias = new ArrayList<>();
+                    }
+                    cell.medias.add(media);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void removeMedia(PhotatoMedia media) {
+        if (!hasPosition(media)) {
+            return;
+        }
+
+        int y = GpsCoordinatesHelper.getCellY(media.position.latitude);
+        int x = GpsCoordinatesHelper.getCellX(media.position.longitude);
+        this.lock.writeLock().lock();
+        try {
+            int finestShift = GpsCoordinatesHelper.cellBits - maxLevel;
+            Cell finestCell = this.levels.get(maxLevel).get(GpsCoordinatesHelper.getCellKey(y >> finestShift, x >> finestShift));
+            if (finestCell == null || !finestCell.medias.remove(media)) {
+                return; // Not indexed
+            }
+
+            // From the finest level, so that a representative is picked again among the up to date children
+            for (int level = maxLevel; level >= 0; level--) {
+                int shift = GpsCoordinatesHelper.cellBits - level;
+                long key = GpsCoordinatesHelper.getCellKey(y >> shift, x >> shift);
+                Cell cell = this.levels.get(level).get(key);
+                cell.count--;
+                cell.latitudesSum -= media.position.latitude;
+                cell.longitudesSum -= media.position.longitude;
+                if (cell.count == 0) {
+                    this.levels.get(level).remove(key);
+                } else if (cell.representative == media) {
+                    cell.representative = null;
+                    List<PhotatoMedia> candidates = new ArrayList<>();
+                    if (level == maxLevel) {
+                        candidates = cell.medias;
+                    } else {
+                        for (int child = 0; child < 4; child++) { // Its children keys are the next 4 ones, 4 times it
+                            Cell childCell = this.levels.get(level + 1).get(4 * key + child);
+                            if (childCell != null) {
+                                candidates.add(childCell.representative);
+                            }
+                        }
+                    }
+                    for (PhotatoMedia candidate : candidates) {
+                        if (cell.representative == null || isMoreRecent(candidate, cell.representative)) {
+                            cell.representative = candidate;
+                        }
+                    }
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param south the bounds of the view, which crosses the antimeridian if
+     * west is above east
+     * @param zoom the zoom of a web map, whose world is 256 * 2^zoom pixels
+     * wide
+     * @return the clusters whose cell intersects the view
+     */
+    public List<GeoCluster> getClusters(double south, double west, double north, double east, int zoom) {
+        int level = Math.max(0, Math.min(maxLevel, zoom + levelsAboveZoom));
+        int shift = GpsCoordinatesHelper.cellBits - level;
+        long minY = GpsCoordinatesHelper.getCellY(south) >> shift;
+        long maxY = GpsCoordinatesHelper.getCellY(north) >> shift;
+        long minX = GpsCoordinatesHelper.getCellX(west) >> shift;
+        long maxX = GpsCoordinatesHelper.getCellX(east) >> shift;
+        long lastX = (1L << level) - 1;
+
+        List<GeoCluster> result = new ArrayList<>();
+        this.lock.readLock().lock();
+        try {
+            if (minX <= maxX && west <= east) {
+                this.addClusters(level, minY, maxY, minX, maxX, result);
+            } else if (minX <= maxX) { // Across the antimeridian, but in the same columns: all of them
+                this.addClusters(level, minY, maxY, 0, lastX, result);
+            } else {
+                this.addClusters(level, minY, maxY, minX, lastX, result);
+                this.addClusters(level, minY, maxY, 0, maxX, result);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the clusters of the cells of the level in these rows and columns
+     */
+    private void addClusters(int level, long minY, long maxY, long minX, long maxX, List<GeoCluster> result) {
+        Map<Long, Cell> cells = this.levels.get(level);
+
+        // Whichever is smaller: the cells of the view, or the cells which are not empty
+        if ((maxY - minY + 1) * (maxX - minX + 1) <= cells.size()) {
+            for (long y = minY; y <= maxY; y++) {
+                for (long x = minX; x <= maxX; x++) {
+                    long key = GpsCoordinatesHelper.getCellKey((int) y, (int) x);
+                    Cell cell = cells.get(key);
+                    if (cell != null) {
+                        result.add(toCluster(level, (int) y, (int) x, cell));
+                    }
+                }
+            }
+        } else {
+            for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                int y = (int) compactBits(entry.getKey() >>> 1);
+                int x = (int) compactBits(entry.getKey());
+                if (minY <= y && y <= maxY && minX <= x && x <= maxX) {
+                    result.add(toCluster(level, y, x, entry.getValue()));
+                }
+            }
+        }
+    }
+
+    private static GeoCluster toCluster(int level, int y, int x, Cell cell) {
+        double rowHeight = 180d / (1L << level);
+        double columnWidth = 360d / (1L << level);
+        return new GeoCluster(cell.count, cell.latitudesSum / cell.count, cell.longitudesSum / cell.count, cell.representative,
+                -90 + y * rowHeight, -180 + x * columnWidth, -90 + (y + 1) * rowHeight, -180 + (x + 1) * columnWidth);
+    }
+
+    /**
+     * @return the even bits of the key, inverse of the interleaving of
+     * GpsCoordinatesHelper.getCellKey
+     */
+    private static long compactBits(long key) {
+        long result = key & 0x5555555555555555L;
+        result = (result | (result >>> 1)) & 0x3333333333333333L;
+        result = (result | (result >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        result = (result | (result >>> 4)) & 0x00FF00FF00FF00FFL;
+        result = (result | (result >>> 8)) & 0x0000FFFF0000FFFFL;
+        result = (result | (result >>> 16)) & 0x00000000FFFFFFFFL;
+        return result;
+    }
+
+    private static boolean hasPosition(PhotatoMedia media) {
+        return media.position != null && media.position.latitude != null && media.position.longitude != null;
+    }
+
+    private static boolean isMoreRecent(PhotatoMedia media, PhotatoMedia other) {
+        return media.timestamp > other.timestamp || (media.timestamp == other.timestamp && media.fsPath.compareTo(other.fsPath) < 0);
+    }
+
+}
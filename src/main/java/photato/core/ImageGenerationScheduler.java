@@ -0,0 +1,178 @@
+package photato.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import photato.core.entities.PhotatoMedia;
+import photato.core.resize.fullscreen.IFullScreenImageGetter;
+import photato.core.resize.thumbnails.IThumbnailGenerator;
+
+/**
+ * Generates the thumbnails and fullscreen pictures on a fixed number of low
+ * priority threads. The queue is bounded: submitting blocks while it is full,
+ * so that the exploration cannot pile up more work than the heap can hold
+ */
+public class ImageGenerationScheduler implements Closeable {
+
+    public enum Priority {
+        HIGH, // Medias added while the server runs, the user is probably waiting for them
+        LOW // Initial exploration
+    }
+
+    private final IThumbnailGenerator thumbnailGenerator;
+    private final IFullScreenImageGetter fullScreenImageGetter;
+    private final IndexingProgress progress;
+    private final int queueCapacity;
+    private final PriorityQueue<Task> queue;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final Thread[] workers;
+    private long sequence;
+    private boolean closed;
+
+    public ImageGenerationScheduler(IThumbnailGenerator thumbnailGenerator, IFullScreenImageGetter fullScreenImageGetter, IndexingProgress progress, int workersCount, int queueCapacity) {
+        if (workersCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("The workers count and the queue capacity must be positive");
+        }
+
+        this.thumbnailGenerator = thumbnailGenerator;
+        this.fullScreenImageGetter = fullScreenImageGetter;
+        this.progress = progress;
+        this.queueCapacity = queueCapacity;
+        this.queue = new PriorityQueue<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = this.lock.newCondition();
+        this.notFull = this.lock.newCondition();
+
+        this.workers = new Thread[workersCount];
+        for (int i = 0; i < workersCount; i++) {
+            this.workers[i] = new Thread(this::runWorker, "ImageGenerationWorker-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].setPriority(Thread.MIN_PRIORITY); // Never slow down the requests handling
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Queues the generation of the media images, blocking while the queue is
+     * full
+     */
+    public void submit(PhotatoMedia media, Priority priority) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.queue.size() >= this.queueCapacity && !this.closed) {
+                this.notFull.await();
+            }
+
+            if (!this.closed) {
+                this.queue.add(new Task(media, priority, this.sequence++));
+                this.progress.imageQueued();
+                this.notEmpty.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the pending generations of a media, typically because it has been
+     * deleted in the meantime
+     */
+    public void cancel(PhotatoMedia media) {
+        this.lock.lock();
+        try {
+            int before = this.queue.size();
+            this.queue.removeIf((Task t) -> t.media == media);
+            for (int i = this.queue.size(); i < before; i++) {
+                this.progress.imageDone();
+            }
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getQueueSize() {
+        this.lock.lock();
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            while (this.queue.poll() != null) {
+                this.progress.imageDone();
+            }
+            this.notEmpty.signalAll();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        try {
+            for (Thread worker : this.workers) {
+                worker.join();
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            Task task;
+            this.lock.lock();
+            try {
+                while (this.queue.isEmpty() && !this.closed) {
+                    this.notEmpty.awaitUninterruptibly();
+                }
+                if (this.closed) {
+                    return;
+                }
+
+                task = this.queue.poll();
+                this.notFull.signal();
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                this.thumbnailGenerator.generateThumbnail(task.media);
+                this.fullScreenImageGetter.generateImage(task.media);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            } finally {
+                this.progress.imageDone();
+            }
+        }
+    }
+
+    private static class Task implements Comparable<Task> {
+
+        private final PhotatoMedia media;
+        private final Priority priority;
+        private final long sequence;
+
+        public Task(PhotatoMedia media, Priority priority, long sequence) {
+            this.media = media;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int c = this.priority.compareTo(other.priority);
+            return c != 0 ? c : Long.compare(this.sequence, other.sequence);
+        }
+
+    }
+}
@@ -0,0 +1,62 @@
+package photato.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the background indexing. They are updated by the
+ * indexing threads and can be read at any time without locking
+ */
+public class IndexingProgress {
+
+    private final AtomicLong foldersScanned = new AtomicLong();
+    private final AtomicLong mediasIndexed = new AtomicLong();
+    private final AtomicLong imagesPending = new AtomicLong();
+    private volatile boolean initialIndexingDone;
+
+    public long getFoldersScanned() {
+        return this.foldersScanned.get();
+    }
+
+    public long getMediasIndexed() {
+        return this.mediasIndexed.get();
+    }
+
+    public long getImagesPending() {
+        return this.imagesPending.get();
+    }
+
+    public boolean isInitialIndexingDone() {
+        return this.initialIndexingDone;
+    }
+
+    void folderScanned() {
+        this.foldersScanned.incrementAndGet();
+    }
+
+    void mediasIndexed(long delta) {
+        this.mediasIndexed.addAndGet(delta);
+    }
+
+    void imageQueued() {
+        this.imagesPending.incrementAndGet();
+    }
+
+    void imageDone() {
+        if (this.imagesPending.decrementAndGet() == 0) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    void initialIndexingDone() {
+        this.initialIndexingDone = true;
+    }
+
+    synchronized void waitForPendingImages() throws InterruptedException {
+        while (this.imagesPending.get() > 0) {
+            this.wait(100);
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package photato.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import photato.core.metadata.IMetadataAggregator;
+import photato.core.metadata.Metadata;
+import photato.core.scan.ScannedFile;
+import photato.helpers.Tuple;
+
+/**
+ * Ingests the medias detected while the server runs in stages, each one with
+ * its own threads: the files are collected into batches, the metadata of a
+ * whole batch is extracted at once (one exiftool run instead of one per
+ * file), then the batches are indexed one at a time. The indexer is expected
+ * to queue the images generation, which is the last stage
+ */
+public class IngestPipeline implements Closeable {
+
+    private final IMetadataAggregator metadataAggregator;
+    private final Consumer<List<Tuple<ScannedFile, Metadata>>> indexer;
+    private final int batchSize;
+    private final long batchDelayMs;
+    private final Map<Path, Long> pendingFiles; // Collected and not indexed yet, with the modification date they were collected with
+    private final List<ScannedFile> collectedFiles;
+    private final ThreadPoolExecutor extractionExecutor;
+    private final ExecutorService indexingExecutor;
+    private final Thread collectorThread;
+    private long firstCollectedTime;
+    private boolean closed;
+
+    /**
+     * @param batchSize maximum number of files extracted at once
+     * @param batchDelayMs how long the first file of a batch waits for others
+     * before the batch is extracted anyway
+     * @param extractionWorkers number of batches extracted in parallel
+     */
+    public IngestPipeline(IMetadataAggregator metadataAggregator, Consumer<List<Tuple<ScannedFile, Metadata>>> indexer, int batchSize, long batchDelayMs, int extractionWorkers) {
+        if (batchSize <= 0 || extractionWorkers <= 0) {
+            throw new IllegalArgumentException("The batch size and the extraction workers count must be positive");
+        }
+
+        this.metadataAggregator = metadataAggregator;
+        this.indexer = indexer;
+        this.batchSize = batchSize;
+        this.batchDelayMs = batchDelayMs;
+        this.pendingFiles = new ConcurrentHashMap<>();
+        this.collectedFiles = new ArrayList<>();
+
+        // When all the workers are busy and the queue is full, the collector extracts the batch itself and stops collecting meanwhile
+        AtomicInteger extractionWorkersCount = new AtomicInteger();
+        this.extractionExecutor = new ThreadPoolExecutor(extractionWorkers, extractionWorkers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(extractionWorkers), (Runnable r) -> {
+            Thread thread = new Thread(r, "IngestExtractionWorker-" + extractionWorkersCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.indexingExecutor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "IngestIndexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.collectorThread = new Thread(this::runCollector, "IngestCollector");
+        this.collectorThread.setDaemon(true);
+        this.collectorThread.start();
+    }
+
+    public synchronized void submit(ScannedFile file) {
+        if (this.closed) {
+            return;
+        }
+
+        this.pendingFiles.put(file.path, file.lastModificationTimestamp);
+        if (this.collectedFiles.isEmpty()) {
+            this.firstCollectedTime = System.currentTimeMillis();
+        }
+        this.collectedFiles.add(file);
+        this.notifyAll();
+    }
+
+    /**
+     * Forgets the pending files at this path or below it, typically because
+     * they have been deleted in the meantime
+     */
+    public synchronized void cancel(Path path) {
+        this.pendingFiles.keySet().removeIf((Path p) -> p.startsWith(path));
+        this.collectedFiles.removeIf((ScannedFile f) -> f.path.startsWith(path));
+    }
+
+    /**
+     * To be called by the indexer before indexing a file
+     *
+     * @return false if the file has been cancelled or submitted again since
+     * this version of it was collected, in which case it must be skipped
+     */
+    public boolean claim(ScannedFile file) {
+        return this.pendingFiles.remove(file.path, file.lastModificationTimestamp);
+    }
+
+    public int getPendingCount() {
+        return this.pendingFiles.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            this.closed = true;
+            this.notifyAll();
+        }
+
+        try {
+            this.collectorThread.join();
+            this.extractionExecutor.shutdownNow();
+            this.extractionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            this.indexingExecutor.shutdownNow();
+            this.indexingExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private void runCollector() {
+        while (true) {
+            List<ScannedFile> batch;
+            synchronized (this) {
+                try {
+                    while (!this.closed && (this.collectedFiles.isEmpty() || this.collectedFiles.size() < this.batchSize && System.currentTimeMillis() - this.firstCollectedTime < this.batchDelayMs)) {
+                        if (this.collectedFiles.isEmpty()) {
+                            this.wait();
+                        } else {
+                            this.wait(Math.max(1, this.batchDelayMs - (System.currentTimeMillis() - this.firstCollectedTime)));
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (this.closed) {
+                    return;
+                }
+
+                batch = new ArrayList<>(this.collectedFiles.subList(0, Math.min(this.batchSize, this.collectedFiles.size())));
+                this.collectedFiles.subList(0, batch.size()).clear();
+                this.firstCollectedTime = System.currentTimeMillis();
+            }
+
+            this.extractionExecutor.execute(() -> this.extract(batch));
+        }
+    }
+
+    private void extract(List<ScannedFile> batch) {
+        try {
+            // Cancelled while waiting for a worker
+            List<ScannedFile> files = batch.stream().filter((ScannedFile f) -> Long.valueOf(f.lastModificationTimestamp).equals(this.pendingFiles.get(f.path))).collect(Collectors.toList());
+            Map<Path, Metadata> metadatas = this.metadataAggregator.getMetadatas(files.stream().map((ScannedFile f) -> new Tuple<>(f.path, f.lastModificationTimestamp)).collect(Collectors.toList()));
+
+            List<Tuple<ScannedFile, Metadata>> extracted = new ArrayList<>();
+            for (ScannedFile f : files) {
+                if (metadatas.containsKey(f.path)) {
+                    extracted.add(new Tuple<>(f, metadatas.get(f.path)));
+                } else {
+                    this.pendingFiles.remove(f.path, f.lastModificationTimestamp); // Unreadable, it will never be claimed
+                }
+            }
+            this.indexingExecutor.execute(() -> {
+                try {
+                    this.indexer.accept(extracted);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            });
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package photato.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import photato.core.entities.PhotatoMedia;
+import photato.core.metadata.gps.GpsCoordinatesHelper;
+
+/**
+ * Secondary indexes of the medias for the structured filters of the searches.
+ * Each media gets a small integer id, so that the filters are bitmaps which
+ * intersect by words instead of sets of medias. The dates are a primitive
+ * array of the ids sorted by timestamp, in which a range is two binary
+ * searches. The positions are sorted the same way by the key of their cell
+ * in a geohash-like grid, an area being the few ranges of keys of the cells
+ * covering it. The medias added meanwhile are appended to pending arrays
+ * merged in by the next search, and the ids of the removed medias are only
+ * reused after that merge dropped them from the sorted arrays
+ */
+public class MediaFiltersIndex {
+
+    private static final int minPendingToMerge = 1024;
+    private static final int maxCoveringCells = 16; // Fewer and larger cells mean fewer ranges but more positions outside the area to check
+
+    private static class SortedIds {
+
+        private long[] keys;
+        private int[] ids;
+        private int count;
+        private long[] pendingKeys;
+        private int[] pendingIds;
+        private int pendingCount;
+
+        public SortedIds() {
+            this.keys = new long[0];
+            this.ids = new int[0];
+            this.pendingKeys = new long[16];
+            this.pendingIds = new int[16];
+        }
+
+        public void add(long key, int id) {
+            if (this.pendingCount == this.pendingIds.length) {
+                this.pendingKeys = Arrays.copyOf(this.pendingKeys, 2 * this.pendingCount);
+                this.pendingIds = Arrays.copyOf(this.pendingIds, 2 * this.pendingCount);
+            }
+            this.pendingKeys[this.pendingCount] = key;
+            this.pendingIds[this.pendingCount] = id;
+            this.pendingCount++;
+        }
+
+        /**
+         * Bounds the pending ids while indexing, merging costs the size of
+         * the sorted array
+         */
+        public boolean isMergeNeeded() {
+            return this.pendingCount >= Math.max(minPendingToMerge, this.count / 4);
+        }
+
+        /**
+         * Sorts the pending ids and merges them with the sorted array,
+         * without the removed ones
+         */
+        public void merge(BitSet removed) {
+            long[] pendingKeys = this.pendingKeys;
+            Integer[] pendingOrder = new Integer[this.pendingCount];
+            for (int i = 0; i < pendingOrder.length; i++) {
+                pendingOrder[i] = i;
+            }
+            Arrays.sort(pendingOrder, Comparator.comparingLong((Integer i) -> pendingKeys[i]));
+
+            long[] keys = new long[this.count + this.pendingCount];
+            int[] ids = new int[keys.length];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < this.count || j < pendingOrder.length) {
+                boolean fromSorted = j == pendingOrder.length || (i < this.count && this.keys[i] <= pendingKeys[pendingOrder[j]]);
+                long key = fromSorted ? this.keys[i] : pendingKeys[pendingOrder[j]];
+                int id = fromSorted ? this.ids[i++] : this.pendingIds[pendingOrder[j++]];
+                if (!removed.get(id)) {
+                    keys[count] = key;
+                    ids[count] = id;
+                    count++;
+                }
+            }
+
+            this.keys = keys;
+            this.ids = ids;
+            this.count = count;
+            this.pendingCount = 0;
+        }
+
+        /**
+         * @return the first index whose key is at least the given one
+         */
+        public int lowerBound(long key) {
+            int low = 0;
+            int high = this.count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.keys[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+    }
+
+    private final ReentrantReadWriteLock lock;
+    private final List<PhotatoMedia> medias; // By id, null if free
+    private final List<Integer> freeIds;
+    private final BitSet removedSinceMerge; // Still in the sorted arrays, not free yet
+    private final Map<String, BitSet> mediaTypes;
+    private final Map<SearchFilters.Orientation, BitSet> orientations;
+    private final SortedIds timestamps;
+    private final SortedIds cells;
+    private double[] latitudes; // By id
+    private double[] longitudes;
+
+    public MediaFiltersIndex() {
+        this.lock = new ReentrantReadWriteLock();
+        this.medias = new ArrayList<>();
+        this.freeIds = new ArrayList<>();
+        this.removedSinceMerge = new BitSet();
+        this.mediaTypes = new HashMap<>();
+        this.orientations = new EnumMap<>(SearchFilters.Orientation.class);
+        this.timestamps = new SortedIds();
+        this.cells = new SortedIds();
+        this.latitudes = new double[16];
+        this.longitudes = new double[16];
+    }
+
+    /**
+     * @return the id of the media, to be given back to removeMedia
+     */
+    public int addMedia(PhotatoMedia media) {
+        this.lock.writeLock().lock();
+        try {
+            int id;
+            if (this.freeIds.isEmpty()) {
+                id = this.medias.size();
+                this.medias.add(media);
+            } else {
+                id = this.freeIds.remove(this.freeIds.size() - 1);
+                this.medias.set(id, media);
+            }
+
+            this.mediaTypes.computeIfAbsent(media.mediaType, (String t) -> new BitSet()).set(id);
+            SearchFilters.Orientation orientation = SearchFilters.Orientation.of(media.width, media.height);
+            if (orientation != null) {
+                this.orientations.computeIfAbsent(orientation, (SearchFilters.Orientation o) -> new BitSet()).set(id);
+            }
+
+            if (media.timestamp > 0) { // Else the date is unknown and matches no date range
+                this.timestamps.add(media.timestamp, id);
+            }
+
+            if (media.position != null && media.position.latitude != null && media.position.longitude != null) {
+                if (id >= this.latitudes.length) {
+                    this.latitudes = Arrays.copyOf(this.latitudes, 2 * id);
+                    this.longitudes = Arrays.copyOf(this.longitudes, 2 * id);
+                }
+                this.latitudes[id] = media.position.latitude;
+                this.longitudes[id] = media.position.longitude;
+                this.cells.add(GpsCoordinatesHelper.getCellKey(GpsCoordinatesHelper.getCellY(media.position.latitude), GpsCoordinatesHelper.getCellX(media.position.longitude)), id);
+            }
+
+            if (this.timestamps.isMergeNeeded() || this.cells.isMergeNeeded()) {
+                this.merge();
+            }
+            return id;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void removeMedia(int id) {
+        this.lock.writeLock().lock();
+        try {
+            PhotatoMedia media = this.medias.set(id, null);
+            if (media != null) {
+                BitSet mediaType = this.mediaTypes.get(media.mediaType);
+                mediaType.clear(id);
+                for (BitSet orientation : this.orientations.values()) {
+                    orientation.clear(id);
+                }
+                this.removedSinceMerge.set(id);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the media of this id, null if removed
+     */
+    public PhotatoMedia getMedia(int id) {
+        this.lock.readLock().lock();
+        try {
+            return id < this.medias.size() ? this.medias.get(id) : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the ids of the medias matching all the filters, or null if
+     * there is no filter
+     */
+    public BitSet find(SearchFilters filters) {
+        this.lock.readLock().lock();
+        if (this.hasPendingChanges()) {
+            // A read lock cannot be upgraded: the write lock is only taken to merge, then downgraded for the search
+            this.lock.readLock().unlock();
+            this.lock.writeLock().lock();
+            try {
+                if (this.hasPendingChanges()) {
+                    this.merge();
+                }
+                this.lock.readLock().lock();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        try {
+            BitSet result = null;
+            if (filters.hasDateRange()) {
+                result = new BitSet(this.medias.size());
+                int to = this.timestamps.lowerBound(filters.getMaxTimestamp());
+                for (int i = this.timestamps.lowerBound(filters.getMinTimestamp()); i < to; i++) {
+                    result.set(this.timestamps.ids[i]);
+                }
+            }
+            if (filters.getMediaType() != null) {
+                result = intersect(result, this.mediaTypes.get(filters.getMediaType()));
+            }
+            if (filters.getOrientation() != null) {
+                result = intersect(result, this.orientations.get(filters.getOrientation()));
+            }
+            if (filters.hasArea()) {
+                BitSet inArea = new BitSet(this.medias.size());
+                if (filters.getMinLongitude() <= filters.getMaxLongitude()) {
+                    this.findInBox(filters, filters.getMinLongitude(), filters.getMaxLongitude(), inArea);
+                } else {
+                    this.findInBox(filters, filters.getMinLongitude(), 180, inArea);
+                    this.findInBox(filters, -180, filters.getMaxLongitude(), inArea);
+                }
+                result = intersect(result, inArea);
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Covers the box with at most maxCoveringCells cells of the coarsest grid
+     * needed, each one a range of the sorted keys, and checks the positions
+     * found there against the exact area
+     */
+    private void findInBox(SearchFilters filters, double minLongitude, double maxLongitude, BitSet result) {
+        int minY = GpsCoordinatesHelper.getCellY(filters.getMinLatitude());
+        int maxY = GpsCoordinatesHelper.getCellY(filters.getMaxLatitude());
+        int minX = GpsCoordinatesHelper.getCellX(minLongitude);
+        int maxX = GpsCoordinatesHelper.getCellX(maxLongitude);
+        int shift = 0;
+        while (((long) (maxY >> shift) - (minY >> shift) + 1) * ((long) (maxX >> shift) - (minX >> shift) + 1) > maxCoveringCells) {
+            shift++;
+        }
+
+        for (long y = minY >> shift; y <= maxY >> shift; y++) { // Not an int, the last row is Integer.MAX_VALUE
+            for (long x = minX >> shift; x <= maxX >> shift; x++) {
+                long from = GpsCoordinatesHelper.getCellKey((int) (y << shift), (int) (x << shift));
+                long to = from + (1L << (2 * shift));
+                for (int i = this.cells.lowerBound(from); i < this.cells.count && this.cells.keys[i] < to; i++) {
+                    int id = this.cells.ids[i];
+                    if (filters.isInArea(this.latitudes[id], this.longitudes[id])) {
+                        result.set(id);
+                    }
+                }
+            }
+        }
+    }
+
+    private static BitSet intersect(BitSet result, BitSet bitmap) {
+        if (bitmap == null) {
+            return new BitSet();
+        } else if (result == null) {
+            return (BitSet) bitmap.clone();
+        } else {
+            result.and(bitmap);
+            return result;
+        }
+    }
+
+    private boolean hasPendingChanges() {
+        return this.timestamps.pendingCount > 0 || this.cells.pendingCount > 0 || !this.removedSinceMerge.isEmpty();
+    }
+
+    /**
+     * Merges the pending ids in the sorted arrays, which drops the removed
+     * ones, whose ids are then free
+     */
+    private void merge() {
+        this.timestamps.merge(this.removedSinceMerge);
+        this.cells.merge(this.removedSinceMerge);
+        for (int id = this.removedSinceMerge.nextSetBit(0); id >= 0; id = this.removedSinceMerge.nextSetBit(id + 1)) {
+            this.freeIds.add(id);
+        }
+        this.removedSinceMerge.clear();
+    }
+
+}
@@ -10,16 +10,31 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import photato.core.entities.PhotatoFolder;
 import photato.core.entities.PhotatoMedia;
@@ -28,79 +43,186 @@ import photato.core.metadata.IMetadataAggregator;
 import photato.core.metadata.Metadata;
 import photato.core.resize.fullscreen.IFullScreenImageGetter;
 import photato.core.resize.thumbnails.IThumbnailGenerator;
-import photato.helpers.FileHelper;
+import photato.core.scan.DirectoryScanner;
+import photato.core.scan.ScannedDirectory;
+import photato.core.scan.ScannedFile;
+import photato.core.snapshot.SnapshotFolder;
+import photato.core.snapshot.SnapshotMedia;
+import photato.core.snapshot.TreeSnapshot;
+import photato.helpers.EditDistanceHelper;
 import photato.helpers.MediaHelper;
+import photato.helpers.QueryResultCache;
 import photato.helpers.SearchQueryHelper;
 import photato.helpers.Tuple;
 
 public class PhotatoFilesManager implements Closeable {
 
+    private static final long snapshotSaveIntervalMs = 5 * 60 * 1000;
+
     private final FileSystem fileSystem;
     private final IMetadataAggregator metadataAggregator;
     private final IThumbnailGenerator thumbnailGenerator;
     private final IFullScreenImageGetter fullScreenImageGetter;
-    private final PhotatoFolder rootFolder;
+    private final Path rootFolderPath;
+    private final AtomicReference<PhotatoFolder> rootFolder; // Published tree: its folders are never modified, writers publish modified copies
+    private final Object treeWriteLock = new Object();
     private final SearchManager searchManager;
     private final AlbumsManager albumsManager;
+    private final WatchService watcher; // Null when the changes are detected by polling
     private final WatchServiceThread watchServiceThread;
+    private final PollingThread pollingThread;
+    private final InitialIndexingThread initialIndexingThread;
+    private final IndexingProgress progress;
+    private final ImageGenerationScheduler imageGenerationScheduler;
+    private final IngestPipeline ingestPipeline;
     private final Map<Path, WatchKey> watchedDirectoriesKeys;
     private final Map<WatchKey, Path> watchedDirectoriesPaths;
     private final boolean prefixOnlyMode;
-    private final boolean useParallelPicturesGeneration;
+    private final ForkJoinPool explorationPool;
+    private final Path snapshotFile;
+    private final Map<Path, Long> ignoredFolders;
+    private final Timer snapshotTimer;
+    private final Object closeLock = new Object();
+    private boolean closed; // Guarded by closeLock, so that no background work starts once closed
+    private final WatchEventCoalescer watchEventCoalescer;
+    private final Object changesLock; // The changes are applied one at a time, whoever detected them
+    private final Set<Path> pendingResyncs; // Subtrees to compare with the disk, by the thread detecting the changes
+    private final long quietPeriodMs;
+    private volatile boolean treeChanged;
+    private final AtomicLong treeGeneration; // Bumped on every publication of the tree
+    private final QueryResultCache<List<Object>, List<PhotatoFolder>> foldersSearchCache;
 
     public PhotatoFilesManager(Path rootFolder, FileSystem fileSystem, IMetadataAggregator metadataGetter, IThumbnailGenerator thumbnailGenerator, IFullScreenImageGetter fullScreenImageGetter, boolean prefixOnlyMode, boolean indexFolderName, boolean useParallelPicturesGeneration) throws IOException {
+        this(rootFolder, fileSystem, metadataGetter, thumbnailGenerator, fullScreenImageGetter, createOptions(prefixOnlyMode, indexFolderName, useParallelPicturesGeneration));
+    }
+
+    public PhotatoFilesManager(Path rootFolder, FileSystem fileSystem, IMetadataAggregator metadataGetter, IThumbnailGenerator thumbnailGenerator, IFullScreenImageGetter fullScreenImageGetter, PhotatoFilesManagerOptions options) throws IOException {
         this.fileSystem = fileSystem;
         this.metadataAggregator = metadataGetter;
         this.thumbnailGenerator = thumbnailGenerator;
         this.fullScreenImageGetter = fullScreenImageGetter;
-        this.rootFolder = new PhotatoFolder(rootFolder, rootFolder);
-        this.searchManager = new SearchManager(prefixOnlyMode, indexFolderName);
+        this.rootFolderPath = rootFolder;
+        this.rootFolder = new AtomicReference<>(new PhotatoFolder(rootFolder, rootFolder));
+        this.searchManager = new SearchManager(options.prefixOnlyMode, options.indexFolderName, options.searchCacheSize, options.searchIndexType, options.searchIndexMemoryBudget, options.searchIndexFile);
         this.albumsManager = new AlbumsManager();
-        this.prefixOnlyMode = prefixOnlyMode;
-        this.useParallelPicturesGeneration = useParallelPicturesGeneration;
+        this.prefixOnlyMode = options.prefixOnlyMode;
+        this.explorationPool = new ForkJoinPool(options.explorationParallelism > 0 ? options.explorationParallelism : Runtime.getRuntime().availableProcessors());
+        this.progress = new IndexingProgress();
+        int imageGenerationWorkers = options.imageGenerationWorkers;
+        if (imageGenerationWorkers <= 0) {
+            imageGenerationWorkers = options.useParallelPicturesGeneration ? Runtime.getRuntime().availableProcessors() : 1; // Thumbnail generation takes a lot of RAM, having it parallel would take too much ram (bad on small machines)
+        }
+        this.imageGenerationScheduler = new ImageGenerationScheduler(thumbnailGenerator, fullScreenImageGetter, this.progress, imageGenerationWorkers, options.imageGenerationQueueSize);
+        this.ingestPipeline = new IngestPipeline(metadataGetter, this::indexIngestedFiles, options.ingestBatchSize, options.ingestBatchDelayMs, options.ingestExtractionWorkers);
+        this.snapshotFile = options.snapshotFile;
+        this.ignoredFolders = new ConcurrentHashMap<>();
+        this.snapshotTimer = new Timer("TreeSnapshotTimer", true);
+        this.watchEventCoalescer = new WatchEventCoalescer(options.watchQuietPeriodMs);
+        this.quietPeriodMs = options.watchQuietPeriodMs;
+        this.changesLock = new Object();
+        this.pendingResyncs = ConcurrentHashMap.newKeySet();
+        this.treeGeneration = new AtomicLong();
+        this.foldersSearchCache = new QueryResultCache<>(options.searchCacheSize);
 
-        WatchService watcher = this.fileSystem.newWatchService();
-        this.watchedDirectoriesKeys = new HashMap<>();
-        this.watchedDirectoriesPaths = new HashMap<>();
-        this.runInitialFolderExploration(watcher, this.rootFolder);
-        this.watchServiceThread = new WatchServiceThread(watcher);
-        this.watchServiceThread.start();
+        this.watchedDirectoriesKeys = new ConcurrentHashMap<>();
+        this.watchedDirectoriesPaths = new ConcurrentHashMap<>();
+        if (options.changeDetectionMode == ChangeDetectionMode.WATCH) {
+            this.watcher = this.fileSystem.newWatchService();
+            this.watchServiceThread = new WatchServiceThread();
+            this.pollingThread = null;
+        } else {
+            // Huge trees exhaust the inotify watches, and network filesystems do not notify at all
+            this.watcher = null;
+            this.watchServiceThread = null;
+            this.pollingThread = new PollingThread(options.pollIntervalMs, options.pollMaxDirectoriesPerCycle);
+        }
+
+        // The gallery is served right away, folders appear as soon as they have been explored
+        this.initialIndexingThread = new InitialIndexingThread();
+        this.initialIndexingThread.start();
     }
 
-    public List<PhotatoFolder> getFoldersInFolder(String folder) {
-        PhotatoFolder currentFolder = isVirtualFolder(folder) ? this.albumsManager.getCurrentFolder(folder) : this.getCurrentFolder(this.rootFolder.fsPath.resolve(folder));
+    private static PhotatoFilesManagerOptions createOptions(boolean prefixOnlyMode, boolean indexFolderName, boolean useParallelPicturesGeneration) {
+        PhotatoFilesManagerOptions options = new PhotatoFilesManagerOptions();
+        options.prefixOnlyMode = prefixOnlyMode;
+        options.indexFolderName = indexFolderName;
+        options.useParallelPicturesGeneration = useParallelPicturesGeneration;
+        return options;
+    }
 
-        if (currentFolder != null) {
-            return currentFolder.subFolders.values().stream().filter((PhotatoFolder f) -> !f.isEmpty()).collect(Collectors.toList());
-        } else {
-            return new ArrayList<>();
-        }
+    public List<PhotatoFolder> getFoldersInFolder(String folder) {
+        return this.readFolder(folder, (PhotatoFolder currentFolder) -> currentFolder.subFolders.values().stream().filter((PhotatoFolder f) -> !f.isEmpty()).collect(Collectors.toList()));
     }
 
     public List<PhotatoMedia> getMediasInFolder(String folder) {
-        PhotatoFolder currentFolder = isVirtualFolder(folder) ? this.albumsManager.getCurrentFolder(folder) : this.getCurrentFolder(this.rootFolder.fsPath.resolve(folder));
+        return this.readFolder(folder, (PhotatoFolder currentFolder) -> new ArrayList<>(currentFolder.medias));
+    }
 
-        if (currentFolder != null) {
-            return new ArrayList<>(currentFolder.medias);
-        } else {
-            return new ArrayList<>();
+    public IndexingProgress getIndexingProgress() {
+        return this.progress;
+    }
+
+    /**
+     * Queues the resync of a folder and all its subfolders with the
+     * filesystem, run in the background by the thread detecting the changes.
+     * Every directory of the subtree is listed again, but only the new or
+     * modified medias are read
+     *
+     * @return false if the folder is unknown
+     */
+    public boolean rescanFolder(String folder) {
+        Path path = this.rootFolderPath.resolve(folder).normalize();
+        if (!path.startsWith(this.rootFolderPath) || isVirtualFolder(folder) || (this.getCurrentFolder(path) == null && !this.ignoredFolders.containsKey(path))) {
+            return false;
         }
+
+        this.pendingResyncs.add(path);
+        return true;
+    }
+
+    /**
+     * Blocks until the initial exploration is over and all the images it
+     * queued have been generated
+     */
+    public void waitForInitialIndexing() throws InterruptedException {
+        this.initialIndexingThread.join();
+        this.progress.waitForPendingImages();
     }
 
     public List<PhotatoMedia> searchMediasInFolder(String folder, String searchQuery) {
-        PhotatoFolder currentFolder = isVirtualFolder(folder) ? this.albumsManager.getCurrentFolder(folder) : this.getCurrentFolder(this.rootFolder.fsPath.resolve(folder));
+        PhotatoFolder currentFolder = isVirtualFolder(folder) ? this.albumsManager.getCurrentFolder(folder) : this.getCurrentFolder(this.rootFolderPath.resolve(folder));
+        if (currentFolder == null) {
+            return new ArrayList<>(); // Unknown, or not explored yet
+        }
 
         return this.searchManager.searchMediasInFolder(currentFolder.fsPath, searchQuery, isVirtualFolder(folder));
     }
 
+    public SearchResultsPage searchMediasInFolder(String folder, String searchQuery, int offset, int limit) {
+        PhotatoFolder currentFolder = isVirtualFolder(folder) ? this.albumsManager.getCurrentFolder(folder) : this.getCurrentFolder(this.rootFolderPath.resolve(folder));
+        if (currentFolder == null) {
+            return new SearchResultsPage(new ArrayList<>(), offset, 0);
+        }
+
+        return this.searchManager.searchMediasInFolder(currentFolder.fsPath, searchQuery, isVirtualFolder(folder), offset, limit);
+    }
+
     public List<PhotatoFolder> searchFoldersInFolder(String folder, String searchQuery) {
         // Search for a folder with the correct name. This is just a recursive exploration since we suppose the number of folders will be low enough and thus we would be able to "bruteforce" it
+        SearchFilters filters = SearchFilters.parse(searchQuery);
         List<String> searchQuerySplit = SearchQueryHelper.getSplittedTerms(searchQuery);
-        List<PhotatoFolder> result = new ArrayList<>();
 
-        if (!searchQuerySplit.isEmpty()) {
-            PhotatoFolder currentFolder = isVirtualFolder(folder) ? this.albumsManager.getCurrentFolder(folder) : this.getCurrentFolder(this.rootFolder.fsPath.resolve(folder));
+        if (searchQuerySplit.isEmpty() || !filters.isEmpty()) {
+            return new ArrayList<>(); // The filters are about medias, no folder matches them
+        }
+
+        Map<String, Integer> maxDistances = SearchQueryHelper.getMaxEditDistances(searchQuery);
 
+        // The results also depend on the albums, which only change with the indexed medias
+        long generation = this.treeGeneration.get() + this.searchManager.getGeneration();
+        List<Object> key = Arrays.asList(folder, SearchQueryHelper.getNormalizedQuery(searchQuerySplit, maxDistances), this.prefixOnlyMode);
+        return new ArrayList<>(this.foldersSearchCache.get(key, generation, () -> this.readFolder(folder, (PhotatoFolder currentFolder) -> {
+            List<PhotatoFolder> result = new ArrayList<>();
             Queue<PhotatoFolder> queue = new LinkedList<>();
             queue.add(currentFolder);
 
@@ -110,128 +232,444 @@ public class PhotatoFilesManager implements Closeable {
 
                 if (!currentFolder.isEmpty()) {
                     List<String> currentFolderCleanedFilename = SearchQueryHelper.getSplittedTerms(currentFolder.filename);
-                    boolean ok = searchQuerySplit.stream().allMatch((s) -> (currentFolderCleanedFilename.stream().anyMatch((String t) -> (prefixOnlyMode && t.startsWith(s)) || (!prefixOnlyMode && t.contains(s)))));
+                    boolean ok = searchQuerySplit.stream().allMatch((s) -> (currentFolderCleanedFilename.stream().anyMatch((String t) -> maxDistances.containsKey(s) ? EditDistanceHelper.containsApproximately(t, s, maxDistances.get(s), prefixOnlyMode) : (prefixOnlyMode && t.startsWith(s)) || (!prefixOnlyMode && t.contains(s)))));
 
                     if (ok) {
                         result.add(currentFolder);
                     }
                 }
             }
-        }
 
-        return result;
+            return result;
+        })));
+    }
+
+    /**
+     * @return the clusters of the geotagged medias in the view of a map
+     */
+    public List<GeoCluster> getGeoClusters(double south, double west, double north, double east, int zoom) {
+        return this.searchManager.getGeoClusters(south, west, north, east, zoom);
+    }
+
+    public QueryResultCache<?, ?> getMediasSearchCache() {
+        return this.searchManager.getResultsCache();
+    }
+
+    public QueryResultCache<?, ?> getFoldersSearchCache() {
+        return this.foldersSearchCache;
     }
 
     @Override
     public void close() throws IOException {
-        this.watchServiceThread.shutdown();
+        synchronized (this.closeLock) {
+            this.closed = true;
+            this.snapshotTimer.cancel();
+            if (this.watchServiceThread != null) {
+                this.watchServiceThread.shutdown();
+            } else {
+                this.pollingThread.shutdown();
+            }
+        }
+        this.explorationPool.shutdownNow();
+        this.ingestPipeline.close();
+        this.imageGenerationScheduler.close();
         try {
-            this.watchServiceThread.join();
+            this.initialIndexingThread.join();
+            if (this.watchServiceThread != null) {
+                this.watchServiceThread.join();
+            } else {
+                this.pollingThread.join();
+            }
         } catch (InterruptedException ex) {
             throw new IOException(ex);
         }
+
+        this.saveSnapshot();
     }
 
-    private void runInitialFolderExploration(WatchService watcher, PhotatoFolder baseFolder) throws IOException {
-        synchronized (this.rootFolder) {
-            Queue<PhotatoFolder> foldersToExplore = new LinkedList<>();
-            foldersToExplore.add(baseFolder);
+    /**
+     * Only complete trees are saved: with a partial one, the folders not
+     * explored yet would be considered deleted on next start
+     */
+    private synchronized void saveSnapshot() {
+        if (this.snapshotFile == null || !this.progress.isInitialIndexingDone() || !this.treeChanged) {
+            return;
+        }
 
-            while (!foldersToExplore.isEmpty()) {
-                PhotatoFolder currentFolder = foldersToExplore.remove();
-                System.out.println("Exploring " + currentFolder);
+        this.treeChanged = false;
 
-                // Registering currentDirectory to watcher
-                WatchKey key = currentFolder.fsPath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
-                this.watchedDirectoriesKeys.put(currentFolder.fsPath, key);
-                this.watchedDirectoriesPaths.put(key, currentFolder.fsPath);
+        Map<Path, List<SnapshotFolder>> ignoredFoldersByParent = new HashMap<>();
+        for (Map.Entry<Path, Long> entry : this.ignoredFolders.entrySet()) {
+            ignoredFoldersByParent.computeIfAbsent(entry.getKey().getParent(), (Path p) -> new ArrayList<>())
+                    .add(new SnapshotFolder(entry.getKey().getFileName().toString(), entry.getValue(), 0, true, new ArrayList<>(), new HashMap<>()));
+        }
 
-                List<PhotatoFolder> folders = Files.list(currentFolder.fsPath)
-                        .filter((Path path) -> Files.isReadable(path) && Files.isDirectory(path) && !FileHelper.folderContainsIgnoreFile(path))
-                        .map((Path path) -> new PhotatoFolder(this.rootFolder.fsPath, path))
-                        .collect(Collectors.toList());
-                foldersToExplore.addAll(folders);
+        SnapshotFolder snapshot = this.createSnapshot(this.rootFolder.get(), ignoredFoldersByParent);
 
-                for (PhotatoFolder folder : folders) {
-                    currentFolder.subFolders.put(folder.fsPath.getFileName().toString(), folder);
-                }
+        try {
+            TreeSnapshot.write(this.snapshotFile, this.rootFolderPath, snapshot);
+            this.searchManager.saveIndex();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            this.treeChanged = true;
+        }
+    }
 
-                // Renaming pictures with 2+ spaces in a row since this will cause trouble then
-                Files.list(currentFolder.fsPath).forEach((Path path) -> {
-                    if (path.getFileName().toString().contains("  ")) {
-                        String newFilename = path.getFileName().toString().replaceAll("[ ]{2,}", " ");
-                        Path newPath = path.resolveSibling(newFilename);
-                        path.toFile().renameTo(newPath.toFile());
+    private SnapshotFolder createSnapshot(PhotatoFolder folder, Map<Path, List<SnapshotFolder>> ignoredFoldersByParent) {
+        List<SnapshotMedia> medias = folder.medias.stream().map(SnapshotMedia::fromMedia).collect(Collectors.toList());
 
-                        System.err.println("[WARNING] Renamed \"" + path + "\" to \"" + newPath + "\"");
-                    }
-                });
-
-                // Extraction of pictures metadata
-                Map<Path, Metadata> metadatas = this.metadataAggregator.getMetadatas(
-                        Files.list(currentFolder.fsPath).parallel()
-                                .filter((Path path) -> MediaHelper.isPictureFile(path) || MediaHelper.isVideoFile(path))
-                                .map((path) -> new Tuple<>(path, tryGetLastModifiedTimestamp(path)))
-                                .collect(Collectors.toList()));
-
-                List<PhotatoMedia> medias = metadatas.entrySet().parallelStream()
-                        .map((Map.Entry<Path, Metadata> entry) -> PhotatoMedia.createMedia(this.rootFolder.fsPath, entry.getKey(), entry.getValue(),
-                        new PictureInfos(this.thumbnailGenerator.getThumbnailUrl(entry.getKey(), tryGetLastModifiedTimestamp(entry.getKey())), this.thumbnailGenerator.getThumbnailWidth(entry.getValue().width, entry.getValue().height), this.thumbnailGenerator.getThumbnailHeight(entry.getValue().width, entry.getValue().height)),
-                        new PictureInfos(this.fullScreenImageGetter.getImageUrl(entry.getKey(), tryGetLastModifiedTimestamp(entry.getKey())), this.fullScreenImageGetter.getImageWidth(entry.getValue().width, entry.getValue().height), this.fullScreenImageGetter.getImageHeight(entry.getValue().width, entry.getValue().height)),
-                        tryGetLastModifiedTimestamp(entry.getKey())))
-                        .collect(Collectors.toList());
-
-                medias.forEach((PhotatoMedia media) -> {
-                    currentFolder.medias.add(media);
-                    searchManager.addMedia(rootFolder, media);
-                    albumsManager.addMedia(media);
-                });
-
-                Stream<PhotatoMedia> thumbnailStream = this.useParallelPicturesGeneration ? medias.parallelStream() : medias.stream(); // This could be a parallel stream. However, since thumbnail generation takes a lot of RAM, having it parallel would take too much ram (bad on small machines)
-                thumbnailStream.forEach((PhotatoMedia media) -> {
-                    try {
-                        thumbnailGenerator.generateThumbnail(media);
-                        fullScreenImageGetter.generateImage(media);
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
+        Map<String, SnapshotFolder> subFolders = new HashMap<>();
+        for (PhotatoFolder subFolder : folder.subFolders.values()) {
+            subFolders.put(subFolder.filename, this.createSnapshot(subFolder, ignoredFoldersByParent));
+        }
+        for (SnapshotFolder ignoredFolder : ignoredFoldersByParent.getOrDefault(folder.fsPath, new ArrayList<>())) {
+            subFolders.put(ignoredFolder.filename, ignoredFolder);
+        }
+
+        return new SnapshotFolder(folder.filename, folder.lastModificationTimestamp, folder.listingDigest, false, medias, subFolders);
+    }
+
+    /**
+     * Runs the reader on the wanted folder. The real folders are read from the
+     * published tree without locking, the albums are still modified in place
+     * and need their lock
+     */
+    private <T> List<T> readFolder(String folder, Function<PhotatoFolder, List<T>> reader) {
+        if (isVirtualFolder(folder)) {
+            synchronized (this.albumsManager) {
+                return readFolder(this.albumsManager.getCurrentFolder(folder), reader);
+            }
+        } else {
+            return readFolder(this.getCurrentFolder(this.rootFolderPath.resolve(folder)), reader);
+        }
+    }
+
+    private static <T> List<T> readFolder(PhotatoFolder currentFolder, Function<PhotatoFolder, List<T>> reader) {
+        if (currentFolder != null) {
+            return reader.apply(currentFolder);
+        } else {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return false if the folder has been ignored (it contains a
+     * .photatoignore file)
+     */
+    private boolean runInitialFolderExploration(PhotatoFolder baseFolder, SnapshotFolder snapshot, ImageGenerationScheduler.Priority priority) {
+        // Sibling subtrees are independent, so they are explored in parallel. Each task fills its own folder before publishing it in the tree, and the shared managers are thread-safe
+        FolderExplorationTask task = new FolderExplorationTask(baseFolder, snapshot, priority);
+        this.explorationPool.invoke(task);
+        return task.explored;
+    }
+
+    /**
+     * @param snapshot the state of the folder when the previous run stopped,
+     * or null if unknown
+     */
+    private boolean exploreFolder(PhotatoFolder currentFolder, SnapshotFolder snapshot, List<Tuple<PhotatoFolder, SnapshotFolder>> foldersToExplore, ImageGenerationScheduler.Priority priority) throws IOException {
+        // Registering currentDirectory to watcher before listing it, so that no file can be missed
+        this.watchDirectory(currentFolder.fsPath);
+
+        List<ScannedFile> mediaFiles;
+        Map<Path, Metadata> metadatas = new HashMap<>();
+        long directoryTimestamp;
+        long listingDigest;
+
+        if (snapshot != null && snapshot.lastModificationTimestamp == DirectoryScanner.readFile(currentFolder.fsPath).lastModificationTimestamp) {
+            // No entry has been added, removed or renamed since the snapshot, the directory does not need to be listed
+            directoryTimestamp = snapshot.lastModificationTimestamp;
+            listingDigest = snapshot.listingDigest;
+            if (snapshot.ignored) {
+                this.ignoreFolder(currentFolder.fsPath, directoryTimestamp);
+                return false;
+            }
+
+            for (SnapshotFolder snapshotSubFolder : snapshot.subFolders.values()) {
+                foldersToExplore.add(new Tuple<>(new PhotatoFolder(this.rootFolderPath, currentFolder.fsPath.resolve(snapshotSubFolder.filename)), snapshotSubFolder));
+            }
+
+            mediaFiles = new ArrayList<>();
+            for (SnapshotMedia snapshotMedia : snapshot.medias) {
+                Path path = currentFolder.fsPath.resolve(snapshotMedia.filename);
+                mediaFiles.add(new ScannedFile(path, snapshotMedia.lastModificationTimestamp, snapshotMedia.size, false));
+                metadatas.put(path, snapshotMedia.metadata);
+            }
+        } else {
+            System.out.println("Exploring " + currentFolder);
+
+            // The directory is listed only once, the attributes read during the listing are then reused everywhere
+            ScannedDirectory scannedDirectory = DirectoryScanner.scan(currentFolder.fsPath);
+            directoryTimestamp = scannedDirectory.directory.lastModificationTimestamp;
+            listingDigest = scannedDirectory.getListingDigest();
+            if (scannedDirectory.ignored) {
+                this.ignoreFolder(currentFolder.fsPath, directoryTimestamp);
+                return false;
+            }
+            this.ignoredFolders.remove(currentFolder.fsPath);
+
+            for (ScannedFile scannedFolder : scannedDirectory.subFolders) {
+                Path subFolderPath = renameIfNeeded(scannedFolder).path;
+                SnapshotFolder snapshotSubFolder = snapshot == null ? null : snapshot.subFolders.get(subFolderPath.getFileName().toString());
+                foldersToExplore.add(new Tuple<>(new PhotatoFolder(this.rootFolderPath, subFolderPath), snapshotSubFolder));
+            }
+
+            mediaFiles = scannedDirectory.medias.stream().map(PhotatoFilesManager::renameIfNeeded).collect(Collectors.toList());
+
+            // The metadata of the medias which did not change since the snapshot are already known
+            if (snapshot != null) {
+                Map<String, SnapshotMedia> snapshotMedias = snapshot.medias.stream().collect(Collectors.toMap((SnapshotMedia m) -> m.filename, (SnapshotMedia m) -> m));
+                for (ScannedFile file : mediaFiles) {
+                    SnapshotMedia snapshotMedia = snapshotMedias.get(file.path.getFileName().toString());
+                    if (snapshotMedia != null && snapshotMedia.lastModificationTimestamp == file.lastModificationTimestamp) {
+                        metadatas.put(file.path, snapshotMedia.metadata);
                     }
-                });
+                }
             }
+
+            // Extraction of pictures metadata
+            metadatas.putAll(this.metadataAggregator.getMetadatas(
+                    mediaFiles.stream()
+                            .filter((ScannedFile file) -> !metadatas.containsKey(file.path))
+                            .map((ScannedFile file) -> new Tuple<>(file.path, file.lastModificationTimestamp))
+                            .collect(Collectors.toList())));
+        }
+
+        List<PhotatoMedia> medias = mediaFiles.parallelStream()
+                .filter((ScannedFile file) -> metadatas.containsKey(file.path))
+                .map((ScannedFile file) -> this.createMedia(file, metadatas.get(file.path)))
+                .collect(Collectors.toList());
+
+        // Publishing the folder, it can be browsed from now on
+        if (currentFolder.fsPath.equals(this.rootFolderPath)) {
+            this.updateFolder(this.rootFolderPath, (PhotatoFolder root) -> {
+                root.lastModificationTimestamp = directoryTimestamp;
+                root.listingDigest = listingDigest;
+                medias.forEach(root::addMedia);
+            });
+        } else {
+            currentFolder.lastModificationTimestamp = directoryTimestamp;
+            currentFolder.listingDigest = listingDigest;
+            medias.forEach(currentFolder::addMedia);
+            this.updateSubFolders(currentFolder.fsPath.getParent(), (Map<String, PhotatoFolder> subFolders) -> subFolders.put(currentFolder.filename, currentFolder));
         }
 
-        System.gc();
+        medias.forEach((PhotatoMedia media) -> {
+            albumsManager.addMedia(media); // Before the search manager, whose generation also invalidates the albums searches
+            searchManager.addMedia(rootFolder.get(), media);
+        });
+
+        for (PhotatoMedia media : medias) {
+            this.queueImagesGeneration(media, priority);
+        }
+
+        this.progress.folderScanned();
+        this.progress.mediasIndexed(medias.size());
+
+        return true;
+    }
+
+    private void ignoreFolder(Path folder, long lastModificationTimestamp) {
+        this.unwatchDirectory(folder);
+        this.ignoredFolders.put(folder, lastModificationTimestamp);
+    }
+
+    private void queueImagesGeneration(PhotatoMedia media, ImageGenerationScheduler.Priority priority) {
+        try {
+            this.imageGenerationScheduler.submit(media, priority);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt(); // Closing, the cache will be completed on next start
+        }
+    }
+
+    private PhotatoMedia createMedia(ScannedFile file, Metadata metadata) {
+        PictureInfos thumbnailInfos = new PictureInfos(this.thumbnailGenerator.getThumbnailUrl(file.path, file.lastModificationTimestamp), this.thumbnailGenerator.getThumbnailWidth(metadata.width, metadata.height), this.thumbnailGenerator.getThumbnailHeight(metadata.width, metadata.height));
+        PictureInfos fullScreenInfos = new PictureInfos(this.fullScreenImageGetter.getImageUrl(file.path, file.lastModificationTimestamp), this.fullScreenImageGetter.getImageWidth(metadata.width, metadata.height), this.fullScreenImageGetter.getImageHeight(metadata.width, metadata.height));
+
+        return PhotatoMedia.createMedia(this.rootFolderPath, file.path, metadata, thumbnailInfos, fullScreenInfos, file.lastModificationTimestamp, file.size);
+    }
+
+    private void watchDirectory(Path directory) throws IOException {
+        if (this.watcher != null) {
+            WatchKey key = directory.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            WatchKey previousKey = this.watchedDirectoriesKeys.put(directory, key);
+            if (previousKey != null && previousKey != key) {
+                // The directory has been replaced, the key of the previous one is not signalled anymore
+                previousKey.cancel();
+                this.watchedDirectoriesPaths.remove(previousKey);
+            }
+            this.watchedDirectoriesPaths.put(key, directory);
+        }
+    }
+
+    private void unwatchDirectory(Path directory) {
+        WatchKey removed = this.watchedDirectoriesKeys.remove(directory);
+        if (removed != null) {
+            removed.cancel();
+            this.watchedDirectoriesPaths.remove(removed);
+        }
     }
 
     private PhotatoFolder getCurrentFolder(Path path) {
-        synchronized (this.rootFolder) {
-            Path relativePath = this.rootFolder.fsPath.relativize(path);
-            String[] elmnts = relativePath.toString().replace("\\", "/").split("/");
+        PhotatoFolder currentFolder = this.rootFolder.get();
+        for (String elmnt : this.getRelativePathElements(path)) {
+            currentFolder = currentFolder.subFolders.get(elmnt);
 
-            if (elmnts.length == 1 && elmnts[0].isEmpty()) {
-                return this.rootFolder;
+            if (currentFolder == null) {
+                return null;
             }
+        }
+
+        return currentFolder;
+    }
+
+    private List<String> getRelativePathElements(Path path) {
+        Path relativePath = this.rootFolderPath.relativize(path);
+        String[] elmnts = relativePath.toString().replace("\\", "/").split("/");
+
+        if (elmnts.length == 1 && elmnts[0].isEmpty()) {
+            return new ArrayList<>();
+        } else {
+            return Arrays.asList(elmnts);
+        }
+    }
 
-            PhotatoFolder currentFolder = this.rootFolder;
-            for (int i = 0; i < elmnts.length; i++) {
-                currentFolder = currentFolder.subFolders.get(elmnts[i]);
+    /**
+     * Publishes a new version of the tree in which the medias of the folder
+     * have been modified
+     *
+     * @return false if the folder is not in the tree
+     */
+    private boolean updateFolder(Path path, Consumer<PhotatoFolder> update) {
+        return this.updateFolder(path, true, false, update);
+    }
 
-                if (currentFolder == null) {
-                    return null;
+    /**
+     * Publishes a new version of the tree in which subfolders of the folder
+     * have been added, removed or replaced
+     *
+     * @return false if the folder is not in the tree
+     */
+    private boolean updateSubFolders(Path path, Consumer<Map<String, PhotatoFolder>> update) {
+        return this.updateFolder(path, false, true, (PhotatoFolder f) -> update.accept(f.subFolders));
+    }
+
+    /**
+     * Only the folder and its ancestors are copied, the other folders are
+     * shared between both versions. So are the collections which the update
+     * does not modify, the ancestors only copying their subfolders
+     */
+    private boolean updateFolder(Path path, boolean copyMedias, boolean copySubFolders, Consumer<PhotatoFolder> update) {
+        synchronized (this.treeWriteLock) {
+            List<String> elmnts = this.getRelativePathElements(path);
+            PhotatoFolder[] chain = new PhotatoFolder[elmnts.size() + 1];
+            chain[0] = this.rootFolder.get();
+            for (int i = 0; i < elmnts.size(); i++) {
+                chain[i + 1] = chain[i].subFolders.get(elmnts.get(i));
+                if (chain[i + 1] == null) {
+                    return false;
                 }
             }
 
-            return currentFolder;
+            PhotatoFolder updatedFolder = new PhotatoFolder(chain[elmnts.size()], copyMedias, copySubFolders);
+            update.accept(updatedFolder);
+            updatedFolder.refreshAggregates();
+
+            // Only the aggregates of the copied folders can have changed, each one is computed from its subfolders ones
+            for (int i = elmnts.size() - 1; i >= 0; i--) {
+                PhotatoFolder updatedParent = new PhotatoFolder(chain[i], false, true);
+                updatedParent.subFolders.put(elmnts.get(i), updatedFolder);
+                updatedParent.refreshAggregates();
+                updatedFolder = updatedParent;
+            }
+
+            this.rootFolder.set(updatedFolder);
+            this.treeGeneration.incrementAndGet();
+            this.treeChanged = true;
+            return true;
+        }
+    }
+
+    private class FolderExplorationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PhotatoFolder folder;
+        private final SnapshotFolder snapshot;
+        private final ImageGenerationScheduler.Priority priority;
+        private boolean explored;
+
+        public FolderExplorationTask(PhotatoFolder folder, SnapshotFolder snapshot, ImageGenerationScheduler.Priority priority) {
+            this.folder = folder;
+            this.snapshot = snapshot;
+            this.priority = priority;
+        }
+
+        @Override
+        protected void compute() {
+            List<Tuple<PhotatoFolder, SnapshotFolder>> subFolders = new ArrayList<>();
+            try {
+                this.explored = exploreFolder(this.folder, this.snapshot, subFolders, this.priority);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+
+            if (this.explored) {
+                invokeAll(subFolders.stream().map((Tuple<PhotatoFolder, SnapshotFolder> subFolder) -> new FolderExplorationTask(subFolder.o1, subFolder.o2, this.priority)).collect(Collectors.toList()));
+            }
+        }
+
+    }
+
+    private class InitialIndexingThread extends Thread {
+
+        public InitialIndexingThread() {
+            super("InitialIndexingThread");
+        }
+
+        @Override
+        public void run() {
+            SnapshotFolder snapshot = snapshotFile == null ? null : TreeSnapshot.read(snapshotFile, rootFolderPath);
+
+            try {
+                runInitialFolderExploration(rootFolder.get(), snapshot, ImageGenerationScheduler.Priority.LOW);
+            } catch (CancellationException | RejectedExecutionException ex) {
+                return; // Closed during the exploration, or before it started
+            }
+            System.gc(); // Only after the first pass, which leaves the most garbage
+
+            progress.initialIndexingDone();
+            System.out.println("Initial indexing done: " + progress.getFoldersScanned() + " folders, " + progress.getMediasIndexed() + " medias");
+
+            synchronized (closeLock) {
+                if (closed) {
+                    return;
+                }
+
+                // The events received in the meantime have been queued by the watcher, they can now be applied on the complete tree
+                if (watchServiceThread != null) {
+                    watchServiceThread.start();
+                } else {
+                    pollingThread.start();
+                }
+
+                snapshotTimer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        saveSnapshot();
+                    }
+                }, 0, snapshotSaveIntervalMs);
+            }
         }
+
     }
 
     private class WatchServiceThread extends Thread {
 
-        private final WatchService watcher;
-        private boolean shouldRun;
+        private volatile boolean shouldRun;
 
-        public WatchServiceThread(WatchService watchService) {
+        public WatchServiceThread() {
             super("WatchServiceThread");
-            this.watcher = watchService;
             this.shouldRun = true;
         }
 
@@ -239,43 +677,26 @@ public class PhotatoFilesManager implements Closeable {
         public void run() {
             while (this.shouldRun) {
                 try {
-                    WatchKey key = this.watcher.poll(100, TimeUnit.MILLISECONDS);
+                    WatchKey key = watcher.poll(100, TimeUnit.MILLISECONDS);
+                    Set<WatchKey> polledKeys = new HashSet<>();
+                    Set<Path> overflowedFolders = new HashSet<>();
 
-                    if (key != null) {
+                    while (key != null) {
                         for (WatchEvent event : key.pollEvents()) {
                             try {
                                 WatchEvent.Kind kind = event.kind();
 
                                 if (kind == StandardWatchEventKinds.OVERFLOW) {
-                                    continue;
+                                    // Some events have been lost, the only way to know what changed is to compare with the disk
+                                    overflowedFolders.add(watchedDirectoriesPaths.getOrDefault(key, rootFolderPath));
                                 } else {
-                                    synchronized (rootFolder) {
-                                        WatchEvent<Path> ev = (WatchEvent<Path>) event;
-                                        Path folder = watchedDirectoriesPaths.get(key);
-                                        if (folder == null) {
-                                            throw new Exception("Unknown watchKey!");
-                                        }
-
-                                        Path filename = folder.resolve(ev.context());
-
-                                        System.out.println("[" + (new Date()) + "] Detected event: " + kind + " on " + filename);
-                                        if (Files.isDirectory(filename)) {
-                                            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                                                this.manageDirectoryCreation(filename);
-                                            } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
-                                                this.manageDirectoryDeletion(filename);
-                                            }
-                                        } else if (MediaHelper.isPictureFile(filename) || MediaHelper.isVideoFile(filename)) {
-                                            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                                                this.manageFileCreation(filename);
-                                            } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
-                                                this.manageFileDeletion(filename);
-                                            } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                                                this.manageFileDeletion(filename);
-                                                this.manageFileCreation(filename);
-                                            }
-                                        }
+                                    WatchEvent<Path> ev = (WatchEvent<Path>) event;
+                                    Path folder = watchedDirectoriesPaths.get(key);
+                                    if (folder == null) {
+                                        throw new Exception("Unknown watchKey!");
                                     }
+
+                                    watchEventCoalescer.add(folder.resolve(ev.context()), kind, System.currentTimeMillis());
                                 }
                             } catch (Exception ex) {
                                 ex.printStackTrace();
@@ -287,7 +708,18 @@ public class PhotatoFilesManager implements Closeable {
                             System.err.println("Not valid key, breaking");
                             // break;
                         }
+
+                        // The keys already signalled too, since an overflow is reported on all of them at once. A polled key must be drained and reset, else it is never signalled again: one signalled again is drained once more, then the round ends, so that a busy directory cannot keep it going forever
+                        key = polledKeys.add(key) ? watcher.poll() : null;
+                    }
+
+                    if (!overflowedFolders.isEmpty()) {
+                        System.err.println("[" + (new Date()) + "] Events lost in " + overflowedFolders.size() + " folders, resyncing them");
+                        pendingResyncs.addAll(overflowedFolders);
                     }
+                    resyncPendingFolders();
+
+                    applyChanges(watchEventCoalescer.poll(System.currentTimeMillis()));
                 } catch (InterruptedException ex) {
                 }
             }
@@ -297,82 +729,404 @@ public class PhotatoFilesManager implements Closeable {
             this.shouldRun = false;
         }
 
-        private void manageFileCreation(Path filename) throws IOException {
-            PhotatoFolder folder = getCurrentFolder(filename.getParent());
-            if (folder.medias.stream().noneMatch((PhotatoMedia p) -> p.fsPath.equals(filename))) {
-                long lastModificationTimestamp = Files.getLastModifiedTime(filename).toMillis();
-                Metadata metadata = metadataAggregator.getMetadata(filename, lastModificationTimestamp);
-                PictureInfos thumbnailInfos = new PictureInfos(thumbnailGenerator.getThumbnailUrl(filename, lastModificationTimestamp), thumbnailGenerator.getThumbnailWidth(metadata.width, metadata.height), thumbnailGenerator.getThumbnailHeight(metadata.width, metadata.height));
-                PictureInfos fullScreenInfos = new PictureInfos(fullScreenImageGetter.getImageUrl(filename, lastModificationTimestamp), fullScreenImageGetter.getImageWidth(metadata.width, metadata.height), fullScreenImageGetter.getImageHeight(metadata.width, metadata.height));
-                PhotatoMedia media = PhotatoMedia.createMedia(rootFolder.fsPath, filename, metadataAggregator.getMetadata(filename, lastModificationTimestamp), thumbnailInfos, fullScreenInfos, lastModificationTimestamp);
-                folder.medias.add(media);
-                searchManager.addMedia(rootFolder, media);
-                albumsManager.addMedia(media);
-                thumbnailGenerator.generateThumbnail(media);
-                fullScreenImageGetter.generateImage(media);
+    }
+
+    private class PollingThread extends Thread {
+
+        private final long pollIntervalMs;
+        private final int maxDirectoriesPerCycle;
+        private volatile boolean shouldRun;
+        private int cursor;
+
+        public PollingThread(long pollIntervalMs, int maxDirectoriesPerCycle) {
+            super("PollingThread");
+            this.pollIntervalMs = pollIntervalMs;
+            this.maxDirectoriesPerCycle = maxDirectoriesPerCycle;
+            this.shouldRun = true;
+        }
+
+        @Override
+        public void run() {
+            while (this.shouldRun) {
+                try {
+                    this.pollCycle();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+
+                long end = System.currentTimeMillis() + this.pollIntervalMs;
+                while (this.shouldRun && System.currentTimeMillis() < end) {
+                    resyncPendingFolders();
+                    try {
+                        Thread.sleep(Math.min(100, this.pollIntervalMs));
+                    } catch (InterruptedException ex) {
+                    }
+                }
             }
         }
 
-        private void manageDirectoryCreation(Path filename) throws IOException {
-            PhotatoFolder newFolder = new PhotatoFolder(rootFolder.fsPath, filename);
-            PhotatoFolder parentFolder = getCurrentFolder(filename.getParent());
+        public void shutdown() {
+            this.shouldRun = false;
+        }
 
-            parentFolder.subFolders.put(filename.getFileName().toString(), newFolder);
+        /**
+         * Checks the next directories of the tree, in a stable order so that
+         * successive cycles cover all of them
+         */
+        private void pollCycle() throws IOException {
+            List<Path> folders = getKnownFolders(rootFolderPath);
 
-            WatchKey key = filename.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
-            watchedDirectoriesKeys.put(filename, key);
-            watchedDirectoriesPaths.put(key, filename);
+            int count = Math.min(this.maxDirectoriesPerCycle, folders.size());
+            for (int i = 0; i < count && this.shouldRun; i++) {
+                synchronized (changesLock) {
+                    checkFolder(folders.get((this.cursor + i) % folders.size()), false);
+                }
+            }
+            this.cursor = (this.cursor + count) % folders.size();
+        }
+
+    }
 
-            runInitialFolderExploration(watcher, newFolder);
+    /**
+     * @return the paths of the folders of the subtree, ignored ones included,
+     * parents first
+     */
+    private List<Path> getKnownFolders(Path path) {
+        List<Path> folders = this.ignoredFolders.keySet().stream().filter((Path p) -> p.startsWith(path)).collect(Collectors.toList());
+        PhotatoFolder baseFolder = this.getCurrentFolder(path);
+        if (baseFolder != null) {
+            Queue<PhotatoFolder> queue = new LinkedList<>();
+            queue.add(baseFolder);
+            while (!queue.isEmpty()) {
+                PhotatoFolder folder = queue.remove();
+                queue.addAll(folder.subFolders.values());
+                folders.add(folder.fsPath);
+            }
         }
+        folders.sort(null);
+        return folders;
+    }
 
-        private void manageFileDeletion(Path filename) throws IOException {
-            PhotatoFolder folder = getCurrentFolder(filename.getParent());
-            Optional<PhotatoMedia> findAny = folder.medias.stream().filter((PhotatoMedia p) -> p.fsPath.equals(filename)).findAny();
-            if (findAny.isPresent()) {
-                PhotatoMedia picture = findAny.get();
-                folder.medias.remove(picture);
-                searchManager.removeMedia(picture);
-                albumsManager.removeMedia(picture);
-                thumbnailGenerator.deleteThumbnail(picture.fsPath, picture.lastModificationTimestamp);
-                fullScreenImageGetter.deleteImage(picture);
+    private void resyncPendingFolders() {
+        List<Path> folders = new ArrayList<>(this.pendingResyncs);
+        this.pendingResyncs.removeAll(folders);
+        if (!folders.isEmpty()) {
+            try {
+                this.resyncFolders(folders);
+            } catch (IOException ex) {
+                ex.printStackTrace();
             }
         }
+    }
 
-        private void manageDirectoryDeletion(Path filename) throws IOException {
-            PhotatoFolder parentFolder = getCurrentFolder(filename.getParent());
-            parentFolder.subFolders.remove(filename.getFileName().toString());
-            WatchKey removed = watchedDirectoriesKeys.remove(filename);
-            if (removed != null) {
-                removed.cancel();
-                watchedDirectoriesPaths.remove(removed);
+    /**
+     * Resyncs the subtrees of the folders, the nested ones being covered by
+     * the resync of their topmost ancestor
+     *
+     * @return the roots of the resynced subtrees
+     */
+    List<Path> resyncFolders(Collection<Path> folders) throws IOException {
+        List<Path> roots = new ArrayList<>();
+        for (Path folder : folders.stream().sorted(Comparator.comparingInt(Path::getNameCount).thenComparing(Comparator.naturalOrder())).collect(Collectors.toList())) {
+            if (roots.stream().noneMatch(folder::startsWith)) {
+                roots.add(folder);
             }
+        }
 
-            PhotatoFolder currentFolder = getCurrentFolder(filename);
-            if (currentFolder.medias != null) {
-                for (PhotatoMedia media : currentFolder.medias) {
-                    try {
-                        searchManager.removeMedia(media);
-                        albumsManager.removeMedia(media);
-                        thumbnailGenerator.deleteThumbnail(media.fsPath, media.lastModificationTimestamp);
-                        fullScreenImageGetter.deleteImage(media);
-                    } catch (IOException ex) {
+        for (Path root : roots) {
+            this.resyncFolder(root);
+        }
+        return roots;
+    }
+
+    private void resyncFolder(Path path) throws IOException {
+        synchronized (this.changesLock) {
+            for (Path folder : this.getKnownFolders(path)) {
+                this.checkFolder(folder, true);
+            }
+        }
+    }
+
+    /**
+     * Compares a directory with its last known state and applies the
+     * differences. Unless forced, only directories whose modification date
+     * changed are listed, and their listing is only diffed when its digest
+     * changed
+     */
+    private void checkFolder(Path path, boolean force) throws IOException {
+        PhotatoFolder folder = this.getCurrentFolder(path);
+        Long ignoredFolderTimestamp = this.ignoredFolders.get(path);
+        if (folder == null && ignoredFolderTimestamp == null) {
+            return; // Removed since the cycle started
+        }
+
+        ScannedFile directory;
+        try {
+            directory = DirectoryScanner.readFile(path);
+        } catch (IOException ex) {
+            this.manageDirectoryDeletion(path);
+            return;
+        }
+
+        if (!force && directory.lastModificationTimestamp == (folder != null ? folder.lastModificationTimestamp : ignoredFolderTimestamp)) {
+            return;
+        }
+
+        if (folder == null) {
+            // Its .photatoignore may have been removed, exploring it again
+            this.ignoredFolders.remove(path);
+            this.manageDirectoryCreation(path);
+            return;
+        }
+
+        if (force) {
+            // The directory may have been replaced since it was registered
+            this.watchDirectory(path);
+        }
+
+        ScannedDirectory scannedDirectory = DirectoryScanner.scan(path);
+        if (scannedDirectory.ignored) {
+            this.manageDirectoryDeletion(path);
+            this.ignoreFolder(path, scannedDirectory.directory.lastModificationTimestamp);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (!force && scannedDirectory.medias.stream().anyMatch((ScannedFile f) -> now - f.lastModificationTimestamp < this.quietPeriodMs)) {
+            return; // Some files are still being written, the directory will be checked again on next cycle
+        }
+
+        // The digest is not maintained by the watch events, a forced check always compares the medias
+        long listingDigest = scannedDirectory.getListingDigest();
+        if (force || listingDigest != folder.listingDigest) {
+            if (listingDigest != folder.listingDigest) {
+                System.out.println("[" + (new Date()) + "] Detected changes in " + path);
+            }
+            this.applyListing(folder, scannedDirectory);
+        }
+
+        // Only its attributes change, none of its collections needs to be copied
+        this.updateFolder(path, false, false, (PhotatoFolder f) -> {
+            f.lastModificationTimestamp = scannedDirectory.directory.lastModificationTimestamp;
+            f.listingDigest = listingDigest;
+        });
+    }
+
+    private void applyListing(PhotatoFolder folder, ScannedDirectory scannedDirectory) throws IOException {
+        Map<Path, PhotatoMedia> knownMedias = folder.medias.stream().collect(Collectors.toMap((PhotatoMedia m) -> m.fsPath, (PhotatoMedia m) -> m));
+        for (ScannedFile file : scannedDirectory.medias) {
+            PhotatoMedia media = knownMedias.remove(file.path);
+            if (media == null) {
+                this.manageFileCreation(file.path);
+            } else if (media.lastModificationTimestamp != file.lastModificationTimestamp) {
+                this.manageFileDeletion(file.path);
+                this.manageFileCreation(file.path);
+            }
+        }
+        for (Path removedMedia : knownMedias.keySet()) {
+            this.manageFileDeletion(removedMedia);
+        }
+
+        Set<Path> knownSubFolders = folder.subFolders.values().stream().map((PhotatoFolder f) -> f.fsPath).collect(Collectors.toSet());
+        knownSubFolders.addAll(this.ignoredFolders.keySet().stream().filter((Path p) -> p.getParent().equals(folder.fsPath)).collect(Collectors.toList()));
+        for (ScannedFile subFolder : scannedDirectory.subFolders) {
+            if (!knownSubFolders.remove(subFolder.path)) {
+                this.manageDirectoryCreation(subFolder.path);
+            }
+        }
+        for (Path removedSubFolder : knownSubFolders) {
+            this.manageDirectoryDeletion(removedSubFolder);
+        }
+    }
+
+    void applyChanges(List<WatchEventCoalescer.Change> changes) {
+        for (WatchEventCoalescer.Change change : changes) {
+            try {
+                synchronized (this.changesLock) {
+                    this.manageChange(change);
+                }
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void manageChange(WatchEventCoalescer.Change change) throws IOException {
+        Path filename = change.path;
+        System.out.println("[" + (new Date()) + "] Detected change: " + change);
+
+        // Deleted paths cannot be checked anymore, the tree tells whether they were folders
+        boolean knownFolder = getCurrentFolder(filename) != null || ignoredFolders.containsKey(filename);
+        boolean isMedia = MediaHelper.isPictureFile(filename) || MediaHelper.isVideoFile(filename);
+
+        switch (change.kind) {
+            case CREATED:
+                if (Files.isDirectory(filename)) {
+                    if (knownFolder) {
+                        // Already explored with its parent, whose exploration may have raced with this event
+                        this.checkFolder(filename, false);
+                    } else {
+                        this.manageDirectoryCreation(filename);
+                    }
+                } else if (isMedia) {
+                    this.manageFileCreation(filename);
+                }
+                break;
+            case DELETED:
+                if (knownFolder) {
+                    this.manageDirectoryDeletion(filename);
+                } else if (isMedia) {
+                    this.manageFileDeletion(filename);
+                }
+                break;
+            case MODIFIED:
+            case REPLACED:
+                if (Files.isDirectory(filename)) {
+                    if (!knownFolder) {
+                        this.manageDirectoryCreation(filename);
+                    } else if (change.kind == WatchEventCoalescer.ChangeKind.REPLACED) {
+                        // Its whole subtree may have changed. A mere modification is reported on some platforms whenever its content changes, whose own events are enough
+                        this.resyncFolder(filename);
+                    }
+                } else {
+                    if (knownFolder) {
+                        this.manageDirectoryDeletion(filename);
+                    }
+                    if (isMedia) {
+                        this.manageFileDeletion(filename);
+                        this.manageFileCreation(filename);
                     }
                 }
+                break;
+        }
+    }
+
+    // Exiftool runs before the new version of the folder is published, browsing is never blocked by it
+    private void manageFileCreation(Path filename) throws IOException {
+        PhotatoFolder folder = getCurrentFolder(filename.getParent());
+        if (folder == null) {
+            return;
+        }
+
+        if (folder.medias.stream().noneMatch((PhotatoMedia p) -> p.fsPath.equals(filename))) {
+            // Indexed later with the other new files, see indexIngestedFiles()
+            ingestPipeline.submit(DirectoryScanner.readFile(filename));
+        }
+    }
+
+    /**
+     * Last stage of the ingest pipeline: the new files, whose metadata has
+     * been extracted, are added to the tree with one update per folder
+     */
+    private void indexIngestedFiles(List<Tuple<ScannedFile, Metadata>> files) {
+        List<PhotatoMedia> indexedMedias = new ArrayList<>();
+
+        synchronized (this.changesLock) {
+            Map<Path, List<PhotatoMedia>> mediasByFolder = new HashMap<>();
+            for (Tuple<ScannedFile, Metadata> file : files) {
+                if (this.ingestPipeline.claim(file.o1)) {
+                    mediasByFolder.computeIfAbsent(file.o1.path.getParent(), (Path p) -> new ArrayList<>()).add(this.createMedia(file.o1, file.o2));
+                }
+            }
+
+            for (Map.Entry<Path, List<PhotatoMedia>> entry : mediasByFolder.entrySet()) {
+                PhotatoFolder folder = this.getCurrentFolder(entry.getKey());
+                if (folder == null) {
+                    continue;
+                }
+
+                List<PhotatoMedia> medias = entry.getValue().stream().filter((PhotatoMedia m) -> !folder.medias.contains(m)).collect(Collectors.toList());
+                if (this.updateFolder(entry.getKey(), (PhotatoFolder f) -> medias.forEach(f::addMedia))) {
+                    for (PhotatoMedia media : medias) {
+                        this.albumsManager.addMedia(media);
+                        this.searchManager.addMedia(this.rootFolder.get(), media);
+                    }
+                    indexedMedias.addAll(medias);
+                }
             }
+            this.progress.mediasIndexed(indexedMedias.size());
         }
 
+        // Outside of the lock, the scheduler queue may be full
+        for (PhotatoMedia media : indexedMedias) {
+            this.queueImagesGeneration(media, ImageGenerationScheduler.Priority.HIGH);
+        }
     }
 
-    private static long tryGetLastModifiedTimestamp(Path p) {
-        try {
-            return Files.getLastModifiedTime(p).toMillis();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            return 0;
+    private void manageDirectoryCreation(Path filename) throws IOException {
+        PhotatoFolder newFolder = new PhotatoFolder(rootFolderPath, filename);
+
+        if (getCurrentFolder(filename.getParent()) != null) {
+            runInitialFolderExploration(newFolder, null, ImageGenerationScheduler.Priority.HIGH);
         }
     }
 
+    private void manageFileDeletion(Path filename) throws IOException {
+        ingestPipeline.cancel(filename);
+        PhotatoFolder folder = getCurrentFolder(filename.getParent());
+        if (folder == null) {
+            return;
+        }
+
+        Optional<PhotatoMedia> findAny = folder.medias.stream().filter((PhotatoMedia p) -> p.fsPath.equals(filename)).findAny();
+
+        if (findAny.isPresent() && updateFolder(filename.getParent(), (PhotatoFolder f) -> f.removeMedia(findAny.get()))) {
+            PhotatoMedia picture = findAny.get();
+            albumsManager.removeMedia(picture);
+            searchManager.removeMedia(picture);
+            progress.mediasIndexed(-1);
+            imageGenerationScheduler.cancel(picture);
+            thumbnailGenerator.deleteThumbnail(picture.fsPath, picture.lastModificationTimestamp);
+            fullScreenImageGetter.deleteImage(picture);
+        }
+    }
+
+    private void manageDirectoryDeletion(Path filename) throws IOException {
+        ignoredFolders.remove(filename);
+        ingestPipeline.cancel(filename);
+        PhotatoFolder currentFolder = getCurrentFolder(filename);
+        if (currentFolder == null || !updateSubFolders(filename.getParent(), (Map<String, PhotatoFolder> subFolders) -> subFolders.remove(currentFolder.filename))) {
+            return;
+        }
+
+        // The whole subtree is gone
+        Queue<PhotatoFolder> queue = new LinkedList<>();
+        queue.add(currentFolder);
+        while (!queue.isEmpty()) {
+            PhotatoFolder folder = queue.remove();
+            queue.addAll(folder.subFolders.values());
+            unwatchDirectory(folder.fsPath);
+            ignoredFolders.keySet().removeIf((Path p) -> p.getParent().equals(folder.fsPath));
+
+            for (PhotatoMedia media : folder.medias) {
+                try {
+                    albumsManager.removeMedia(media);
+                    searchManager.removeMedia(media);
+                    progress.mediasIndexed(-1);
+                    imageGenerationScheduler.cancel(media);
+                    thumbnailGenerator.deleteThumbnail(media.fsPath, media.lastModificationTimestamp);
+                    fullScreenImageGetter.deleteImage(media);
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+
+    private static ScannedFile renameIfNeeded(ScannedFile file) {
+        // Renaming pictures with 2+ spaces in a row since this will cause trouble then
+        String filename = file.path.getFileName().toString();
+        if (filename.contains("  ")) {
+            Path newPath = file.path.resolveSibling(filename.replaceAll("[ ]{2,}", " "));
+            if (file.path.toFile().renameTo(newPath.toFile())) {
+                System.err.println("[WARNING] Renamed \"" + file.path + "\" to \"" + newPath + "\"");
+                return file.withPath(newPath);
+            }
+        }
+
+        return file;
+    }
+
     private static boolean isVirtualFolder(String folder) {
         return folder.startsWith(AlbumsManager.albumsVirtualRootFolderName + "/") || folder.equalsIgnoreCase(AlbumsManager.albumsVirtualRootFolderName);
     }
@@ -0,0 +1,60 @@
+package photato.core;
+
+import java.nio.file.Path;
+
+/**
+ * Tuning of a PhotatoFilesManager, each option having a default value so
+ * that only the relevant ones need to be set
+ */
+public class PhotatoFilesManagerOptions {
+
+    public boolean prefixOnlyMode = true;
+    public boolean indexFolderName = true;
+    public boolean useParallelPicturesGeneration = false;
+
+    // Number of threads used to explore sibling subtrees in parallel. 0 means one per available core
+    public int explorationParallelism = 0;
+
+    // Number of threads generating the resized pictures. 0 means one per core if useParallelPicturesGeneration, else one
+    public int imageGenerationWorkers = 0;
+
+    // Maximum number of pending generations before the exploration waits for the workers
+    public int imageGenerationQueueSize = 1000;
+
+    // Where the tree is saved between two runs, so that only the modified directories are listed again on startup. Can be null
+    public Path snapshotFile = null;
+
+    // How long a file must stay untouched before its changes are applied
+    public long watchQuietPeriodMs = 1000;
+
+    // How the changes made while the server runs are detected
+    public ChangeDetectionMode changeDetectionMode = ChangeDetectionMode.WATCH;
+
+    // Delay between two polling cycles (POLL mode only)
+    public long pollIntervalMs = 10000;
+
+    // Maximum number of directories checked per polling cycle, the next cycle resumes where this one stopped
+    public int pollMaxDirectoriesPerCycle = 1000;
+
+    // Maximum number of new files whose metadata is extracted at once
+    public int ingestBatchSize = 200;
+
+    // How long a new file waits for others before its batch is extracted anyway
+    public long ingestBatchDelayMs = 500;
+
+    // Number of batches extracted in parallel
+    public int ingestExtractionWorkers = 2;
+
+    // Number of medias searches, and of folders searches, whose results are kept until the index changes. 0 disables the caches
+    public int searchCacheSize = 256;
+
+    // How the search terms are indexed
+    public SearchIndexType searchIndexType = SearchIndexType.TRIE;
+
+    // Bytes of the trigram postings of each segment of the search index (TRIGRAM only)
+    public long searchIndexMemoryBudget = 256L * 1024 * 1024;
+
+    // Where the search index is saved with the tree, so that on next start the unchanged medias are searched in the mapped file instead of being indexed again. Can be null
+    public Path searchIndexFile = null;
+
+}
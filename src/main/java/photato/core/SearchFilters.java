@@ -0,0 +1,325 @@
+package photato.core;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import photato.core.metadata.gps.GpsCoordinatesHelper;
+
+/**
+ * The structured filters of a search query, such as
+ * "date:2019-06..2019-08 type:video orientation:landscape beach". The area
+ * is either "near:latitude,longitude,radius", the radius in kilometers or
+ * ending with m, or "bbox:south,west,north,east". The words which are not a
+ * valid filter are left in the text query. When a filter is repeated, the
+ * last one wins
+ */
+public class SearchFilters {
+
+    public enum Orientation {
+        LANDSCAPE,
+        PORTRAIT,
+        SQUARE;
+
+        private static final double squareTolerance = 0.05;
+
+        /**
+         * @return null if the dimensions are unknown
+         */
+        public static Orientation of(int width, int height) {
+            if (width <= 0 || height <= 0) {
+                return null;
+            } else if (Math.abs(width - height) <= squareTolerance * Math.max(width, height)) {
+                return SQUARE;
+            } else {
+                return width > height ? LANDSCAPE : PORTRAIT;
+            }
+        }
+    }
+
+    private static final String dateFilterName = "date:";
+    private static final String typeFilterName = "type:";
+    private static final String orientationFilterName = "orientation:";
+    private static final String nearFilterName = "near:";
+    private static final String boundingBoxFilterName = "bbox:";
+    private static final Pattern datePattern = Pattern.compile("(\\d{4})(?:-(\\d{1,2})(?:-(\\d{1,2}))?)?");
+
+    private String textQuery;
+    private long minTimestamp; // Inclusive
+    private long maxTimestamp; // Exclusive
+    private String mediaType;
+    private Orientation orientation;
+    private boolean hasArea;
+    private double minLatitude;
+    private double maxLatitude;
+    private double minLongitude;
+    private double maxLongitude; // Below minLongitude if the area crosses the antimeridian
+    private double centerLatitude;
+    private double centerLongitude;
+    private double radius; // In kilometers, 0 for a bounding box
+
+    private SearchFilters() {
+        this.minTimestamp = Long.MIN_VALUE;
+        this.maxTimestamp = Long.MAX_VALUE;
+    }
+
+    public static SearchFilters parse(String query) {
+        List<String> textWords = new ArrayList<>();
+        SearchFilters result = new SearchFilters();
+        for (String word : query.trim().split("\\s+")) {
+            if (!result.parseFilter(word.toLowerCase())) {
+                textWords.add(word);
+            }
+        }
+        result.textQuery = String.join(" ", textWords);
+        return result;
+    }
+
+    /**
+     * @return false if the word is not a valid filter
+     */
+    private boolean parseFilter(String word) {
+        if (word.startsWith(dateFilterName)) {
+            String value = word.substring(dateFilterName.length());
+            int separator = value.indexOf("..");
+            String from = separator < 0 ? value : value.substring(0, separator);
+            String to = separator < 0 ? value : value.substring(separator + 2);
+            if (from.isEmpty() && to.isEmpty()) {
+                return false;
+            }
+
+            Long minTimestamp = from.isEmpty() ? Long.valueOf(Long.MIN_VALUE) : parseDate(from, false);
+            Long maxTimestamp = to.isEmpty() ? Long.valueOf(Long.MAX_VALUE) : parseDate(to, true);
+            if (minTimestamp == null || maxTimestamp == null) {
+                return false;
+            }
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+            return true;
+        } else if (word.startsWith(typeFilterName)) {
+            switch (word.substring(typeFilterName.length())) {
+                case "picture":
+                case "pictures":
+                case "photo":
+                case "photos":
+                    this.mediaType = "picture";
+                    return true;
+                case "video":
+                case "videos":
+                    this.mediaType = "video";
+                    return true;
+                default:
+                    return false;
+            }
+        } else if (word.startsWith(orientationFilterName)) {
+            try {
+                this.orientation = Orientation.valueOf(word.substring(orientationFilterName.length()).toUpperCase());
+                return true;
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
+        } else if (word.startsWith(nearFilterName)) {
+            return this.parseNear(word.substring(nearFilterName.length()));
+        } else if (word.startsWith(boundingBoxFilterName)) {
+            return this.parseBoundingBox(word.substring(boundingBoxFilterName.length()));
+        } else {
+            return false;
+        }
+    }
+
+    private boolean parseNear(String value) {
+        String[] values = value.split(",");
+        if (values.length != 3) {
+            return false;
+        }
+
+        boolean inMeters = values[2].endsWith("m") && !values[2].endsWith("km");
+        Double latitude = parseCoordinate(values[0], 90);
+        Double longitude = parseCoordinate(values[1], 180);
+        Double radius = parseCoordinate(values[2].replaceAll("k?m$", ""), Double.MAX_VALUE);
+        if (latitude == null || longitude == null || radius == null || radius < 0) {
+            return false;
+        }
+        radius = inMeters ? radius / 1000 : radius;
+
+        this.hasArea = true;
+        this.centerLatitude = latitude;
+        this.centerLongitude = longitude;
+        this.radius = radius;
+
+        // The bounding box of the circle, larger than needed, only the cells covering it are searched
+        double latitudeDegrees = GpsCoordinatesHelper.getLatitudeDegrees(radius);
+        this.minLatitude = Math.max(-90, latitude - latitudeDegrees);
+        this.maxLatitude = Math.min(90, latitude + latitudeDegrees);
+        double sinRatio = Math.sin(Math.toRadians(latitudeDegrees)) / Math.cos(Math.toRadians(latitude));
+        if (this.minLatitude == -90 || this.maxLatitude == 90 || sinRatio >= 1) {
+            this.minLongitude = -180; // Around a pole
+            this.maxLongitude = 180;
+        } else {
+            double longitudeDegrees = Math.toDegrees(Math.asin(sinRatio));
+            this.minLongitude = normalizeLongitude(longitude - longitudeDegrees);
+            this.maxLongitude = normalizeLongitude(longitude + longitudeDegrees);
+        }
+        return true;
+    }
+
+    private boolean parseBoundingBox(String value) {
+        String[] values = value.split(",");
+        if (values.length != 4) {
+            return false;
+        }
+
+        Double minLatitude = parseCoordinate(values[0], 90);
+        Double minLongitude = parseCoordinate(values[1], 180);
+        Double maxLatitude = parseCoordinate(values[2], 90);
+        Double maxLongitude = parseCoordinate(values[3], 180);
+        if (minLatitude == null || minLongitude == null || maxLatitude == null || maxLongitude == null || minLatitude > maxLatitude) {
+            return false;
+        }
+
+        this.hasArea = true;
+        this.minLatitude = minLatitude;
+        this.maxLatitude = maxLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLongitude = maxLongitude;
+        this.radius = 0;
+        return true;
+    }
+
+    /**
+     * @return null if not a number within [-max, max]
+     */
+    private static Double parseCoordinate(String s, double max) {
+        try {
+            double result = Double.parseDouble(s);
+            return Math.abs(result) <= max ? result : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        return longitude < -180 ? longitude + 360 : longitude > 180 ? longitude - 360 : longitude;
+    }
+
+    /**
+     * @param end whether to return the end of the year, month or day instead
+     * of its start
+     * @return null if not a yyyy, yyyy-mm or yyyy-mm-dd date
+     */
+    private static Long parseDate(String s, boolean end) {
+        Matcher matcher = datePattern.matcher(s);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        try {
+            LocalDate date;
+            if (matcher.group(2) == null) {
+                date = LocalDate.of(Integer.parseInt(matcher.group(1)), 1, 1);
+                date = end ? date.plusYears(1) : date;
+            } else if (matcher.group(3) == null) {
+                date = LocalDate.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), 1);
+                date = end ? date.plusMonths(1) : date;
+            } else {
+                date = LocalDate.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)));
+                date = end ? date.plusDays(1) : date;
+            }
+            // Like the calendar albums, in the local time
+            return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the query without its filters
+     */
+    public String getTextQuery() {
+        return this.textQuery;
+    }
+
+    public boolean isEmpty() {
+        return !this.hasDateRange() && this.mediaType == null && this.orientation == null && !this.hasArea;
+    }
+
+    public boolean hasDateRange() {
+        return this.minTimestamp != Long.MIN_VALUE || this.maxTimestamp != Long.MAX_VALUE;
+    }
+
+    public long getMinTimestamp() {
+        return this.minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+        return this.maxTimestamp;
+    }
+
+    /**
+     * @return "picture", "video" or null if any
+     */
+    public String getMediaType() {
+        return this.mediaType;
+    }
+
+    public Orientation getOrientation() {
+        return this.orientation;
+    }
+
+    public boolean hasArea() {
+        return this.hasArea;
+    }
+
+    /**
+     * The bounding box of the area, which crosses the antimeridian if the min
+     * longitude is above the max one
+     */
+    public double getMinLatitude() {
+        return this.minLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return this.maxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return this.minLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return this.maxLongitude;
+    }
+
+    public boolean isInArea(double latitude, double longitude) {
+        if (latitude < this.minLatitude || latitude > this.maxLatitude) {
+            return false;
+        }
+
+        boolean inLongitudes = this.minLongitude <= this.maxLongitude
+                ? this.minLongitude <= longitude && longitude <= this.maxLongitude
+                : this.minLongitude <= longitude || longitude <= this.maxLongitude;
+        return inLongitudes && (this.radius == 0 || GpsCoordinatesHelper.getDistance(this.centerLatitude, this.centerLongitude, latitude, longitude) <= this.radius);
+    }
+
+    // The text query is not part of the equality, the results cache keys normalize it apart
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SearchFilters)) {
+            return false;
+        }
+        SearchFilters other = (SearchFilters) obj;
+        return this.minTimestamp == other.minTimestamp && this.maxTimestamp == other.maxTimestamp && Objects.equals(this.mediaType, other.mediaType) && this.orientation == other.orientation
+                && this.hasArea == other.hasArea && this.minLatitude == other.minLatitude && this.maxLatitude == other.maxLatitude && this.minLongitude == other.minLongitude && this.maxLongitude == other.maxLongitude
+                && this.centerLatitude == other.centerLatitude && this.centerLongitude == other.centerLongitude && this.radius == other.radius;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.minTimestamp, this.maxTimestamp, this.mediaType, this.orientation, this.minLatitude, this.maxLatitude, this.minLongitude, this.maxLongitude, this.radius);
+    }
+
+}
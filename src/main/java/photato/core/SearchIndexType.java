@@ -0,0 +1,6 @@
+package photato.core;
+
+public enum SearchIndexType {
+    TRIE, // Radix trie of every suffix of the terms, the fastest searches but its memory grows with the square of the terms length
+    TRIGRAM // Posting lists of the trigrams of the terms, whose candidates are verified. Memory grows linearly with the terms length, within a budget
+}
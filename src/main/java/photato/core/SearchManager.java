@@ -3,80 +3,405 @@ package photato.core;
 import photato.helpers.SearchQueryHelper;
 import photato.core.entities.PhotatoFolder;
 import photato.core.entities.PhotatoMedia;
+import photato.helpers.EditDistanceHelper;
+import photato.helpers.IStringIndex;
+import photato.helpers.MappedStringIndex;
 import photato.helpers.PartialStringIndex;
+import photato.helpers.QueryResultCache;
+import photato.helpers.SegmentedStringIndex;
+import photato.helpers.TrigramStringIndex;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
 
 public class SearchManager {
 
-    private final PartialStringIndex<PhotatoMedia> mediasIndex;
+    private static class IndexedMedia {
+
+        public final FolderIntervalIndex.Folder folder;
+        public final FolderIntervalIndex.Folder[] virtualFolders;
+        public final String path; // Relative to the root folder
+        public final String[] terms;
+        public final int[] weights; // Weight of the most important field each term comes from
+        public final int persistedId; // Id in the persisted index if the media is found there with the same terms, else -1
+        public final int filtersId; // Id in the filters index
+
+        public IndexedMedia(FolderIntervalIndex.Folder folder, FolderIntervalIndex.Folder[] virtualFolders, String path, String[] terms, int[] weights, int persistedId, int filtersId) {
+            this.folder = folder;
+            this.virtualFolders = virtualFolders;
+            this.path = path;
+            this.terms = terms;
+            this.weights = weights;
+            this.persistedId = persistedId;
+            this.filtersId = filtersId;
+        }
+
+    }
+
+    private static class ScoredMedia {
+
+        public final PhotatoMedia media;
+        public final int score;
+
+        public ScoredMedia(PhotatoMedia media, int score) {
+            this.media = media;
+            this.score = score;
+        }
+
+    }
+
+    private static final int defaultResultsCacheSize = 256;
+    private static final long defaultIndexMemoryBudget = 256L * 1024 * 1024;
+
+    // What a term matched, the best ranked first
+    private static final int titleWeight = 4;
+    private static final int personWeight = 4;
+    private static final int tagWeight = 3;
+    private static final int placeWeight = 2;
+    private static final int filenameWeight = 2;
+    private static final int folderWeight = 1;
+
+    // How it matched it
+    private static final int exactMatchFactor = 3;
+    private static final int prefixMatchFactor = 2;
+    private static final int partialMatchFactor = 1; // Substring or within the edit distance
+
+    // Best score first, then in the order the folders are displayed
+    private static final Comparator<ScoredMedia> rankComparator = Comparator.comparingInt((ScoredMedia m) -> -m.score)
+            .thenComparingLong((ScoredMedia m) -> m.media.timestamp)
+            .thenComparing((ScoredMedia m) -> m.media.filename.toLowerCase())
+            .thenComparing((ScoredMedia m) -> m.media.fsPath);
+
+    private final IStringIndex<PhotatoMedia> mediasIndex;
+    private final Path persistedIndexFile;
+    private final MappedStringIndex persistedIndex; // As saved by the previous run, null if none
+    private final AtomicReferenceArray<PhotatoMedia> persistedMedias; // Medias found again in the persisted index, by id
+    private final MediaFiltersIndex filtersIndex;
+    private final GeoClusterIndex geoClusters;
+    private final FolderIntervalIndex folders;
+    private final FolderIntervalIndex virtualFolders;
+    private final Map<PhotatoMedia, IndexedMedia> indexedMedias;
+    private final boolean prefixOnlyMode;
     private final boolean indexFolderName;
+    private final AtomicLong generation; // Bumped on every change of the indexed medias
+    private final QueryResultCache<List<Object>, List<ScoredMedia>> resultsCache;
 
     public SearchManager(boolean prefixOnlyMode, boolean indexFolderName) {
-        this.mediasIndex = new PartialStringIndex<>(prefixOnlyMode);
+        this(prefixOnlyMode, indexFolderName, defaultResultsCacheSize, SearchIndexType.TRIE, defaultIndexMemoryBudget, null);
+    }
+
+    /**
+     * @param resultsCacheSize number of searches whose results are kept until
+     * the medias change. 0 disables the cache
+     * @param indexType how the terms are indexed
+     * @param indexMemoryBudget bytes of the trigram postings of each segment
+     * of the index, beyond which the most frequent trigrams are dropped
+     * (TRIGRAM only)
+     * @param persistedIndexFile where saveIndex writes the index, so that on
+     * next start the medias whose terms did not change are searched directly
+     * in the mapped file instead of being indexed again. Can be null
+     */
+    public SearchManager(boolean prefixOnlyMode, boolean indexFolderName, int resultsCacheSize, SearchIndexType indexType, long indexMemoryBudget, Path persistedIndexFile) {
+        // Removing a folder of medias only adds tombstones, instead of walking their keys while the searches wait
+        this.mediasIndex = new SegmentedStringIndex<>(() -> indexType == SearchIndexType.TRIGRAM ? new TrigramStringIndex<>(prefixOnlyMode, indexMemoryBudget) : new PartialStringIndex<>(prefixOnlyMode));
+        this.persistedIndexFile = persistedIndexFile;
+        this.persistedIndex = persistedIndexFile == null ? null : MappedStringIndex.open(persistedIndexFile, prefixOnlyMode);
+        this.persistedMedias = new AtomicReferenceArray<>(this.persistedIndex == null ? 0 : this.persistedIndex.getValuesCount());
+        this.filtersIndex = new MediaFiltersIndex();
+        this.geoClusters = new GeoClusterIndex();
+        this.folders = new FolderIntervalIndex();
+        this.virtualFolders = new FolderIntervalIndex();
+        this.indexedMedias = new ConcurrentHashMap<>();
+        this.prefixOnlyMode = prefixOnlyMode;
         this.indexFolderName = indexFolderName;
+        this.generation = new AtomicLong();
+        this.resultsCache = new QueryResultCache<>(resultsCacheSize);
     }
 
     public List<PhotatoMedia> searchMediasInFolder(Path folder, String searchQuery, boolean isVirtualFolder) {
-        List<String> searched = SearchQueryHelper.getSplittedTerms(searchQuery);
+        List<PhotatoMedia> result = new ArrayList<>();
+        for (ScoredMedia scoredMedia : this.getScoredMedias(folder, searchQuery, isVirtualFolder)) {
+            result.add(scoredMedia.media);
+        }
+        return result;
+    }
 
-        if (searched.isEmpty()) {
-            return new ArrayList<>();
+    /**
+     * Only the offset + limit best ranked medias are sorted, so that a broad
+     * search costs O(N log(offset + limit)) instead of sorting all of its N
+     * results
+     *
+     * @return the medias ranked from offset to offset + limit
+     */
+    public SearchResultsPage searchMediasInFolder(Path folder, String searchQuery, boolean isVirtualFolder, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+
+        List<ScoredMedia> scoredMedias = this.getScoredMedias(folder, searchQuery, isVirtualFolder);
+        List<ScoredMedia> top = getTopRanked(scoredMedias, (int) Math.min((long) offset + limit, scoredMedias.size()));
+
+        List<PhotatoMedia> medias = new ArrayList<>();
+        for (int i = offset; i < top.size(); i++) {
+            medias.add(top.get(i).media);
         }
+        return new SearchResultsPage(medias, offset, scoredMedias.size());
+    }
 
-        List<Set<PhotatoMedia>> resultsTmp = searched.parallelStream()
-                .map((String searchedTerm) -> this.mediasIndex.findContains(searchedTerm))
-                .map((Collection<PhotatoMedia> medias) -> medias.stream().filter((PhotatoMedia media) -> isVirtualFolder ? media.virtualPaths.stream().anyMatch((Path virtualPath) -> virtualPath.startsWith(folder)) : media.fsPath.startsWith(folder)).collect(Collectors.toSet())).collect(Collectors.toList());
+    private List<ScoredMedia> getScoredMedias(Path folder, String searchQuery, boolean isVirtualFolder) {
+        SearchFilters filters = SearchFilters.parse(searchQuery);
+        List<String> searched = SearchQueryHelper.getSplittedTerms(filters.getTextQuery());
 
-        Set<PhotatoMedia> result = resultsTmp.get(0);
-        for (int i = 1; i < resultsTmp.size(); i++) {
-            result = result.parallelStream().filter(resultsTmp.get(i)::contains).collect(Collectors.toSet());
+        if (searched.isEmpty() && filters.isEmpty()) {
+            return Collections.emptyList();
         }
 
-        return new ArrayList<>(result);
+        Map<String, Integer> maxDistances = SearchQueryHelper.getMaxEditDistances(filters.getTextQuery());
+
+        // The same search is typically run again when navigating back, or for its next page
+        List<Object> key = Arrays.asList(folder, SearchQueryHelper.getNormalizedQuery(searched, maxDistances), filters, isVirtualFolder, this.prefixOnlyMode);
+        return this.resultsCache.get(key, this.generation.get(), () -> this.findMediasInFolder(folder, searched, maxDistances, filters, isVirtualFolder));
+    }
+
+    private List<ScoredMedia> findMediasInFolder(Path folder, List<String> searched, Map<String, Integer> maxDistances, SearchFilters filters, boolean isVirtualFolder) {
+        FolderIntervalIndex intervals = isVirtualFolder ? this.virtualFolders : this.folders;
+        List<PhotatoMedia> medias = intervals.read(() -> {
+            FolderIntervalIndex.Folder scope = intervals.getFolder(folder);
+            if (scope == null) {
+                return new ArrayList<>();
+            }
+
+            // The medias matching the filters, as a bitmap of their ids, null if no filter
+            BitSet filtered = filters.isEmpty() ? null : this.filtersIndex.find(filters);
+
+            // The folder is only checked on the intersection, which is at most as large as the rarest term results
+            Predicate<PhotatoMedia> inScope = (PhotatoMedia media) -> {
+                IndexedMedia indexedMedia = this.indexedMedias.get(media);
+                if (indexedMedia == null) {
+                    return false; // Being removed
+                } else if (filtered != null && !filtered.get(indexedMedia.filtersId)) {
+                    return false;
+                } else if (!isVirtualFolder) {
+                    return scope.contains(indexedMedia.folder);
+                } else {
+                    return Arrays.stream(indexedMedia.virtualFolders).anyMatch(scope::contains);
+                }
+            };
+
+            if (searched.isEmpty()) {
+                List<PhotatoMedia> result = new ArrayList<>();
+                for (int id = filtered.nextSetBit(0); id >= 0; id = filtered.nextSetBit(id + 1)) {
+                    PhotatoMedia media = this.filtersIndex.getMedia(id);
+                    if (media != null && inScope.test(media)) {
+                        result.add(media);
+                    }
+                }
+                return result;
+            }
+
+            List<PhotatoMedia> result = new ArrayList<>(this.mediasIndex.findContainsAll(searched, maxDistances, inScope));
+
+            // The medias found again in the persisted index are not in the other one
+            if (this.persistedIndex != null) {
+                for (int id : this.persistedIndex.findContainsAll(searched, maxDistances)) {
+                    PhotatoMedia media = this.persistedMedias.get(id);
+                    if (media != null && inScope.test(media)) {
+                        result.add(media);
+                    }
+                }
+            }
+            return result;
+        });
+
+        List<ScoredMedia> result = new ArrayList<>(medias.size());
+        for (PhotatoMedia media : medias) {
+            IndexedMedia indexedMedia = this.indexedMedias.get(media);
+            if (indexedMedia != null) {
+                result.add(new ScoredMedia(media, this.getScore(indexedMedia, searched, maxDistances)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the sum, for each searched term, of its best match in the media
+     * terms, weighted by the field of the term and by how it matched it
+     */
+    private int getScore(IndexedMedia indexedMedia, List<String> searched, Map<String, Integer> maxDistances) {
+        int score = 0;
+        for (String s : searched) {
+            int maxDistance = Math.min(maxDistances.getOrDefault(s, 0), s.length() - 1);
+            int best = 0;
+            for (int i = 0; i < indexedMedia.terms.length; i++) {
+                String term = indexedMedia.terms[i];
+                int factor;
+                if (term.equals(s)) {
+                    factor = exactMatchFactor;
+                } else if (term.startsWith(s)) {
+                    factor = prefixMatchFactor;
+                } else if ((!this.prefixOnlyMode && term.contains(s)) || (maxDistance > 0 && EditDistanceHelper.containsApproximately(term, s, maxDistance, this.prefixOnlyMode))) {
+                    factor = partialMatchFactor;
+                } else {
+                    factor = 0;
+                }
+                best = Math.max(best, factor * indexedMedia.weights[i]);
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    /**
+     * Keeps the count best ranked medias in a heap whose head is the worst of
+     * them, so that each other media costs one comparison with it
+     *
+     * @return the count best ranked medias, sorted
+     */
+    private static List<ScoredMedia> getTopRanked(List<ScoredMedia> scoredMedias, int count) {
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+
+        PriorityQueue<ScoredMedia> heap = new PriorityQueue<>(count, rankComparator.reversed());
+        for (ScoredMedia scoredMedia : scoredMedias) {
+            if (heap.size() < count) {
+                heap.add(scoredMedia);
+            } else if (rankComparator.compare(scoredMedia, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(scoredMedia);
+            }
+        }
+
+        ScoredMedia[] result = new ScoredMedia[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = heap.poll();
+        }
+        return Arrays.asList(result);
     }
 
     public void addMedia(PhotatoFolder rootFolder, PhotatoMedia media) {
         String pictureName = media.fsPath.getFileName().toString();
         pictureName = pictureName.substring(0, pictureName.lastIndexOf("."));
 
-        List<String> all = new ArrayList<>();
+        Map<String, Integer> termsWeights = new LinkedHashMap<>();
         if (media.persons != null) {
-            all.addAll(Arrays.asList(media.persons));
+            addTerms(termsWeights, Arrays.asList(media.persons), personWeight);
         }
 
         if (media.tags != null) {
-            all.addAll(Arrays.asList(media.tags));
+            addTerms(termsWeights, Arrays.asList(media.tags), tagWeight);
         }
 
         if (media.title != null) {
-            all.add(media.title);
+            addTerms(termsWeights, Arrays.asList(media.title), titleWeight);
         }
 
         if (this.indexFolderName) {
-            all.addAll(Arrays.asList(rootFolder.fsPath.relativize(media.fsPath.getParent()).toString().replace("\\", "/").split("/")));
+            addTerms(termsWeights, Arrays.asList(rootFolder.fsPath.relativize(media.fsPath.getParent()).toString().replace("\\", "/").split("/")), folderWeight);
         }
-        all.add(pictureName);
+        addTerms(termsWeights, Arrays.asList(pictureName), filenameWeight);
 
         if (media.position != null && media.position.coordinatesDescription != null) {
-            all.addAll(SearchQueryHelper.getSplittedTerms(media.position.coordinatesDescription));
+            addTerms(termsWeights, Arrays.asList(media.position.coordinatesDescription), placeWeight);
         }
 
-        for (String word : all) {
-            List<String> terms = SearchQueryHelper.getSplittedTerms(word);
+        String[] terms = termsWeights.keySet().toArray(new String[termsWeights.size()]);
+        int[] weights = termsWeights.values().stream().mapToInt(Integer::intValue).toArray();
+        String path = rootFolder.fsPath.relativize(media.fsPath).toString().replace("\\", "/");
+
+        int persistedId = this.persistedIndex == null ? -1 : this.persistedIndex.getValueId(path);
+        if (persistedId >= 0 && !this.persistedIndex.hasKeys(persistedId, termsWeights.keySet())) {
+            persistedId = -1; // Modified since the index was saved
+        }
+        int id = persistedId;
+
+        // Before indexing, so that a search finding the media also finds its folders
+        IndexedMedia indexedMedia = this.indexedMedias.computeIfAbsent(media, (PhotatoMedia m) -> {
+            this.geoClusters.addMedia(m);
+            return new IndexedMedia(
+                    this.folders.addMedia(m.fsPath.getParent()),
+                    m.virtualPaths.stream().map(this.virtualFolders::addMedia).toArray(FolderIntervalIndex.Folder[]::new),
+                    path, terms, weights, id, this.filtersIndex.addMedia(m));
+        });
+
+        if (indexedMedia.persistedId >= 0) {
+            this.persistedMedias.set(indexedMedia.persistedId, media);
+        } else {
             for (String term : terms) {
                 this.mediasIndex.add(term, media);
             }
         }
+        this.generation.incrementAndGet();
+    }
+
+    private static void addTerms(Map<String, Integer> termsWeights, List<String> words, int weight) {
+        for (String word : words) {
+            for (String term : SearchQueryHelper.getSplittedTerms(word)) {
+                termsWeights.merge(term, weight, Math::max);
+            }
+        }
     }
 
     public void removeMedia(PhotatoMedia media) {
         this.mediasIndex.remove(media);
+
+        IndexedMedia indexedMedia = this.indexedMedias.remove(media);
+        if (indexedMedia != null) {
+            if (indexedMedia.persistedId >= 0) {
+                this.persistedMedias.compareAndSet(indexedMedia.persistedId, media, null);
+            }
+            this.filtersIndex.removeMedia(indexedMedia.filtersId);
+            this.geoClusters.removeMedia(media);
+            this.folders.removeMedia(indexedMedia.folder);
+            for (FolderIntervalIndex.Folder virtualFolder : indexedMedia.virtualFolders) {
+                this.virtualFolders.removeMedia(virtualFolder);
+            }
+        }
+        this.generation.incrementAndGet();
+    }
+
+    /**
+     * Writes the terms of all the indexed medias, to be mapped on next start.
+     * The file currently mapped is replaced, but stays readable until exit
+     */
+    public void saveIndex() throws IOException {
+        if (this.persistedIndexFile == null) {
+            return;
+        }
+
+        Map<String, List<String>> mediasTerms = new HashMap<>();
+        for (IndexedMedia indexedMedia : this.indexedMedias.values()) {
+            mediasTerms.put(indexedMedia.path, Arrays.asList(indexedMedia.terms));
+        }
+        MappedStringIndex.write(this.persistedIndexFile, this.prefixOnlyMode, mediasTerms);
+    }
+
+    /**
+     * @see GeoClusterIndex#getClusters
+     */
+    public List<GeoCluster> getGeoClusters(double south, double west, double north, double east, int zoom) {
+        return this.geoClusters.getClusters(south, west, north, east, zoom);
+    }
+
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    public QueryResultCache<?, ?> getResultsCache() {
+        return this.resultsCache;
     }
 
 }
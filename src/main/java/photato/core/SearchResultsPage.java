@@ -0,0 +1,43 @@
+package photato.core;
+
+import java.util.List;
+import photato.core.entities.PhotatoMedia;
+
+/**
+ * A page of the medias matching a search, the best ranked first
+ */
+public class SearchResultsPage {
+
+    private final List<PhotatoMedia> medias;
+    private final int offset;
+    private final int totalCount;
+
+    public SearchResultsPage(List<PhotatoMedia> medias, int offset, int totalCount) {
+        this.medias = medias;
+        this.offset = offset;
+        this.totalCount = totalCount;
+    }
+
+    public List<PhotatoMedia> getMedias() {
+        return this.medias;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * @return the number of medias matching the search, in all the pages
+     */
+    public int getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * @return the offset of the next page, -1 if this one is the last
+     */
+    public int getNextOffset() {
+        return this.offset + this.medias.size() < this.totalCount ? this.offset + this.medias.size() : -1;
+    }
+
+}
@@ -0,0 +1,171 @@
+package photato.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the watch events by path and only emits the net change once the path
+ * has been quiet for a while and its size and modification date are stable.
+ * Copying a file typically produces one CREATE and several MODIFY events, they
+ * end up as a single CREATED change once the copy is over
+ */
+public class WatchEventCoalescer {
+
+    public enum ChangeKind {
+        CREATED, MODIFIED, DELETED, REPLACED // Deleted then created again, by a rename for instance
+    }
+
+    public static class Change {
+
+        public final Path path;
+        public final ChangeKind kind;
+
+        public Change(Path path, ChangeKind kind) {
+            this.path = path;
+            this.kind = kind;
+        }
+
+        @Override
+        public String toString() {
+            return this.kind + " " + this.path;
+        }
+
+    }
+
+    private static class PendingChange {
+
+        private ChangeKind kind;
+        private long lastEventTime;
+        private long size;
+        private long lastModificationTimestamp;
+
+        public PendingChange(ChangeKind kind) {
+            this.kind = kind;
+        }
+
+    }
+
+    private final long quietPeriodMs;
+    private final Map<Path, PendingChange> pendingChanges; // In the order of the first event, so that a folder is created before its content
+
+    public WatchEventCoalescer(long quietPeriodMs) {
+        this.quietPeriodMs = quietPeriodMs;
+        this.pendingChanges = new LinkedHashMap<>();
+    }
+
+    public synchronized void add(Path path, WatchEvent.Kind<?> kind, long now) {
+        ChangeKind eventKind;
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+            eventKind = ChangeKind.CREATED;
+        } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            eventKind = ChangeKind.DELETED;
+        } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+            eventKind = ChangeKind.MODIFIED;
+        } else {
+            throw new IllegalArgumentException("Unsupported event kind " + kind);
+        }
+
+        PendingChange pendingChange = this.pendingChanges.get(path);
+        if (pendingChange == null) {
+            pendingChange = new PendingChange(eventKind);
+            this.pendingChanges.put(path, pendingChange);
+        } else {
+            ChangeKind netKind = getNetChange(pendingChange.kind, eventKind);
+            if (netKind == null) {
+                this.pendingChanges.remove(path); // Created then deleted, nothing happened
+                return;
+            }
+            pendingChange.kind = netKind;
+        }
+
+        pendingChange.lastEventTime = now;
+        this.readAttributes(path, pendingChange);
+    }
+
+    /**
+     * @return the changes of the paths which have been stable for the quiet
+     * period
+     */
+    public synchronized List<Change> poll(long now) {
+        List<Change> result = new ArrayList<>();
+
+        Iterator<Map.Entry<Path, PendingChange>> it = this.pendingChanges.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, PendingChange> entry = it.next();
+            PendingChange pendingChange = entry.getValue();
+
+            if (now - pendingChange.lastEventTime < this.quietPeriodMs) {
+                continue;
+            }
+
+            if (pendingChange.kind != ChangeKind.DELETED && this.quietPeriodMs > 0) {
+                long size = pendingChange.size;
+                long lastModificationTimestamp = pendingChange.lastModificationTimestamp;
+
+                if (!this.readAttributes(entry.getKey(), pendingChange)) {
+                    // Gone without its delete event having been received yet
+                    if (pendingChange.kind == ChangeKind.CREATED) {
+                        it.remove();
+                    } else {
+                        pendingChange.kind = ChangeKind.DELETED;
+                    }
+                    continue;
+                }
+
+                if (size != pendingChange.size || lastModificationTimestamp != pendingChange.lastModificationTimestamp) {
+                    pendingChange.lastEventTime = now; // Still being written
+                    continue;
+                }
+            }
+
+            result.add(new Change(entry.getKey(), pendingChange.kind));
+            it.remove();
+        }
+
+        return result;
+    }
+
+    public synchronized int getPendingCount() {
+        return this.pendingChanges.size();
+    }
+
+    /**
+     * @return null if both events cancel each other
+     */
+    private static ChangeKind getNetChange(ChangeKind previous, ChangeKind next) {
+        switch (previous) {
+            case CREATED:
+                return next == ChangeKind.DELETED ? null : ChangeKind.CREATED;
+            case MODIFIED:
+                return next == ChangeKind.DELETED ? ChangeKind.DELETED : ChangeKind.MODIFIED;
+            case DELETED:
+            case REPLACED:
+                return next == ChangeKind.DELETED ? ChangeKind.DELETED : ChangeKind.REPLACED;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private boolean readAttributes(Path path, PendingChange pendingChange) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            pendingChange.size = attributes.isDirectory() ? 0 : attributes.size();
+            pendingChange.lastModificationTimestamp = attributes.lastModifiedTime().toMillis();
+            return true;
+        } catch (IOException ex) {
+            pendingChange.size = -1;
+            pendingChange.lastModificationTimestamp = -1;
+            return false;
+        }
+    }
+
+}
@@ -6,60 +6,216 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import photato.helpers.PathHelper;
 
 public class PhotatoFolder extends PhotatoItem {
 
     public final Map<String, PhotatoFolder> subFolders;
 
-    public final Set<PhotatoMedia> medias;
+    public final Set<PhotatoMedia> medias; // Only modified through addMedia() and removeMedia(), which maintain the aggregates
 
     public final Set<PhotatoVideo> videos;
     
     @Expose
     public final String path;
 
+    public long lastModificationTimestamp; // Modification date of the directory when it was last listed
+    public long listingDigest; // Digest of the directory listing, see ScannedDirectory.getListingDigest()
+
+    // Aggregates of the folder own medias
+    private PhotatoMedia ownCover;
+    private long ownFilesize;
+    private long ownLatestTimestamp;
+
+    // Aggregates of the whole subtree, computed from the own ones and the subfolders ones so that a listing never walks the subtrees
+    private long mediasCount;
+    private long totalFilesize;
+    private long latestTimestamp;
+    private PictureInfos thumbnail;
+
+    // Virtual folders only, whose subfolders share medias: the distinct medias of the subtree, with the number of virtual paths leading each one there, from which the subtree aggregates are maintained instead of summed
+    private Map<PhotatoMedia, Integer> subtreeMedias;
+    private TreeMap<Long, Integer> subtreeTimestamps;
+    private PhotatoMedia subtreeCover;
+
     public PhotatoFolder(Path rootFolder, Path path) {
         super(rootFolder, path);
         this.subFolders = new HashMap<>();
         this.medias = new HashSet<>();
         this.videos = new HashSet<>();
         this.path = PathHelper.getPathString(rootFolder, path);
+        this.ownLatestTimestamp = Long.MIN_VALUE;
+        this.latestTimestamp = Long.MIN_VALUE;
     }
 
-    @ExposeMethodResult("isEmpty")
-    public boolean isEmpty() {
-        if (!this.medias.isEmpty()) {
-            return false;
-        } else {
-            return this.subFolders.values().stream().noneMatch((folder) -> (!folder.isEmpty()));
+    /**
+     * Copy used to modify a folder of a published tree. Published folders are
+     * never modified, so that they can be browsed without locking: the
+     * collections which are not copied are shared with the published folder,
+     * and must not be modified
+     */
+    public PhotatoFolder(PhotatoFolder folder, boolean copyMedias, boolean copySubFolders) {
+        super(null, folder.fsPath);
+        this.subFolders = copySubFolders ? new HashMap<>(folder.subFolders) : folder.subFolders;
+        this.medias = copyMedias ? new HashSet<>(folder.medias) : folder.medias;
+        this.videos = copyMedias ? new HashSet<>(folder.videos) : folder.videos;
+        this.path = folder.path;
+        this.lastModificationTimestamp = folder.lastModificationTimestamp;
+        this.listingDigest = folder.listingDigest;
+        this.ownCover = folder.ownCover;
+        this.ownFilesize = folder.ownFilesize;
+        this.ownLatestTimestamp = folder.ownLatestTimestamp;
+        this.mediasCount = folder.mediasCount;
+        this.totalFilesize = folder.totalFilesize;
+        this.latestTimestamp = folder.latestTimestamp;
+        this.thumbnail = folder.thumbnail;
+        if (folder.subtreeMedias != null) {
+            this.subtreeMedias = new HashMap<>(folder.subtreeMedias);
+            this.subtreeTimestamps = new TreeMap<>(folder.subtreeTimestamps);
+            this.subtreeCover = folder.subtreeCover;
         }
     }
 
-    @ExposeMethodResult("thumbnail")
-    public PictureInfos getThumbnail() {
-        if (!this.medias.isEmpty()) {
+    public void addMedia(PhotatoMedia media) {
+        if (this.medias.add(media)) {
+            this.ownFilesize += media.filesize;
+            this.ownLatestTimestamp = Math.max(this.ownLatestTimestamp, media.timestamp);
             // We try to find first horizontal thumbails, since they won't have a scaling problem when displayed
-            for (PhotatoMedia media : this.medias) {
-                if (media.thumbnail.height < media.thumbnail.width) {
-                    return media.thumbnail;
+            if (this.ownCover == null || (!isHorizontal(this.ownCover) && isHorizontal(media))) {
+                this.ownCover = media;
+            }
+        }
+        this.refreshAggregates();
+    }
+
+    public void removeMedia(PhotatoMedia media) {
+        if (this.medias.remove(media)) {
+            this.ownFilesize -= media.filesize;
+            if (media.equals(this.ownCover) || media.timestamp == this.ownLatestTimestamp) {
+                this.ownCover = null;
+                this.ownLatestTimestamp = Long.MIN_VALUE;
+                for (PhotatoMedia m : this.medias) {
+                    this.ownLatestTimestamp = Math.max(this.ownLatestTimestamp, m.timestamp);
+                    if (this.ownCover == null || (!isHorizontal(this.ownCover) && isHorizontal(m))) {
+                        this.ownCover = m;
+                    }
                 }
             }
+        }
+        this.refreshAggregates();
+    }
+
+    /**
+     * Counts a virtual path of the media going through this virtual folder. Its
+     * aggregates then only count the distinct medias of the subtree
+     */
+    public void addSubtreeMedia(PhotatoMedia media) {
+        if (this.subtreeMedias == null) {
+            this.subtreeMedias = new HashMap<>();
+            this.subtreeTimestamps = new TreeMap<>();
+        }
+        if (this.subtreeMedias.merge(media, 1, Integer::sum) == 1) {
+            this.subtreeTimestamps.merge(media.timestamp, 1, Integer::sum);
+            if (this.subtreeCover == null || (!isHorizontal(this.subtreeCover) && isHorizontal(media))) {
+                this.subtreeCover = media;
+            }
+            this.mediasCount++;
+            this.totalFilesize += media.filesize;
+            this.latestTimestamp = this.subtreeTimestamps.lastKey();
+            this.thumbnail = this.subtreeCover.thumbnail;
+        }
+    }
+
+    public void removeSubtreeMedia(PhotatoMedia media) {
+        Integer pathsCount = this.subtreeMedias == null ? null : this.subtreeMedias.get(media);
+        if (pathsCount == null) {
+            return;
+        }
+        if (pathsCount > 1) {
+            this.subtreeMedias.put(media, pathsCount - 1);
+            return;
+        }
 
-            return this.medias.iterator().next().thumbnail;
-        } else if (!this.videos.isEmpty()) {
-            return this.videos.iterator().next().thumbnail;
-        } else {
-            // If the folder does not contain pictures, will return the thumbail of one of its subfolders (if any is available)
-            Optional<PhotatoFolder> folderOptional = this.subFolders.values().stream().filter((PhotatoFolder folder) -> !folder.isEmpty()).findAny();
-            if (folderOptional.isPresent()) {
-                return folderOptional.get().getThumbnail();
-            } else {
-                return null;
+        this.subtreeMedias.remove(media);
+        this.subtreeTimestamps.merge(media.timestamp, -1, (Integer a, Integer b) -> a + b == 0 ? null : a + b);
+        if (media.equals(this.subtreeCover)) {
+            this.subtreeCover = null;
+            for (PhotatoMedia m : this.subtreeMedias.keySet()) {
+                if (this.subtreeCover == null || (!isHorizontal(this.subtreeCover) && isHorizontal(m))) {
+                    this.subtreeCover = m;
+                    if (isHorizontal(m)) {
+                        break;
+                    }
+                }
             }
         }
+        this.mediasCount--;
+        this.totalFilesize -= media.filesize;
+        this.latestTimestamp = this.subtreeTimestamps.isEmpty() ? Long.MIN_VALUE : this.subtreeTimestamps.lastKey();
+        this.thumbnail = this.subtreeCover != null ? this.subtreeCover.thumbnail : null;
+    }
+
+    /**
+     * Recomputes the subtree aggregates from the subfolders ones, which must
+     * be up to date. To be called whenever a subfolder is added, removed or
+     * replaced
+     */
+    public void refreshAggregates() {
+        if (this.subtreeMedias != null) {
+            return; // Maintained by addSubtreeMedia() and removeSubtreeMedia()
+        }
+
+        this.mediasCount = this.medias.size();
+        this.totalFilesize = this.ownFilesize;
+        this.latestTimestamp = this.ownLatestTimestamp;
+        this.thumbnail = this.ownCover != null ? this.ownCover.thumbnail : (!this.videos.isEmpty() ? this.videos.iterator().next().thumbnail : null);
+
+        for (PhotatoFolder folder : this.subFolders.values()) {
+            if (!folder.isEmpty()) {
+                this.mediasCount += folder.mediasCount;
+                this.totalFilesize += folder.totalFilesize;
+                this.latestTimestamp = Math.max(this.latestTimestamp, folder.latestTimestamp);
+                if (this.thumbnail == null) {
+                    // If the folder does not contain pictures, will return the thumbail of one of its subfolders
+                    this.thumbnail = folder.thumbnail;
+                }
+            }
+        }
+    }
+
+    @ExposeMethodResult("isEmpty")
+    public boolean isEmpty() {
+        return this.mediasCount == 0;
+    }
+
+    @ExposeMethodResult("thumbnail")
+    public PictureInfos getThumbnail() {
+        return this.thumbnail;
+    }
+
+    @ExposeMethodResult("mediasCount")
+    public long getMediasCount() {
+        return this.mediasCount;
+    }
+
+    @ExposeMethodResult("totalFilesize")
+    public long getTotalFilesize() {
+        return this.totalFilesize;
+    }
+
+    /**
+     * @return the date of the most recent media of the subtree,
+     * Long.MIN_VALUE if it is empty
+     */
+    @ExposeMethodResult("latestTimestamp")
+    public long getLatestTimestamp() {
+        return this.latestTimestamp;
+    }
+
+    private static boolean isHorizontal(PhotatoMedia media) {
+        return media.thumbnail.height < media.thumbnail.width;
     }
 
 }
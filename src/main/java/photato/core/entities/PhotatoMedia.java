@@ -1,6 +1,8 @@
 package photato.core.entities;
 
 import com.google.gson.annotations.Expose;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Timestamp;
@@ -45,9 +47,15 @@ public abstract class PhotatoMedia extends PhotatoItem {
     @Expose
     public final long timestamp;
 
+    public final int width; // Dimensions of the original media
+    public final int height;
+
+    @Expose
+    public final long filesize;
+
     public final Set<Path> virtualPaths;
 
-    public PhotatoMedia(String mediaType, Path rootFolder, Path path, Metadata metadata, PictureInfos thumbnailInfos, PictureInfos fullScreenInfos, long lastModificationTimestamp) {
+    public PhotatoMedia(String mediaType, Path rootFolder, Path path, Metadata metadata, PictureInfos thumbnailInfos, PictureInfos fullScreenInfos, long lastModificationTimestamp, long filesize) {
         super(rootFolder, path);
         this.mediaType = mediaType;
         this.title = metadata.title;
@@ -57,7 +65,10 @@ public abstract class PhotatoMedia extends PhotatoItem {
         this.thumbnail = thumbnailInfos;
         this.lastModificationTimestamp = lastModificationTimestamp;
         this.timestamp = metadata.pictureDate;
+        this.width = metadata.width;
+        this.height = metadata.height;
         this.fullscreenPicture = fullScreenInfos;
+        this.filesize = filesize;
 
         this.virtualPaths = this.getMediaVirtualPaths();
     }
@@ -72,6 +83,28 @@ public abstract class PhotatoMedia extends PhotatoItem {
         }
     }
 
+    /**
+     * Same as above, but with a filesize which is already known (for
+     * instance from a directory scan), so that the file is not accessed again
+     */
+    public static PhotatoMedia createMedia(Path rootFolder, Path path, Metadata metadata, PictureInfos thumbnailInfos, PictureInfos fullScreenInfos, long lastModificationTimestamp, long filesize) {
+        if (MediaHelper.isPictureFile(path)) {
+            return new PhotatoPicture(rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp, filesize);
+        } else if (MediaHelper.isVideoFile(path)) {
+            return new PhotatoVideo(rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp, filesize);
+        } else {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    protected static long readFilesize(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
     private Set<Path> getMediaVirtualPaths() {
         Set<Path> result = new HashSet<>();
 
@@ -14,7 +14,11 @@ public class PhotatoPicture extends PhotatoMedia {
     public final int rotationId;
 
     public PhotatoPicture(Path rootFolder, Path path, Metadata metadata, PictureInfos thumbnailInfos, PictureInfos fullScreenInfos, long lastModificationTimestamp) {
-        super("picture", rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp);
+        this(rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp, readFilesize(path));
+    }
+
+    public PhotatoPicture(Path rootFolder, Path path, Metadata metadata, PictureInfos thumbnailInfos, PictureInfos fullScreenInfos, long lastModificationTimestamp, long filesize) {
+        super("picture", rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp, filesize);
         this.rotationId = metadata.rotationId;
         this.rawPicture = new PictureInfos(Routes.rawPicturesRootUrl + "/" + PathHelper.getPathString(rootFolder, path), metadata.width, metadata.height);
 
@@ -1,8 +1,6 @@
 package photato.core.entities;
 
 import com.google.gson.annotations.Expose;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -20,11 +18,12 @@ public class PhotatoVideo extends PhotatoMedia {
     @Expose
     public final String videoPath;
 
-    @Expose
-    public final long filesize;
-
     public PhotatoVideo(Path rootFolder, Path path, Metadata metadata, PictureInfos thumbnailInfos, PictureInfos fullScreenInfos, long lastModificationTimestamp) {
-        super("video", rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp);
+        this(rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp, readFilesize(path));
+    }
+
+    public PhotatoVideo(Path rootFolder, Path path, Metadata metadata, PictureInfos thumbnailInfos, PictureInfos fullScreenInfos, long lastModificationTimestamp, long filesize) {
+        super("video", rootFolder, path, metadata, thumbnailInfos, fullScreenInfos, lastModificationTimestamp, filesize);
 
         if (this.filename.length() > 40 || this.filename.contains("_") || this.filename.toLowerCase().startsWith("vid")) {
             this.name = path.getParent().getFileName().toString();
@@ -34,14 +33,6 @@ public class PhotatoVideo extends PhotatoMedia {
 
         this.videoType = "video/" + FileHelper.getExtension(path.toString()).toLowerCase();
         this.videoPath = Routes.rawVideosRootUrl + "/" + PathHelper.getPathString(rootFolder, path);
-
-        long tmpFilesize;
-        try {
-            tmpFilesize =Files.size(this.fsPath);
-        } catch (IOException ex) {
-           tmpFilesize=0;
-        }
-        this.filesize = tmpFilesize;
     }
 
     public static Path getExtractedPicturePath(Path extractedVideoPicturesFolders, Path videoFsPath, long videoLastModificationTimestamp) {
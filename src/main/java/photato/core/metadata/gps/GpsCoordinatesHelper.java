@@ -7,6 +7,9 @@ import java.util.regex.Pattern;
 public class GpsCoordinatesHelper {
 
     private static final Pattern parsingPattern = Pattern.compile("([0-9\\.]+) ([NS]), ([0-9\\.]+) ([EW])");
+    private static final double earthRadius = 6371.0088; // Mean radius, in kilometers
+
+    public static final int cellBits = 31; // Per coordinate in the finest grid, so that the cell keys are positive longs
 
     public static Tuple<Double, Double> getCoordinates(String coordinates) {
         if (coordinates == null || coordinates.trim().isEmpty()) {
@@ -35,4 +38,60 @@ public class GpsCoordinatesHelper {
             }
         }
     }
+
+    /**
+     * @return the great-circle distance, in kilometers
+     */
+    public static double getDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * earthRadius * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * @return the angle, in degrees of latitude, of a distance in kilometers
+     */
+    public static double getLatitudeDegrees(double distance) {
+        return Math.toDegrees(distance / earthRadius);
+    }
+
+    /**
+     * @return the row of the latitude in the finest grid
+     */
+    public static int getCellY(double latitude) {
+        return toCell((latitude + 90) / 180);
+    }
+
+    /**
+     * @return the column of the longitude in the finest grid
+     */
+    public static int getCellX(double longitude) {
+        return toCell((longitude + 180) / 360);
+    }
+
+    private static int toCell(double ratio) {
+        long cell = (long) Math.floor(ratio * (1L << cellBits));
+        return (int) Math.max(0, Math.min((1L << cellBits) - 1, cell));
+    }
+
+    /**
+     * Interleaves the bits of the row and the column like a geohash, so that
+     * the cells of a coarser grid are contiguous ranges of keys: the cell of
+     * (y >> s, x >> s) covers the 4^s keys from getCellKey(y >> s << s, x >> s << s)
+     */
+    public static long getCellKey(int y, int x) {
+        return (spreadBits(y) << 1) | spreadBits(x);
+    }
+
+    private static long spreadBits(int value) {
+        long result = value & 0xFFFFFFFFL;
+        result = (result | (result << 16)) & 0x0000FFFF0000FFFFL;
+        result = (result | (result << 8)) & 0x00FF00FF00FF00FFL;
+        result = (result | (result << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        result = (result | (result << 2)) & 0x3333333333333333L;
+        result = (result | (result << 1)) & 0x5555555555555555L;
+        return result;
+    }
 }
@@ -0,0 +1,93 @@
+package photato.core.scan;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import photato.helpers.FileHelper;
+import photato.helpers.MediaHelper;
+
+public class DirectoryScanner {
+
+    /**
+     * Lists a directory exactly once. The attributes of every entry are
+     * captured during the walk (on Windows and on network shares they come
+     * with the listing itself), so callers never need to stat the files again.
+     * The symbolic links are followed, except those to the directory itself or
+     * to one of its parents which would be explored endlessly
+     */
+    public static ScannedDirectory scan(Path folder) throws IOException {
+        List<ScannedFile> subFolders = new ArrayList<>();
+        List<ScannedFile> medias = new ArrayList<>();
+        ScannedFile[] directory = new ScannedFile[1];
+        boolean[] ignored = new boolean[1];
+
+        Files.walkFileTree(folder, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                directory[0] = new ScannedFile(dir, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isDirectory()) {
+                    if (Files.isReadable(file) && !isLoop(folder, file)) {
+                        subFolders.add(new ScannedFile(file, attrs));
+                    }
+                } else if (FileHelper.isIgnoreFile(file)) {
+                    ignored[0] = true;
+                } else if (attrs.isRegularFile() && (MediaHelper.isPictureFile(file) || MediaHelper.isVideoFile(file))) { // A broken link comes with its own attributes
+                    medias.add(new ScannedFile(file, attrs));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (file.equals(folder)) {
+                    throw exc;
+                }
+
+                return FileVisitResult.CONTINUE; // Unreadable entry, broken link or link loop, just skip it
+            }
+        });
+
+        if (directory[0] == null) {
+            throw new IOException("Not a directory: " + folder);
+        }
+
+        return new ScannedDirectory(directory[0], ignored[0], subFolders, medias);
+    }
+
+    /**
+     * @return true if the subfolder is a link to the folder or to one of its
+     * parents, through links or not. Only the links are checked, the real
+     * paths of the other subfolders are not needed
+     */
+    private static boolean isLoop(Path folder, Path subFolder) throws IOException {
+        if (!Files.isSymbolicLink(subFolder)) {
+            return false;
+        }
+
+        Path target = subFolder.toRealPath();
+        for (Path parent = folder; parent != null; parent = parent.getParent()) {
+            if (parent.toRealPath().equals(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static ScannedFile readFile(Path path) throws IOException {
+        return new ScannedFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+}
@@ -0,0 +1,48 @@
+package photato.core.scan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScannedDirectory {
+
+    public final ScannedFile directory;
+    public final boolean ignored; // True if the directory contains a .photatoignore file
+    public final List<ScannedFile> subFolders;
+    public final List<ScannedFile> medias;
+
+    public ScannedDirectory(ScannedFile directory, boolean ignored, List<ScannedFile> subFolders, List<ScannedFile> medias) {
+        this.directory = directory;
+        this.ignored = ignored;
+        this.subFolders = subFolders;
+        this.medias = medias;
+    }
+
+    /**
+     * @return a 64 bits FNV-1a hash of the entries names, sizes and
+     * modification dates, independent of the listing order. Two listings with
+     * the same digest can be considered identical
+     */
+    public long getListingDigest() {
+        List<String> entries = new ArrayList<>(this.subFolders.size() + this.medias.size() + 1);
+        for (ScannedFile subFolder : this.subFolders) {
+            entries.add("d/" + subFolder.path.getFileName());
+        }
+        for (ScannedFile media : this.medias) {
+            entries.add("f/" + media.path.getFileName() + "/" + media.size + "/" + media.lastModificationTimestamp);
+        }
+        if (this.ignored) {
+            entries.add("i/");
+        }
+        entries.sort(null);
+
+        long hash = 0xcbf29ce484222325L;
+        for (String entry : entries) {
+            for (int i = 0; i < entry.length(); i++) {
+                hash = (hash ^ entry.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ '\n') * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,37 @@
+package photato.core.scan;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A filesystem entry together with the attributes read while listing its
+ * parent directory, so that they never have to be queried again
+ */
+public class ScannedFile {
+
+    public final Path path;
+    public final long lastModificationTimestamp;
+    public final long size;
+    public final boolean isDirectory;
+
+    public ScannedFile(Path path, BasicFileAttributes attributes) {
+        this(path, attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.isDirectory());
+    }
+
+    public ScannedFile(Path path, long lastModificationTimestamp, long size, boolean isDirectory) {
+        this.path = path;
+        this.lastModificationTimestamp = lastModificationTimestamp;
+        this.size = size;
+        this.isDirectory = isDirectory;
+    }
+
+    public ScannedFile withPath(Path newPath) {
+        return new ScannedFile(newPath, this.lastModificationTimestamp, this.size, this.isDirectory);
+    }
+
+    @Override
+    public String toString() {
+        return this.path.toString();
+    }
+
+}
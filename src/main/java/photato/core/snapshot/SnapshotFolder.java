@@ -0,0 +1,24 @@
+package photato.core.snapshot;
+
+import java.util.List;
+import java.util.Map;
+
+public class SnapshotFolder {
+
+    public final String filename;
+    public final long lastModificationTimestamp; // Modification date of the directory itself, it changes when an entry is added, removed or renamed
+    public final long listingDigest;
+    public final boolean ignored; // Ignored folders are kept so that removing their .photatoignore file is detected
+    public final List<SnapshotMedia> medias;
+    public final Map<String, SnapshotFolder> subFolders;
+
+    public SnapshotFolder(String filename, long lastModificationTimestamp, long listingDigest, boolean ignored, List<SnapshotMedia> medias, Map<String, SnapshotFolder> subFolders) {
+        this.filename = filename;
+        this.lastModificationTimestamp = lastModificationTimestamp;
+        this.listingDigest = listingDigest;
+        this.ignored = ignored;
+        this.medias = medias;
+        this.subFolders = subFolders;
+    }
+
+}
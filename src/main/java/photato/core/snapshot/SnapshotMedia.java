@@ -0,0 +1,35 @@
+package photato.core.snapshot;
+
+import photato.core.entities.PhotatoMedia;
+import photato.core.entities.PhotatoPicture;
+import photato.core.metadata.Metadata;
+
+public class SnapshotMedia {
+
+    public final String filename;
+    public final long lastModificationTimestamp;
+    public final long size;
+    public final Metadata metadata;
+
+    public SnapshotMedia(String filename, long lastModificationTimestamp, long size, Metadata metadata) {
+        this.filename = filename;
+        this.lastModificationTimestamp = lastModificationTimestamp;
+        this.size = size;
+        this.metadata = metadata;
+    }
+
+    public static SnapshotMedia fromMedia(PhotatoMedia media) {
+        Metadata metadata = new Metadata();
+        metadata.title = media.title;
+        metadata.tags = media.tags;
+        metadata.persons = media.persons;
+        metadata.position = media.position;
+        metadata.pictureDate = media.timestamp;
+        metadata.width = media.width;
+        metadata.height = media.height;
+        metadata.rotationId = media instanceof PhotatoPicture ? ((PhotatoPicture) media).rotationId : 0;
+
+        return new SnapshotMedia(media.filename, media.lastModificationTimestamp, media.filesize, metadata);
+    }
+
+}
@@ -0,0 +1,207 @@
+package photato.core.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import photato.core.metadata.Metadata;
+import photato.core.metadata.gps.Position;
+
+/**
+ * Compact binary image of the folders tree, written with a DataOutputStream.
+ * It contains everything needed to rebuild the medias without calling
+ * exiftool again
+ */
+public class TreeSnapshot {
+
+    private static final int magic = 0x50485431; // "PHT1"
+    private static final int version = 3;
+
+    /**
+     * Writes to a temporary file which is then moved, so that a crash never
+     * leaves a truncated snapshot
+     */
+    public static void write(Path file, Path rootFolder, SnapshotFolder root) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            writeString(out, rootFolder.toAbsolutePath().toString());
+            writeFolder(out, root);
+        }
+
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return null if there is no usable snapshot for this root folder
+     */
+    public static SnapshotFolder read(Path file, Path rootFolder) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            // No count nor length can exceed the size of the file, a corrupt one must not allocate more
+            long maxLength = Files.size(file);
+            if (in.readInt() != magic || in.readInt() != version || !readString(in, maxLength).equals(rootFolder.toAbsolutePath().toString())) {
+                System.err.println("Ignoring incompatible snapshot " + file);
+                return null;
+            }
+
+            return readFolder(in, maxLength);
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Cannot read snapshot " + file + ": " + ex);
+            return null;
+        }
+    }
+
+    private static void writeFolder(DataOutputStream out, SnapshotFolder folder) throws IOException {
+        writeString(out, folder.filename);
+        out.writeLong(folder.lastModificationTimestamp);
+        out.writeLong(folder.listingDigest);
+        out.writeBoolean(folder.ignored);
+
+        out.writeInt(folder.medias.size());
+        for (SnapshotMedia media : folder.medias) {
+            writeString(out, media.filename);
+            out.writeLong(media.lastModificationTimestamp);
+            out.writeLong(media.size);
+            writeMetadata(out, media.metadata);
+        }
+
+        out.writeInt(folder.subFolders.size());
+        for (SnapshotFolder subFolder : folder.subFolders.values()) {
+            writeFolder(out, subFolder);
+        }
+    }
+
+    private static SnapshotFolder readFolder(DataInputStream in, long maxLength) throws IOException {
+        String filename = readString(in, maxLength);
+        long lastModificationTimestamp = in.readLong();
+        long listingDigest = in.readLong();
+        boolean ignored = in.readBoolean();
+
+        int mediasCount = readLength(in, maxLength);
+        List<SnapshotMedia> medias = new ArrayList<>(mediasCount);
+        for (int i = 0; i < mediasCount; i++) {
+            medias.add(new SnapshotMedia(readString(in, maxLength), in.readLong(), in.readLong(), readMetadata(in, maxLength)));
+        }
+
+        int subFoldersCount = readLength(in, maxLength);
+        Map<String, SnapshotFolder> subFolders = new HashMap<>();
+        for (int i = 0; i < subFoldersCount; i++) {
+            SnapshotFolder subFolder = readFolder(in, maxLength);
+            subFolders.put(subFolder.filename, subFolder);
+        }
+
+        return new SnapshotFolder(filename, lastModificationTimestamp, listingDigest, ignored, medias, subFolders);
+    }
+
+    private static void writeMetadata(DataOutputStream out, Metadata metadata) throws IOException {
+        writeNullableString(out, metadata.title);
+        writeStrings(out, metadata.tags);
+        writeStrings(out, metadata.persons);
+        out.writeBoolean(metadata.position != null);
+        if (metadata.position != null) {
+            writeNullableDouble(out, metadata.position.latitude);
+            writeNullableDouble(out, metadata.position.longitude);
+            writeNullableString(out, metadata.position.coordinatesDescription);
+        }
+        out.writeLong(metadata.pictureDate);
+        out.writeInt(metadata.width);
+        out.writeInt(metadata.height);
+        out.writeInt(metadata.rotationId);
+    }
+
+    private static Metadata readMetadata(DataInputStream in, long maxLength) throws IOException {
+        Metadata metadata = new Metadata();
+        metadata.title = readNullableString(in, maxLength);
+        metadata.tags = readStrings(in, maxLength);
+        metadata.persons = readStrings(in, maxLength);
+        if (in.readBoolean()) {
+            metadata.position = new Position(readNullableDouble(in), readNullableDouble(in), null, readNullableString(in, maxLength));
+        }
+        metadata.pictureDate = in.readLong();
+        metadata.width = in.readInt();
+        metadata.height = in.readInt();
+        metadata.rotationId = in.readInt();
+        return metadata;
+    }
+
+    /**
+     * Length in bytes then UTF-8 bytes, since writeUTF is limited to 64 KB
+     * (an exiftool title or description can be longer)
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long maxLength) throws IOException {
+        byte[] bytes = new byte[readLength(in, maxLength)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(DataInputStream in, long maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in, long maxLength) throws IOException {
+        return in.readBoolean() ? readString(in, maxLength) : null;
+    }
+
+    private static void writeNullableDouble(DataOutputStream out, Double d) throws IOException {
+        out.writeBoolean(d != null);
+        if (d != null) {
+            out.writeDouble(d);
+        }
+    }
+
+    private static Double readNullableDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        if (strings == null) {
+            strings = new String[]{};
+        }
+
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in, long maxLength) throws IOException {
+        String[] result = new String[readLength(in, maxLength)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = readString(in, maxLength);
+        }
+        return result;
+    }
+
+}
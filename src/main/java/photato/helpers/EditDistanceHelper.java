@@ -0,0 +1,79 @@
+package photato.helpers;
+
+/**
+ * Edit distance (Levenshtein, with the transposition of two adjacent
+ * characters counting as one edit) computed one row per character of the
+ * text, so that a trie walk can extend the rows along its paths and stop as
+ * soon as a row exceeds the maximum distance
+ */
+public class EditDistanceHelper {
+
+    /**
+     * @return the distances between the empty text and the prefixes of key
+     */
+    public static int[] getFirstRow(String key) {
+        int[] row = new int[key.length() + 1];
+        for (int j = 0; j <= key.length(); j++) {
+            row[j] = j;
+        }
+        return row;
+    }
+
+    /**
+     * @param previousRow the row of the text without c
+     * @param rowBeforePrevious the row of the text without its two last
+     * characters, null if the text is only c
+     * @param previousChar the character before c, ignored if
+     * rowBeforePrevious is null
+     * @param firstValue the distance between the text with c and an empty key
+     * @param row filled with the distances between the text with c and the
+     * prefixes of key
+     */
+    public static void fillNextRow(String key, int[] previousRow, int[] rowBeforePrevious, char previousChar, char c, int firstValue, int[] row) {
+        row[0] = firstValue;
+        for (int j = 1; j < row.length; j++) {
+            char k = key.charAt(j - 1);
+            row[j] = Math.min(Math.min(previousRow[j] + 1, row[j - 1] + 1), previousRow[j - 1] + (k == c ? 0 : 1));
+            if (rowBeforePrevious != null && j > 1 && k == previousChar && key.charAt(j - 2) == c) {
+                row[j] = Math.min(row[j], rowBeforePrevious[j - 2] + 1);
+            }
+        }
+    }
+
+    public static int getMin(int[] row) {
+        int min = row[0];
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * @param prefixOnlyMode if true, only the prefixes of the text are
+     * compared with the key, else all its substrings are
+     * @return true if a substring (or prefix) of the text is within
+     * maxDistance edits of the key
+     */
+    public static boolean containsApproximately(String text, String key, int maxDistance, boolean prefixOnlyMode) {
+        int[] rowBeforePrevious = null;
+        int[] previousRow = getFirstRow(key);
+        if (previousRow[key.length()] <= maxDistance) {
+            return true;
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+            // Outside of prefix mode, skipping the beginning of the text is free
+            int[] row = new int[key.length() + 1];
+            fillNextRow(key, previousRow, rowBeforePrevious, i > 0 ? text.charAt(i - 1) : 0, text.charAt(i), prefixOnlyMode ? i + 1 : 0, row);
+            if (row[key.length()] <= maxDistance) {
+                return true;
+            } else if (prefixOnlyMode && getMin(row) > maxDistance && getMin(previousRow) >= maxDistance) {
+                return false;
+            }
+            rowBeforePrevious = previousRow;
+            previousRow = row;
+        }
+        return false;
+    }
+
+}
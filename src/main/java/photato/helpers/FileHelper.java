@@ -131,7 +131,7 @@ public class FileHelper {
     public static boolean folderContainsIgnoreFile(Path folder) {
         if (Files.isReadable(folder)) {
             try {
-                return Files.list(folder).anyMatch((Path path) -> path.getFileName().toString().equalsIgnoreCase(".photatoignore"));
+                return Files.list(folder).anyMatch(FileHelper::isIgnoreFile);
             } catch (IOException ex) {
                 return false;
             }
@@ -140,4 +140,12 @@ public class FileHelper {
         }
     }
 
+    /**
+     * @return true if the file is a .photatoignore file, whose folder must not
+     * be indexed
+     */
+    public static boolean isIgnoreFile(Path file) {
+        return file.getFileName().toString().equalsIgnoreCase(".photatoignore");
+    }
+
 }
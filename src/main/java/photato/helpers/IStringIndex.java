@@ -0,0 +1,38 @@
+package photato.helpers;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Index of values by string keys, searched by substring (or by prefix only,
+ * depending on the implementation mode)
+ */
+public interface IStringIndex<T> {
+
+    void add(String indexKey, T value);
+
+    Collection<T> findContains(String key);
+
+    /**
+     * @param filter only the values matching all the keys are tested
+     */
+    default Collection<T> findContainsAll(Collection<String> keys, Predicate<T> filter) {
+        return this.findContainsAll(keys, Collections.emptyMap(), filter);
+    }
+
+    /**
+     * Same as above, but the keys with a max distance also match the keys
+     * containing a string within this number of edits of them
+     */
+    Collection<T> findContainsAll(Collection<String> keys, Map<String, Integer> maxDistances, Predicate<T> filter);
+
+    void remove(T value);
+
+    Collection<T> values();
+
+    int size();
+
+    void clear();
+}
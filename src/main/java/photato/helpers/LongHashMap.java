@@ -0,0 +1,130 @@
+package photato.helpers;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Hash map of long keys, kept in primitive arrays by open addressing instead
+ * of boxing each key in an entry. The values must not be null
+ */
+public class LongHashMap<V> {
+
+    private static final int minCapacity = 16;
+
+    private long[] keys;
+    private Object[] values; // null for the free slots
+    private int size;
+
+    public LongHashMap() {
+        this.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) this.values[this.findSlot(key)];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+
+        int slot = this.findSlot(key);
+        V previous = (V) this.values[slot];
+        if (previous == null && 2 * (this.size + 1) > this.keys.length) {
+            this.resize(2 * this.keys.length);
+            slot = this.findSlot(key);
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        if (previous == null) {
+            this.size++;
+        }
+        return previous;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = this.findSlot(key);
+        V previous = (V) this.values[slot];
+        if (previous != null) {
+            // Moves back the following keys of the cluster which would not be found anymore through the hole
+            int mask = this.keys.length - 1;
+            int hole = slot;
+            for (int next = (slot + 1) & mask; this.values[next] != null; next = (next + 1) & mask) {
+                int home = hash(this.keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    this.keys[hole] = this.keys[next];
+                    this.values[hole] = this.values[next];
+                    hole = next;
+                }
+            }
+            this.values[hole] = null;
+            this.size--;
+
+            if (this.keys.length > minCapacity && 8 * this.size < this.keys.length) {
+                this.resize(this.keys.length / 2);
+            }
+        }
+        return previous;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjLongConsumer<V> action) {
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.values[slot] != null) {
+                action.accept((V) this.values[slot], this.keys[slot]);
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        this.keys = new long[minCapacity];
+        this.values = new Object[minCapacity];
+        this.size = 0;
+    }
+
+    /**
+     * @return the bytes of the slots arrays, without the values themselves
+     * (8 per key and 4 per compressed reference)
+     */
+    public long getTableBytes() {
+        return 12L * this.keys.length;
+    }
+
+    private int findSlot(long key) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.values[slot] != null && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldValues[slot] != null) {
+                int newSlot = this.findSlot(oldKeys[slot]);
+                this.keys[newSlot] = oldKeys[slot];
+                this.values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+}
@@ -0,0 +1,590 @@
+package photato.helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Read-only index of values by string keys, stored in a file which is mapped
+ * in memory: the searches read the file directly, so opening it costs nothing
+ * and the index does not have to fit in the heap. Values are identified by a
+ * string (their id is its rank), found again on next start with getValueId.
+ *
+ * The file holds the sorted keys with the sorted ids of their values, and
+ * outside of prefix mode the sorted suffixes of the keys, so that a substring
+ * search is a binary search in the suffixes. The keys are stored as chars
+ */
+public class MappedStringIndex {
+
+    private static final int magic = 0x50485349; // "PHSI"
+    private static final int version = 1;
+    private static final int headerSize = 9 * 4;
+
+    private final ByteBuffer buffer; // Only read with absolute gets, which can run concurrently
+    private final boolean prefixOnlyMode;
+    private final int valuesCount;
+    private final int keysCount;
+    private final int suffixesCount;
+    private final int valueIdsStart; // Offsets of the value ids in the chars, sorted
+    private final int valueHashesStart; // Hash of the keys of each value
+    private final int keysStart; // Offsets of the keys in the chars, sorted
+    private final int postingsOffsetsStart; // Offsets of the postings of each key
+    private final int suffixKeysStart; // Key of each suffix, sorted by suffix
+    private final int suffixStartsStart; // Start of each suffix in its key
+    private final int postingsStart;
+    private final int charsStart;
+
+    private MappedStringIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.prefixOnlyMode = buffer.getInt(8) != 0;
+        this.valuesCount = buffer.getInt(12);
+        this.keysCount = buffer.getInt(16);
+        this.suffixesCount = buffer.getInt(20);
+        int postingsCount = buffer.getInt(24);
+
+        this.valueIdsStart = headerSize;
+        this.valueHashesStart = this.valueIdsStart + 4 * (this.valuesCount + 1);
+        this.keysStart = this.valueHashesStart + 8 * this.valuesCount;
+        this.postingsOffsetsStart = this.keysStart + 4 * (this.keysCount + 1);
+        this.suffixKeysStart = this.postingsOffsetsStart + 4 * (this.keysCount + 1);
+        this.suffixStartsStart = this.suffixKeysStart + 4 * this.suffixesCount;
+        this.postingsStart = this.suffixStartsStart + 4 * this.suffixesCount;
+        this.charsStart = this.postingsStart + 4 * postingsCount;
+    }
+
+    /**
+     * Writes to a temporary file which is then moved to a new generation of
+     * the file, so that a crash never leaves a truncated index. The file
+     * mapped by a running index is left untouched: on Windows a mapped file
+     * can be neither replaced nor deleted, the older generations are deleted
+     * once they are not mapped anymore
+     *
+     * @param valuesKeys the keys of each value, by value id
+     */
+    public static void write(Path file, boolean prefixOnlyMode, Map<String, ? extends Collection<String>> valuesKeys) throws IOException {
+        List<String> valueIds = new ArrayList<>(valuesKeys.keySet());
+        Collections.sort(valueIds);
+        Map<String, List<Integer>> keysValues = new HashMap<>();
+        for (int id = 0; id < valueIds.size(); id++) {
+            for (String key : new HashSet<>(valuesKeys.get(valueIds.get(id)))) {
+                keysValues.computeIfAbsent(key, (String k) -> new ArrayList<>()).add(id); // Ids are added in increasing order
+            }
+        }
+        List<String> keys = new ArrayList<>(keysValues.keySet());
+        Collections.sort(keys);
+
+        // Each suffix is its key index and its start, in a long
+        char[][] keysChars = keys.stream().map(String::toCharArray).toArray(char[][]::new);
+        long[] suffixes = new long[prefixOnlyMode ? 0 : Math.toIntExact(Arrays.stream(keysChars).mapToLong((char[] key) -> key.length).sum())];
+        if (!prefixOnlyMode) {
+            int s = 0;
+            for (int k = 0; k < keysChars.length; k++) {
+                for (int start = 0; start < keysChars[k].length; start++) {
+                    suffixes[s++] = ((long) k << 32) | start;
+                }
+            }
+            sortSuffixes(keysChars, suffixes, 0, suffixes.length, 0);
+        }
+
+        long postingsCount = keysValues.values().stream().mapToLong(List::size).sum();
+        long charsCount = valueIds.stream().mapToLong(String::length).sum() + keys.stream().mapToLong(String::length).sum();
+        long size = headerSize + 4L * (valueIds.size() + 1) + 8L * valueIds.size() + 8L * (keys.size() + 1) + 8L * suffixes.length + 4 * postingsCount + 2 * charsCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Index too large to be mapped: " + size + " bytes");
+        }
+
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(prefixOnlyMode ? 1 : 0);
+            out.writeInt(valueIds.size());
+            out.writeInt(keys.size());
+            out.writeInt(suffixes.length);
+            out.writeInt((int) postingsCount);
+            out.writeInt((int) charsCount);
+            out.writeInt(0); // Reserved
+
+            int charsOffset = 0;
+            for (String valueId : valueIds) {
+                out.writeInt(charsOffset);
+                charsOffset += valueId.length();
+            }
+            out.writeInt(charsOffset);
+            for (String valueId : valueIds) {
+                out.writeLong(getKeysHash(valuesKeys.get(valueId)));
+            }
+
+            for (String key : keys) {
+                out.writeInt(charsOffset);
+                charsOffset += key.length();
+            }
+            out.writeInt(charsOffset);
+            int postingsOffset = 0;
+            for (String key : keys) {
+                out.writeInt(postingsOffset);
+                postingsOffset += keysValues.get(key).size();
+            }
+            out.writeInt(postingsOffset);
+
+            for (long suffix : suffixes) {
+                out.writeInt((int) (suffix >>> 32));
+            }
+            for (long suffix : suffixes) {
+                out.writeInt((int) suffix);
+            }
+
+            for (String key : keys) {
+                for (int id : keysValues.get(key)) {
+                    out.writeInt(id);
+                }
+            }
+
+            for (String valueId : valueIds) {
+                out.writeChars(valueId);
+            }
+            for (String key : keys) {
+                out.writeChars(key);
+            }
+        }
+
+        List<Long> generations = getGenerations(file);
+        long generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+        Files.move(tmpFile, getGenerationFile(file, generation), StandardCopyOption.ATOMIC_MOVE);
+
+        for (long olderGeneration : generations) {
+            try {
+                Files.deleteIfExists(getGenerationFile(file, olderGeneration));
+            } catch (IOException ex) {
+                // Still mapped, deleted by a later write
+            }
+        }
+    }
+
+    /**
+     * @return null if there is no usable index in the last generation of
+     * this file
+     */
+    public static MappedStringIndex open(Path file, boolean prefixOnlyMode) {
+        List<Long> generations;
+        try {
+            generations = getGenerations(file);
+        } catch (IOException ex) {
+            System.err.println("Cannot list search index " + file + ": " + ex);
+            return null;
+        }
+        if (generations.isEmpty()) {
+            return null;
+        }
+        file = getGenerationFile(file, generations.get(generations.size() - 1));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (UnsupportedOperationException ex) {
+                // Only the default filesystem can be mapped
+                buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+            }
+
+            if (buffer.limit() < headerSize || buffer.getInt(0) != magic || buffer.getInt(4) != version || (buffer.getInt(8) != 0) != prefixOnlyMode) {
+                System.err.println("Ignoring incompatible search index " + file);
+                return null;
+            }
+
+            MappedStringIndex index = new MappedStringIndex(buffer);
+            if (index.charsStart + 2L * buffer.getInt(28) != buffer.limit()) {
+                System.err.println("Ignoring truncated search index " + file);
+                return null;
+            }
+            return index;
+        } catch (IOException ex) {
+            System.err.println("Cannot read search index " + file + ": " + ex);
+            return null;
+        }
+    }
+
+    private static Path getGenerationFile(Path file, long generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+
+    /**
+     * @return the generations of the file found next to it, sorted
+     */
+    private static List<Long> getGenerations(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+
+        String prefix = file.getFileName() + ".";
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map((Path f) -> f.getFileName().toString())
+                    .filter((String name) -> name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]{1,18}"))
+                    .map((String name) -> Long.valueOf(name.substring(prefix.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return the id of the value, -1 if it is not in the index
+     */
+    public int getValueId(String valueId) {
+        int low = 0;
+        int high = this.valuesCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = this.compare(this.valueIdsStart, middle, 0, valueId, false);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares hashes, so that the keys do not have to be stored by value
+     *
+     * @return true if the value was indexed with exactly these keys
+     */
+    public boolean hasKeys(int id, Collection<String> keys) {
+        return this.buffer.getLong(this.valueHashesStart + 8 * id) == getKeysHash(keys);
+    }
+
+    public int getValuesCount() {
+        return this.valuesCount;
+    }
+
+    /**
+     * @return the sorted ids of the values matching all the keys, the keys
+     * with a max distance also matching the keys containing a string within
+     * this number of edits of them
+     */
+    public int[] findContainsAll(Collection<String> keys, Map<String, Integer> maxDistances) {
+        List<int[]> keysIds = new ArrayList<>();
+        for (String key : keys) {
+            int maxDistance = Math.min(maxDistances.getOrDefault(key, 0), key.length() - 1);
+            int[] ids = maxDistance > 0 ? this.findSimilar(key, maxDistance) : this.findContains(key);
+            if (ids.length == 0) {
+                return ids;
+            }
+            keysIds.add(ids);
+        }
+
+        keysIds.sort(Comparator.comparingInt((int[] ids) -> ids.length));
+        int[] result = keysIds.get(0);
+        for (int i = 1; i < keysIds.size() && result.length > 0; i++) {
+            result = PostingsHelper.intersect(result, keysIds.get(i));
+        }
+        return result;
+    }
+
+    private int[] findContains(String key) {
+        BitSet ids = new BitSet(this.valuesCount);
+        if (this.prefixOnlyMode) {
+            for (int k = this.lowerBoundKey(key); k < this.keysCount && this.compare(this.keysStart, k, 0, key, true) == 0; k++) {
+                this.addPostings(k, ids);
+            }
+        } else {
+            BitSet foundKeys = new BitSet(this.keysCount);
+            for (int s = this.lowerBoundSuffix(key); s < this.suffixesCount && this.compareSuffix(s, key, true) == 0; s++) {
+                foundKeys.set(this.buffer.getInt(this.suffixKeysStart + 4 * s));
+            }
+            for (int k = foundKeys.nextSetBit(0); k >= 0; k = foundKeys.nextSetBit(k + 1)) {
+                this.addPostings(k, ids);
+            }
+        }
+        return ids.stream().toArray();
+    }
+
+    /**
+     * Walks the sorted keys (the sorted suffixes outside of prefix mode) as
+     * the paths of a trie, like PartialStringIndex: the edit distance rows of
+     * the prefix shared with the previous string are kept, and once a prefix
+     * is too far from the key, or within maxDistance of it, all the following
+     * strings starting with it are skipped, or taken, at once
+     */
+    private int[] findSimilar(String key, int maxDistance) {
+        BitSet foundKeys = new BitSet(this.keysCount);
+        int count = this.prefixOnlyMode ? this.keysCount : this.suffixesCount;
+
+        // One row per depth, a path deeper than the key plus maxDistance is always too far
+        int[][] rows = new int[key.length() + maxDistance + 2][key.length() + 1];
+        rows[0] = EditDistanceHelper.getFirstRow(key);
+        char[] path = new char[rows.length];
+        int pathLength = 0;
+        String firstChars = key.substring(0, maxDistance + 1);
+
+        int s = 0;
+        while (s < count) {
+            int from = this.getStringFrom(s);
+            int length = Math.min(this.getStringEnd(s) - from, rows.length - 1);
+            int depth = 0;
+            while (depth < pathLength && depth < length && path[depth] == this.getChar(from + depth)) {
+                depth++;
+            }
+
+            int decidedLength = 0; // Length of the prefix deciding all the strings starting with it
+            boolean matched = false;
+            if (depth == 0 && !this.prefixOnlyMode && firstChars.indexOf(this.getChar(from)) < 0) {
+                // A match starting with an edit is never needed: the substring starting one character later is as close
+                path[0] = this.getChar(from);
+                decidedLength = 1;
+            }
+            while (decidedLength == 0 && depth < length) {
+                char c = this.getChar(from + depth);
+                path[depth++] = c;
+                EditDistanceHelper.fillNextRow(key, rows[depth - 1], depth >= 2 ? rows[depth - 2] : null, depth >= 2 ? path[depth - 2] : 0, c, depth, rows[depth]);
+                if (rows[depth][key.length()] <= maxDistance) {
+                    decidedLength = depth;
+                    matched = true;
+                } else if (EditDistanceHelper.getMin(rows[depth]) > maxDistance && EditDistanceHelper.getMin(rows[depth - 1]) >= maxDistance) {
+                    decidedLength = depth; // Even a transposition with the previous character would be too far
+                }
+            }
+            pathLength = depth;
+
+            int end = decidedLength == 0 ? s + 1 : this.skipPrefix(s, count, path, decidedLength);
+            for (; matched && s < end; s++) {
+                foundKeys.set(this.getStringKey(s));
+            }
+            s = end;
+        }
+
+        BitSet ids = new BitSet(this.valuesCount);
+        for (int k = foundKeys.nextSetBit(0); k >= 0; k = foundKeys.nextSetBit(k + 1)) {
+            this.addPostings(k, ids);
+        }
+        return ids.stream().toArray();
+    }
+
+    /**
+     * @return the first string after s not starting with the prefixLength
+     * first characters of prefix, which s starts with
+     */
+    private int skipPrefix(int s, int count, char[] prefix, int prefixLength) {
+        int low = s + 1;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.startsWith(middle, prefix, prefixLength)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean startsWith(int s, char[] prefix, int prefixLength) {
+        int from = this.getStringFrom(s);
+        if (this.getStringEnd(s) - from < prefixLength) {
+            return false;
+        }
+        for (int i = 0; i < prefixLength; i++) {
+            if (this.getChar(from + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The strings walked by findSimilar: the keys in prefix mode, else the suffixes
+    private int getStringKey(int s) {
+        return this.prefixOnlyMode ? s : this.buffer.getInt(this.suffixKeysStart + 4 * s);
+    }
+
+    private int getStringFrom(int s) {
+        int from = this.buffer.getInt(this.keysStart + 4 * this.getStringKey(s));
+        return this.prefixOnlyMode ? from : from + this.buffer.getInt(this.suffixStartsStart + 4 * s);
+    }
+
+    private int getStringEnd(int s) {
+        return this.buffer.getInt(this.keysStart + 4 * (this.getStringKey(s) + 1));
+    }
+
+    private char getChar(int offset) {
+        return this.buffer.getChar(this.charsStart + 2 * offset);
+    }
+
+    private void addPostings(int k, BitSet ids) {
+        int end = this.buffer.getInt(this.postingsOffsetsStart + 4 * (k + 1));
+        for (int p = this.buffer.getInt(this.postingsOffsetsStart + 4 * k); p < end; p++) {
+            ids.set(this.buffer.getInt(this.postingsStart + 4 * p));
+        }
+    }
+
+    /**
+     * @return the first key not lower than key
+     */
+    private int lowerBoundKey(String key) {
+        int low = 0;
+        int high = this.keysCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.compare(this.keysStart, middle, 0, key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first suffix not lower than key
+     */
+    private int lowerBoundSuffix(String key) {
+        int low = 0;
+        int high = this.suffixesCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.compareSuffix(middle, key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compareSuffix(int s, String key, boolean prefixOnly) {
+        return this.compare(this.keysStart, this.buffer.getInt(this.suffixKeysStart + 4 * s), this.buffer.getInt(this.suffixStartsStart + 4 * s), key, prefixOnly);
+    }
+
+    /**
+     * @param prefixOnly if true, a string starting with key is equal to it
+     */
+    private int compare(int offsetsStart, int index, int start, String key, boolean prefixOnly) {
+        int from = this.buffer.getInt(offsetsStart + 4 * index) + start;
+        int length = this.buffer.getInt(offsetsStart + 4 * (index + 1)) - from;
+        for (int i = 0; i < length && i < key.length(); i++) {
+            int c = Character.compare(this.buffer.getChar(this.charsStart + 2 * (from + i)), key.charAt(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return prefixOnly && length >= key.length() ? 0 : Integer.compare(length, key.length());
+    }
+
+    /**
+     * Multikey quicksort: partitions the suffixes in lower, equal and greater
+     * than the pivot character at depth, then only the equal ones are
+     * compared on the next character. Much faster than comparing whole
+     * suffixes, which share long prefixes
+     */
+    private static void sortSuffixes(char[][] keys, long[] suffixes, int from, int to, int depth) {
+        while (to - from > 1) {
+            if (to - from < 16) {
+                insertionSortSuffixes(keys, suffixes, from, to, depth);
+                return;
+            }
+
+            int pivot = charAt(keys, suffixes[(from + to) >>> 1], depth);
+            int lower = from;
+            int greater = to;
+            int i = from;
+            while (i < greater) {
+                int c = charAt(keys, suffixes[i], depth);
+                if (c < pivot) {
+                    swap(suffixes, lower++, i++);
+                } else if (c > pivot) {
+                    swap(suffixes, i, --greater);
+                } else {
+                    i++;
+                }
+            }
+
+            sortSuffixes(keys, suffixes, from, lower, depth);
+            sortSuffixes(keys, suffixes, greater, to, depth);
+            if (pivot < 0) {
+                return; // The equal suffixes all end here
+            }
+            from = lower;
+            to = greater;
+            depth++;
+        }
+    }
+
+    private static void insertionSortSuffixes(char[][] keys, long[] suffixes, int from, int to, int depth) {
+        for (int i = from + 1; i < to; i++) {
+            long suffix = suffixes[i];
+            int j = i;
+            while (j > from && compareSuffixes(keys, suffixes[j - 1], suffix, depth) > 0) {
+                suffixes[j] = suffixes[j - 1];
+                j--;
+            }
+            suffixes[j] = suffix;
+        }
+    }
+
+    private static int compareSuffixes(char[][] keys, long suffix1, long suffix2, int depth) {
+        for (int d = depth;; d++) {
+            int c1 = charAt(keys, suffix1, d);
+            int c2 = charAt(keys, suffix2, d);
+            if (c1 != c2 || c1 < 0) {
+                return c1 - c2;
+            }
+        }
+    }
+
+    /**
+     * @return -1 after the end of the suffix, so that it sorts first
+     */
+    private static int charAt(char[][] keys, long suffix, int depth) {
+        char[] key = keys[(int) (suffix >>> 32)];
+        int index = (int) suffix + depth;
+        return index < key.length ? key[index] : -1;
+    }
+
+    private static void swap(long[] values, int i, int j) {
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * @return a 64 bits FNV-1a hash of the sorted distinct keys
+     */
+    private static long getKeysHash(Collection<String> keys) {
+        long hash = 0xcbf29ce484222325L;
+        for (String key : new TreeSet<>(keys)) {
+            for (int i = 0; i < key.length(); i++) {
+                hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0xffff) * 0x100000001b3L; // Separator, not a char of the keys
+        }
+        return hash;
+    }
+
+}
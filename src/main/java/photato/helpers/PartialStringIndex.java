@@ -1,96 +1,171 @@
 package photato.helpers;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-public class PartialStringIndex<T> {
-
-    private static class Node<T> {
-
-        public final char c;
-        public final Set<T> values;
-        public int weight;
-        public Node<T> firstChild;
-        public Node<T> neighbor;
+import java.util.function.Predicate;
+
+/**
+ * Radix trie of the keys (or of all their suffixes when not in prefix only
+ * mode): chains of single child nodes are compressed into one node labelled
+ * with the whole chain, and the children of a node are found by binary search.
+ *
+ * Values are identified by dense int ids, the nodes only hold sorted arrays
+ * of these ids: a reference set per node would take an order of magnitude
+ * more memory, since in non prefix mode every suffix of every key has nodes
+ */
+public class PartialStringIndex<T> implements IStringIndex<T> {
+
+    private static final int defaultCachedDepth = 4;
+    private static final int[] noPostings = new int[0];
+    private static final char[] noChildrenChars = new char[0];
+    private static final Node[] noChildren = new Node[0];
+    private static final int verificationCost = 16; // Rough cost of checking the keys of a value, relatively to collecting one posting
+
+    private static class Node {
+
+        public String label; // Characters of the edge leading to this node
+        public char[] childrenChars; // Sorted first characters of the children labels
+        public Node[] children;
+        public int[] postings; // Sorted ids of the values whose key ends here, with spare room at the end
+        public int postingsCount;
+        public volatile int[] subtreePostings; // Sorted ids of the whole subtree, computed by the first search landing here. Null when unknown
+        public int subtreeCount; // Postings in the whole subtree, an upper bound of the number of values found by a search landing here
 
         public Node() {
-            this('*');
+            this("");
         }
 
-        public Node(char c) {
-            this.c = c;
-            this.values = new HashSet<>();
-            this.weight = 1;
+        public Node(String label) {
+            this.label = label;
+            this.childrenChars = noChildrenChars;
+            this.children = noChildren;
+            this.postings = noPostings;
         }
 
-        public Node<T> findChild(char c) {
-            if (this.firstChild == null) {
-                return null;
-            } else {
-                Node<T> n = this.firstChild;
-                while (n != null && n.c != c) {
-                    n = n.neighbor;
+        public boolean addPosting(int id) {
+            int index = Arrays.binarySearch(this.postings, 0, this.postingsCount, id);
+            if (index < 0) {
+                index = -index - 1;
+                if (this.postingsCount == this.postings.length) {
+                    this.postings = Arrays.copyOf(this.postings, Math.max(2, this.postingsCount + (this.postingsCount >> 1)));
                 }
-
-                return n;
+                System.arraycopy(this.postings, index, this.postings, index + 1, this.postingsCount - index);
+                this.postings[index] = id;
+                this.postingsCount++;
+                return true;
             }
+            return false;
         }
 
-        public void addChild(char c, Node<T> newChild) {
-            if (this.firstChild == null) {
-                this.firstChild = newChild;
-            } else {
-                Node<T> lastChild = this.firstChild;
-                while (lastChild.neighbor != null) {
-                    lastChild = lastChild.neighbor;
+        public boolean removePosting(int id) {
+            int index = Arrays.binarySearch(this.postings, 0, this.postingsCount, id);
+            if (index >= 0) {
+                System.arraycopy(this.postings, index + 1, this.postings, index, this.postingsCount - index - 1);
+                this.postingsCount--;
+                if (this.postingsCount == 0) {
+                    this.postings = noPostings;
+                } else if (this.postingsCount < this.postings.length / 4) {
+                    this.postings = Arrays.copyOf(this.postings, this.postingsCount * 2);
                 }
-
-                lastChild.neighbor = newChild;
+                return true;
             }
+            return false;
         }
 
-        public void removeChild(char c) {
-            Node<T> previous = null;
-            Node<T> current = this.firstChild;
-            while (current != null) {
-                if (current.c == c) {
-                    if (current == this.firstChild) {
-                        this.firstChild = current.neighbor;
-                    } else {
-                        previous.neighbor = current.neighbor;
-                    }
-                    break;
-                } else {
-                    previous = current;
-                    current = current.neighbor;
-                }
-            }
+        /**
+         * @return the index of the child whose label starts with c, or
+         * (-(insertion point) - 1) if there is none
+         */
+        public int findChild(char c) {
+            return Arrays.binarySearch(this.childrenChars, c);
+        }
+
+        public void insertChild(int index, Node child) {
+            char[] newChildrenChars = new char[this.children.length + 1];
+            Node[] newChildren = new Node[this.children.length + 1];
+            System.arraycopy(this.childrenChars, 0, newChildrenChars, 0, index);
+            System.arraycopy(this.children, 0, newChildren, 0, index);
+            newChildrenChars[index] = child.label.charAt(0);
+            newChildren[index] = child;
+            System.arraycopy(this.childrenChars, index, newChildrenChars, index + 1, this.children.length - index);
+            System.arraycopy(this.children, index, newChildren, index + 1, this.children.length - index);
+            this.childrenChars = newChildrenChars;
+            this.children = newChildren;
+        }
+
+        public void removeChild(int index) {
+            char[] newChildrenChars = new char[this.children.length - 1];
+            Node[] newChildren = new Node[this.children.length - 1];
+            System.arraycopy(this.childrenChars, 0, newChildrenChars, 0, index);
+            System.arraycopy(this.children, 0, newChildren, 0, index);
+            System.arraycopy(this.childrenChars, index + 1, newChildrenChars, index, this.children.length - index - 1);
+            System.arraycopy(this.children, index + 1, newChildren, index, this.children.length - index - 1);
+            this.childrenChars = newChildrenChars;
+            this.children = newChildren;
+        }
+
+    }
+
+    private static class SearchedNode {
+
+        public final String key;
+        public final Node node;
+        public final int labelStart; // Position in the searched key of the first character of the node label
+
+        public SearchedNode(String key, Node node, int labelStart) {
+            this.key = key;
+            this.node = node;
+            this.labelStart = labelStart;
         }
 
     }
 
     private final ReentrantReadWriteLock lock;
     private final Map<T, Set<String>> valuesMap;
+    private final Map<T, Integer> ids;
+    private final List<T> valuesById; // null for the ids which are free
+    private final List<Integer> freeIds;
     private final boolean prefixOnlyMode;
-    private Node<T> rootNode;
+    private final int cachedDepth;
+    private Node rootNode;
 
     public PartialStringIndex() {
         this(false);
     }
 
     public PartialStringIndex(boolean prefixOnlyMode) {
-        this.rootNode = new Node<>();
+        this(prefixOnlyMode, defaultCachedDepth);
+    }
+
+    /**
+     * @param cachedDepth the results of the searches up to this length are
+     * kept in the trie until a value is added or removed below them. Short
+     * searches are the most frequent ones and the most expensive ones, since
+     * their node has the largest subtree
+     */
+    public PartialStringIndex(boolean prefixOnlyMode, int cachedDepth) {
+        this.rootNode = new Node();
         this.valuesMap = new HashMap<>();
+        this.ids = new HashMap<>();
+        this.valuesById = new ArrayList<>();
+        this.freeIds = new ArrayList<>();
         this.lock = new ReentrantReadWriteLock();
         this.prefixOnlyMode = prefixOnlyMode;
+        this.cachedDepth = cachedDepth;
     }
 
+    @Override
     public void add(String indexKey, T value) {
         if (indexKey == null || indexKey.isEmpty()) {
             throw new IllegalArgumentException("Key must not be empty");
@@ -102,37 +177,33 @@ public class PartialStringIndex<T> {
 
         this.lock.writeLock().lock();
         try {
-            this.rootNode.values.add(value);
-
-            if (!this.valuesMap.containsKey(value)) {
+            Integer id = this.ids.get(value);
+            if (id == null) {
+                // Reusing the ids of the removed values keeps them dense
+                if (this.freeIds.isEmpty()) {
+                    id = this.valuesById.size();
+                    this.valuesById.add(value);
+                } else {
+                    id = this.freeIds.remove(this.freeIds.size() - 1);
+                    this.valuesById.set(id, value);
+                }
+                this.ids.put(value, id);
                 this.valuesMap.put(value, new HashSet<String>());
             }
-            this.valuesMap.get(value).add(indexKey);
 
-            for (int i = 0; i < (this.prefixOnlyMode ? 1 : indexKey.length()); i++) {
-                Node<T> currentNode = this.rootNode;
-
-                for (int j = i; j < indexKey.length(); j++) {
-                    char c = indexKey.charAt(j);
-
-                    Node<T> child = currentNode.findChild(c);
-                    if (child == null) {
-                        Node<T> newNode = new Node<>(c);
-                        currentNode.addChild(c, newNode);
-                        currentNode = newNode;
-                    } else {
-                        child.weight++;
-                        currentNode = child;
-                    }
-                }
+            if (!this.valuesMap.get(value).add(indexKey)) {
+                return; // Already indexed with this key
+            }
 
-                currentNode.values.add(value);
+            for (int i = 0; i < (this.prefixOnlyMode ? 1 : indexKey.length()); i++) {
+                this.insert(indexKey, i, id);
             }
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
+    @Override
     public Collection<T> findContains(String key) {
         if (key == null || key.isEmpty()) {
             throw new IllegalArgumentException("Key must not be empty");
@@ -140,42 +211,189 @@ public class PartialStringIndex<T> {
 
         this.lock.readLock().lock();
         try {
-            Node<T> currentNode = this.rootNode;
+            SearchedNode searchedNode = this.findNode(key);
+            return searchedNode == null ? new ArrayList<>() : this.getValues(this.getPostings(searchedNode), (T value) -> true);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
 
-            for (int i = 0; i < key.length(); i++) {
-                char c = key.charAt(i);
-                Node node = currentNode.findChild(c);
+    /**
+     * Finds the values matching all the keys. The keys are intersected from
+     * the one with the fewest postings, so that the work is bounded by the
+     * rarest key rather than by the most frequent one. The fuzzy keys come
+     * last, their walk of the trie is the most expensive
+     *
+     * @param filter only the values of the final intersection are tested
+     */
+    @Override
+    public Collection<T> findContainsAll(Collection<String> keys, Map<String, Integer> maxDistances, Predicate<T> filter) {
+        if (keys.isEmpty() || keys.stream().anyMatch((String key) -> key == null || key.isEmpty())) {
+            throw new IllegalArgumentException("Keys must not be empty");
+        }
 
-                if (node == null) {
-                    return new HashSet<>();
+        this.lock.readLock().lock();
+        try {
+            List<SearchedNode> searchedNodes = new ArrayList<>();
+            List<String> fuzzyKeys = new ArrayList<>();
+            for (String key : keys) {
+                if (maxDistances.getOrDefault(key, 0) > 0) {
+                    fuzzyKeys.add(key);
                 } else {
-                    currentNode = node;
+                    SearchedNode searchedNode = this.findNode(key);
+                    if (searchedNode == null) {
+                        return new ArrayList<>();
+                    }
+                    searchedNodes.add(searchedNode);
                 }
             }
+            searchedNodes.sort(Comparator.comparingInt((SearchedNode searchedNode) -> searchedNode.node.subtreeCount));
+
+            int[] resultIds = null; // Null while every value matches
+            for (SearchedNode searchedNode : searchedNodes) {
+                if (resultIds == null) {
+                    resultIds = this.getPostings(searchedNode);
+                } else if (searchedNode.node.subtreePostings == null && (long) resultIds.length * verificationCost < searchedNode.node.subtreeCount) {
+                    // Cheaper to check the keys of the few remaining values than to collect the postings of a large subtree
+                    resultIds = this.filterByKey(resultIds, searchedNode.key, 0);
+                } else {
+                    resultIds = PostingsHelper.intersect(resultIds, this.getPostings(searchedNode));
+                }
 
-            // From now on, exploration of all nodes to add them to the result
-            Set<T> result = new HashSet<>();
-
-            Queue<Node<T>> toExplore = new LinkedList<>();
-            toExplore.add(currentNode);
+                if (resultIds.length == 0) {
+                    return new ArrayList<>();
+                }
+            }
 
-            while (!toExplore.isEmpty()) {
-                Node<T> n = toExplore.remove();
-                result.addAll(n.values);
+            for (String key : fuzzyKeys) {
+                int maxDistance = Math.min(maxDistances.get(key), key.length() - 1); // Else everything matches
+                if (resultIds != null && (long) resultIds.length * verificationCost < this.ids.size()) {
+                    resultIds = this.filterByKey(resultIds, key, maxDistance);
+                } else {
+                    int[] similarIds = this.findSimilar(key, maxDistance);
+                    resultIds = resultIds == null ? similarIds : PostingsHelper.intersect(resultIds, similarIds);
+                }
 
-                Node child = n.firstChild;
-                while (child != null) {
-                    toExplore.add(child);
-                    child = child.neighbor;
+                if (resultIds.length == 0) {
+                    return new ArrayList<>();
                 }
             }
 
-            return result;
+            return this.getValues(resultIds, filter);
         } finally {
             this.lock.readLock().unlock();
         }
     }
 
+    /**
+     * Walks the trie while extending the edit distance rows of the key along
+     * the paths. A path is left as soon as no continuation can get within
+     * maxDistance, and is taken whole as soon as it is within maxDistance
+     *
+     * @return the sorted ids of the values with a key containing a string
+     * within maxDistance edits of the key
+     */
+    private int[] findSimilar(String key, int maxDistance) {
+        BitSet resultIds = new BitSet();
+
+        // One row per depth, a path deeper than the key plus maxDistance is always too far
+        int[][] rows = new int[key.length() + maxDistance + 2][key.length() + 1];
+        rows[0] = EditDistanceHelper.getFirstRow(key);
+        for (Node child : this.rootNode.children) {
+            // Outside of prefix mode, a match starting with an edit is never needed: the substring starting one character later is as close.
+            // The match can thus start with one of the first maxDistance + 1 characters of the key, the previous ones being skipped
+            if (this.prefixOnlyMode || key.substring(0, maxDistance + 1).indexOf(child.label.charAt(0)) >= 0) {
+                this.findSimilar(child, key, maxDistance, rows, (char) 0, 0, resultIds);
+            }
+        }
+        return resultIds.stream().toArray();
+    }
+
+    private void findSimilar(Node node, String key, int maxDistance, int[][] rows, char previousChar, int depth, BitSet resultIds) {
+        for (int i = 0; i < node.label.length(); i++) {
+            char c = node.label.charAt(i);
+            depth++;
+            int[] previousRow = rows[depth - 1];
+            int[] row = rows[depth];
+            EditDistanceHelper.fillNextRow(key, previousRow, depth >= 2 ? rows[depth - 2] : null, previousChar, c, depth, row);
+            if (row[key.length()] <= maxDistance) {
+                collectSubtreePostings(node, resultIds);
+                return;
+            } else if (EditDistanceHelper.getMin(row) > maxDistance && EditDistanceHelper.getMin(previousRow) >= maxDistance) {
+                return; // Even a transposition with the previous character would be too far
+            }
+            previousChar = c;
+        }
+
+        for (Node child : node.children) {
+            this.findSimilar(child, key, maxDistance, rows, previousChar, depth, resultIds);
+        }
+    }
+
+    /**
+     * @return null if no key contains the searched one
+     */
+    private SearchedNode findNode(String key) {
+        Node currentNode = this.rootNode;
+
+        int i = 0;
+        int labelStart = 0;
+        while (i < key.length()) {
+            int childIndex = currentNode.findChild(key.charAt(i));
+            if (childIndex < 0) {
+                return null;
+            }
+
+            // The key may end in the middle of the label, all the keys below still contain it
+            currentNode = currentNode.children[childIndex];
+            int common = commonPrefixLength(currentNode.label, key, i);
+            if (common < currentNode.label.length() && i + common < key.length()) {
+                return null;
+            }
+            labelStart = i;
+            i += common;
+        }
+
+        return new SearchedNode(key, currentNode, labelStart);
+    }
+
+    private int[] getPostings(SearchedNode searchedNode) {
+        int[] resultIds = searchedNode.node.subtreePostings;
+        if (resultIds == null) {
+            resultIds = getSubtreePostings(searchedNode.node);
+            if (searchedNode.labelStart < this.cachedDepth) {
+                searchedNode.node.subtreePostings = resultIds;
+            }
+        }
+        return resultIds;
+    }
+
+    private int[] filterByKey(int[] ids, String key, int maxDistance) {
+        int[] result = new int[ids.length];
+        int count = 0;
+        for (int id : ids) {
+            for (String indexKey : this.valuesMap.get(this.valuesById.get(id))) {
+                if (maxDistance > 0 ? EditDistanceHelper.containsApproximately(indexKey, key, maxDistance, this.prefixOnlyMode) : this.prefixOnlyMode ? indexKey.startsWith(key) : indexKey.contains(key)) {
+                    result[count++] = id;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private Collection<T> getValues(int[] ids, Predicate<T> filter) {
+        List<T> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            T value = this.valuesById.get(id);
+            if (filter.test(value)) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    @Override
     public void remove(T value) {
         if (value == null) {
             throw new IllegalArgumentException("Value must not be null");
@@ -183,65 +401,177 @@ public class PartialStringIndex<T> {
 
         this.lock.writeLock().lock();
         try {
-            if (this.valuesMap.containsKey(value)) {
+            Integer id = this.ids.remove(value);
+            if (id != null) {
                 for (String key : this.valuesMap.get(value)) {
-                    this.rootNode.values.remove(value);
-
                     for (int i = 0; i < (this.prefixOnlyMode ? 1 : key.length()); i++) {
-                        Node<T> currentNode = this.rootNode;
-
-                        for (int j = i; j < key.length(); j++) {
-                            char c = key.charAt(j);
-
-                            Node<T> n = currentNode.findChild(c);
-                            if (n != null) {
-                                n.weight--;
-
-                                if (n.weight == 0) {
-                                    currentNode.removeChild(c);
-                                    break;
-                                } else {
-                                    currentNode = n;
-                                }
-                            } else {
-                                break;
-                            }
-                        }
-
-                        currentNode.values.remove(value);
+                        this.delete(key, i, id);
                     }
                 }
 
                 this.valuesMap.remove(value);
+                this.valuesById.set(id, null);
+                this.freeIds.add(id);
             }
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
+    private void insert(String key, int start, int id) {
+        List<Node> path = new ArrayList<>();
+        Node currentNode = this.rootNode;
+
+        int i = start;
+        while (i < key.length()) {
+            int childIndex = currentNode.findChild(key.charAt(i));
+            if (childIndex < 0) {
+                Node leaf = new Node(key.substring(i));
+                currentNode.insertChild(-childIndex - 1, leaf);
+                path.add(leaf);
+                currentNode = leaf;
+                break;
+            }
+
+            Node child = currentNode.children[childIndex];
+            child.subtreePostings = null;
+            int common = commonPrefixLength(child.label, key, i);
+            if (common < child.label.length()) {
+                // The key leaves the label in its middle, the label is split there
+                Node middle = new Node(child.label.substring(0, common));
+                middle.subtreeCount = child.subtreeCount;
+                child.label = child.label.substring(common);
+                middle.childrenChars = new char[]{child.label.charAt(0)};
+                middle.children = new Node[]{child};
+                currentNode.children[childIndex] = middle;
+                child = middle;
+            }
+
+            path.add(child);
+            currentNode = child;
+            i += common;
+        }
+
+        if (currentNode.addPosting(id)) {
+            for (Node node : path) {
+                node.subtreeCount++;
+            }
+        }
+    }
+
+    private void delete(String key, int start, int id) {
+        List<Node> path = new ArrayList<>();
+        List<Integer> childIndexes = new ArrayList<>();
+        path.add(this.rootNode);
+
+        int i = start;
+        while (i < key.length()) {
+            Node currentNode = path.get(path.size() - 1);
+            int childIndex = currentNode.findChild(key.charAt(i));
+            if (childIndex < 0) {
+                return;
+            }
+
+            Node child = currentNode.children[childIndex];
+            if (!key.startsWith(child.label, i)) {
+                return;
+            }
+
+            path.add(child);
+            childIndexes.add(childIndex);
+            i += child.label.length();
+        }
+
+        boolean removed = path.get(path.size() - 1).removePosting(id);
+        for (int k = 0; k < path.size(); k++) {
+            path.get(k).subtreePostings = null;
+            if (removed && k > 0) {
+                path.get(k).subtreeCount--;
+            }
+        }
+
+        // Pruning the nodes which became useless, and merging the chains of single child nodes again
+        for (int k = path.size() - 1; k >= 1; k--) {
+            Node node = path.get(k);
+            Node parent = path.get(k - 1);
+            if (node.postingsCount > 0) {
+                break;
+            } else if (node.children.length == 0) {
+                parent.removeChild(childIndexes.get(k - 1));
+            } else {
+                if (node.children.length == 1) {
+                    Node child = node.children[0];
+                    child.label = node.label + child.label;
+                    parent.children[childIndexes.get(k - 1)] = child;
+                }
+                break;
+            }
+        }
+    }
+
+    private static int[] getSubtreePostings(Node node) {
+        BitSet ids = new BitSet();
+        collectSubtreePostings(node, ids);
+        return ids.stream().toArray();
+    }
+
+    private static void collectSubtreePostings(Node node, BitSet ids) {
+        Queue<Node> toExplore = new LinkedList<>();
+        toExplore.add(node);
+        while (!toExplore.isEmpty()) {
+            Node n = toExplore.remove();
+            int[] cachedIds = n.subtreePostings;
+            if (cachedIds != null) {
+                for (int id : cachedIds) {
+                    ids.set(id);
+                }
+            } else {
+                for (int j = 0; j < n.postingsCount; j++) {
+                    ids.set(n.postings[j]);
+                }
+                toExplore.addAll(Arrays.asList(n.children));
+            }
+        }
+    }
+
+    private static int commonPrefixLength(String label, String key, int start) {
+        int maxLength = Math.min(label.length(), key.length() - start);
+        int length = 0;
+        while (length < maxLength && label.charAt(length) == key.charAt(start + length)) {
+            length++;
+        }
+        return length;
+    }
+
+    @Override
     public Collection<T> values() {
         this.lock.readLock().lock();
         try {
-            return this.rootNode.values;
+            return new ArrayList<>(this.ids.keySet());
         } finally {
             this.lock.readLock().unlock();
         }
     }
 
+    @Override
     public int size() {
         this.lock.readLock().lock();
         try {
-            return this.rootNode.values.size();
+            return this.ids.size();
         } finally {
             this.lock.readLock().unlock();
         }
     }
 
+    @Override
     public void clear() {
         this.lock.writeLock().lock();
         try {
-            this.rootNode = new Node<>();
+            this.rootNode = new Node();
             this.valuesMap.clear();
+            this.ids.clear();
+            this.valuesById.clear();
+            this.freeIds.clear();
         } finally {
             this.lock.writeLock().unlock();
         }
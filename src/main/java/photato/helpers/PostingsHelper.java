@@ -0,0 +1,64 @@
+package photato.helpers;
+
+import java.util.Arrays;
+
+public class PostingsHelper {
+
+    /**
+     * Intersects two sorted arrays of distinct ids. Each id of the smallest
+     * array is searched in the largest one by galloping from the previous
+     * match, so the cost is about |small| * log(|large| / |small|) instead of
+     * |small| + |large|
+     *
+     * @return a new sorted array
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        return intersect(a, a.length, b, b.length);
+    }
+
+    /**
+     * Same as above, for arrays whose ids are only the first aCount and
+     * bCount elements
+     */
+    public static int[] intersect(int[] a, int aCount, int[] b, int bCount) {
+        int[] small = aCount <= bCount ? a : b;
+        int smallCount = Math.min(aCount, bCount);
+        int[] large = aCount <= bCount ? b : a;
+        int largeCount = Math.max(aCount, bCount);
+
+        int[] result = new int[smallCount];
+        int count = 0;
+        int position = 0;
+        for (int i = 0; i < smallCount; i++) {
+            position = gallop(large, largeCount, position, small[i]);
+            if (position == largeCount) {
+                break;
+            }
+            if (large[position] == small[i]) {
+                result[count++] = small[i];
+                position++;
+            }
+        }
+
+        return count == smallCount ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the index of the first element greater or equal to value, at
+     * or after start, or count if there is none
+     */
+    private static int gallop(int[] array, int count, int start, int value) {
+        int low = start;
+        int high = start;
+        int step = 1;
+        while (high < count && array[high] < value) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+
+        int index = Arrays.binarySearch(array, low, Math.min(high, count), value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+}
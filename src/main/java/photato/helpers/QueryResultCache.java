@@ -0,0 +1,86 @@
+package photato.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Least recently used cache of query results. Each result is stored with the
+ * generation of the data it was computed from, and is only returned while
+ * that generation is still the current one: the owner of the data bumps its
+ * generation on every change instead of tracking which results it affects
+ */
+public class QueryResultCache<K, V> {
+
+    private static class Entry<V> {
+
+        public final long generation;
+        public final V value;
+
+        public Entry(long generation, V value) {
+            this.generation = generation;
+            this.value = value;
+        }
+
+    }
+
+    private final int maxSize;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxSize 0 disables the cache
+     */
+    public QueryResultCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return this.size() > QueryResultCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param generation the current generation of the data, to be read before
+     * computing, so that a change happening meanwhile invalidates the result
+     * @param compute called outside of the cache lock on a miss
+     */
+    public V get(K key, long generation, Supplier<V> compute) {
+        synchronized (this) {
+            Entry<V> entry = this.entries.get(key);
+            if (entry != null && entry.generation == generation) {
+                this.hits++;
+                return entry.value;
+            }
+            this.misses++;
+        }
+
+        V value = compute.get();
+        synchronized (this) {
+            Entry<V> entry = this.entries.get(key);
+            if (this.maxSize > 0 && (entry == null || entry.generation < generation)) {
+                this.entries.put(key, new Entry<>(generation, value));
+            }
+        }
+        return value;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized double getHitRate() {
+        return this.hits + this.misses == 0 ? 0 : (double) this.hits / (this.hits + this.misses);
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+}
@@ -2,7 +2,9 @@ package photato.helpers;
 
 import java.text.Normalizer;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class SearchQueryHelper {
@@ -21,6 +23,40 @@ public class SearchQueryHelper {
                 .collect(Collectors.toList());
     }
     
+    /**
+     * The words of the query ending with ~ are searched with typos tolerated
+     * ("barcelone~"). The short terms tolerate fewer edits, else they would
+     * match almost anything
+     *
+     * @return the maximum edit distance of each fuzzy term of the query, the
+     * other terms are missing
+     */
+    public static Map<String, Integer> getMaxEditDistances(String s) {
+        Map<String, Integer> result = new HashMap<>();
+        for (String word : s.split("\\s+")) {
+            if (word.endsWith("~")) {
+                for (String term : getSplittedTerms(word)) {
+                    int maxDistance = term.length() >= 8 ? 2 : term.length() >= 4 ? 1 : 0;
+                    if (maxDistance > 0) {
+                        result.put(term, maxDistance);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the terms in a canonical order, with their max edit distance,
+     * so that equivalent queries are equal
+     */
+    public static List<String> getNormalizedQuery(List<String> terms, Map<String, Integer> maxDistances) {
+        return terms.stream()
+                .map((String term) -> maxDistances.containsKey(term) ? term + "~" + maxDistances.get(term) : term)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
     public static String normalizeString(String str){
         return Normalizer.normalize(str.toLowerCase(), Normalizer.Form.NFD).replaceAll("\\p{M}", "").replaceAll("[^a-z0-9]+", "").trim();
     }
@@ -0,0 +1,318 @@
+package photato.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Index split, like a log-structured merge tree, into base segments which are
+ * never modified and a small delta segment receiving the changes. Removing a
+ * value of a base segment only adds it to the tombstones of that segment, so
+ * that a large deletion does not walk the keys of the base segment while
+ * holding its lock. A value adding a key while in a base segment is moved to
+ * the delta with all its keys, so that each live value is in exactly one
+ * segment and searches only have to concatenate the results of the segments.
+ *
+ * Once the delta and the tombstones are large enough compared to the index, a
+ * background thread folds everything in a new base segment. The changes
+ * happening meanwhile go to a new delta, so that compacting only blocks the
+ * writes and the searches while freezing the delta and swapping the segments
+ */
+public class SegmentedStringIndex<T> implements IStringIndex<T> {
+
+    private static final int defaultMinDeltaSize = 1024;
+    private static final int maxDeltaRatio = 2; // The delta and the tombstones can reach half of the live values, so that rebuilding while indexing costs about twice the final index
+
+    private class Segment {
+
+        public final IStringIndex<T> index;
+        public final Set<T> tombstones; // Values removed since the segment was frozen
+        public Segment replacedBy; // Set once compacted, the live values of the segment are in this one
+
+        public Segment(IStringIndex<T> index, Set<T> tombstones) {
+            this.index = index;
+            this.tombstones = tombstones;
+        }
+
+    }
+
+    private final ReentrantReadWriteLock lock;
+    private final ReentrantLock compactionLock;
+    private final Supplier<IStringIndex<T>> segmentFactory;
+    private final int minDeltaSize;
+    private final ExecutorService compactor;
+    private final Map<T, Set<String>> valuesKeys; // The sets are never modified, so that compacting can snapshot them
+    private final Map<T, Segment> valuesSegments;
+    private List<Segment> frozenSegments;
+    private Segment delta;
+    private Set<T> removedSinceFreeze; // Values of the frozen segments removed while compacting them, null if not compacting
+    private boolean compactionScheduled;
+
+    /**
+     * @param segmentFactory creates the empty index of each segment
+     */
+    public SegmentedStringIndex(Supplier<IStringIndex<T>> segmentFactory) {
+        this(segmentFactory, defaultMinDeltaSize);
+    }
+
+    /**
+     * @param minDeltaSize changes below which compacting is never worth it
+     */
+    public SegmentedStringIndex(Supplier<IStringIndex<T>> segmentFactory, int minDeltaSize) {
+        this.lock = new ReentrantReadWriteLock();
+        this.compactionLock = new ReentrantLock();
+        this.segmentFactory = segmentFactory;
+        this.minDeltaSize = minDeltaSize;
+        this.compactor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "SearchIndexCompactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.valuesKeys = new HashMap<>();
+        this.valuesSegments = new HashMap<>();
+        this.frozenSegments = new ArrayList<>();
+        this.delta = new Segment(segmentFactory.get(), new HashSet<>());
+    }
+
+    @Override
+    public void add(String indexKey, T value) {
+        if (indexKey == null || indexKey.isEmpty()) {
+            throw new IllegalArgumentException("Key must not be empty");
+        }
+
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Set<String> keys = this.valuesKeys.get(value);
+            if (keys != null && keys.contains(indexKey)) {
+                return; // Already indexed with this key
+            }
+
+            Set<String> newKeys = keys == null ? new HashSet<>() : new HashSet<>(keys);
+            newKeys.add(indexKey);
+            this.valuesKeys.put(value, newKeys);
+
+            Segment segment = this.getSegment(value);
+            if (segment == this.delta) {
+                this.delta.index.add(indexKey, value);
+            } else {
+                if (segment != null) {
+                    this.addTombstone(segment, value);
+                }
+                for (String key : newKeys) {
+                    this.delta.index.add(key, value);
+                }
+                this.valuesSegments.put(value, this.delta);
+            }
+
+            this.scheduleCompactionIfNeeded();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<T> findContains(String key) {
+        return this.findContainsAll(Collections.singletonList(key), (T value) -> true);
+    }
+
+    @Override
+    public Collection<T> findContainsAll(Collection<String> keys, Map<String, Integer> maxDistances, Predicate<T> filter) {
+        this.lock.readLock().lock();
+        try {
+            List<T> result = new ArrayList<>();
+            for (Segment segment : this.frozenSegments) {
+                result.addAll(segment.index.findContainsAll(keys, maxDistances, (T value) -> !segment.tombstones.contains(value) && filter.test(value)));
+            }
+            result.addAll(this.delta.index.findContainsAll(keys, maxDistances, filter));
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Segment segment = this.getSegment(value);
+            if (segment == this.delta) {
+                this.delta.index.remove(value);
+            } else if (segment != null) {
+                this.addTombstone(segment, value);
+            }
+            this.valuesKeys.remove(value);
+            this.valuesSegments.remove(value);
+
+            this.scheduleCompactionIfNeeded();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Folds the delta and the tombstones in a new base segment. The searches
+     * and the changes go on while the new segment is built
+     */
+    public void compact() {
+        this.compactionLock.lock();
+        try {
+            Map<T, Set<String>> snapshot;
+            this.lock.writeLock().lock();
+            try {
+                this.compactionScheduled = false;
+                if (this.delta.index.size() == 0 && this.getTombstonesCount() == 0 && this.frozenSegments.size() <= 1) {
+                    return;
+                }
+
+                List<Segment> frozenSegments = new ArrayList<>(this.frozenSegments);
+                frozenSegments.add(this.delta);
+                this.frozenSegments = frozenSegments;
+                this.delta = new Segment(this.segmentFactory.get(), new HashSet<>());
+                this.removedSinceFreeze = new HashSet<>();
+                snapshot = new HashMap<>(this.valuesKeys);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+
+            IStringIndex<T> index = this.segmentFactory.get();
+            for (Map.Entry<T, Set<String>> entry : snapshot.entrySet()) {
+                for (String key : entry.getValue()) {
+                    index.add(key, entry.getKey());
+                }
+            }
+
+            this.lock.writeLock().lock();
+            try {
+                // The values of the snapshot removed meanwhile are still in the new segment
+                Segment base = new Segment(index, this.removedSinceFreeze);
+                for (Segment segment : this.frozenSegments) {
+                    segment.replacedBy = base;
+                }
+                this.frozenSegments = new ArrayList<>(Arrays.asList(base));
+                this.removedSinceFreeze = null;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } finally {
+            this.compactionLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of base segments, 1 once compacted, more while
+     * compacting
+     */
+    public int getSegmentsCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.frozenSegments.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of values in the delta segment
+     */
+    public int getDeltaSize() {
+        this.lock.readLock().lock();
+        try {
+            return this.delta.index.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private Segment getSegment(T value) {
+        Segment segment = this.valuesSegments.get(value);
+        if (segment != null && segment.replacedBy != null) {
+            while (segment.replacedBy != null) {
+                segment = segment.replacedBy;
+            }
+            this.valuesSegments.put(value, segment);
+        }
+        return segment;
+    }
+
+    private void addTombstone(Segment segment, T value) {
+        segment.tombstones.add(value);
+        if (this.removedSinceFreeze != null) {
+            this.removedSinceFreeze.add(value); // Only the frozen segments have live values, which are all in the snapshot
+        }
+    }
+
+    private int getTombstonesCount() {
+        int result = 0;
+        for (Segment segment : this.frozenSegments) {
+            result += segment.tombstones.size();
+        }
+        return result;
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        int changes = this.delta.index.size() + this.getTombstonesCount();
+        if (!this.compactionScheduled && this.removedSinceFreeze == null && changes >= Math.max(this.minDeltaSize, this.valuesKeys.size() / maxDeltaRatio)) {
+            this.compactionScheduled = true;
+            this.compactor.submit(this::compact);
+        }
+    }
+
+    @Override
+    public Collection<T> values() {
+        this.lock.readLock().lock();
+        try {
+            return new ArrayList<>(this.valuesKeys.keySet());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.valuesKeys.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.compactionLock.lock();
+        try {
+            this.lock.writeLock().lock();
+            try {
+                this.valuesKeys.clear();
+                this.valuesSegments.clear();
+                this.frozenSegments = new ArrayList<>();
+                this.delta = new Segment(this.segmentFactory.get(), new HashSet<>());
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } finally {
+            this.compactionLock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,446 @@
+package photato.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Index of the trigrams of the keys: each distinct key is indexed once,
+ * whatever the number of values having it, and each trigram has the sorted
+ * ids of the keys containing it. A search intersects the postings of its
+ * trigrams, from the rarest one, verifies the remaining candidate keys, then
+ * merges the values of the matching keys.
+ *
+ * The trigram postings are kept within a memory budget: once it is exceeded,
+ * the postings of the most frequent trigrams, which filter the least, are
+ * dropped and these trigrams are not indexed anymore. A search shorter than a
+ * trigram, or whose trigrams have all been dropped, verifies all the distinct
+ * keys
+ */
+public class TrigramStringIndex<T> implements IStringIndex<T> {
+
+    private static final int gramLength = 3;
+    private static final int[] noIds = new int[0];
+    private static final long postingsOverheadBytes = 40; // Headers of the postings and of their array
+    private static final double budgetRatioAfterDrop = 0.9; // So that the next keys do not drop postings again right away
+
+    private static class Postings {
+
+        public int[] ids = noIds; // Sorted, with spare room at the end
+        public int count;
+
+        public void add(int id) {
+            int index = Arrays.binarySearch(this.ids, 0, this.count, id);
+            if (index < 0) {
+                index = -index - 1;
+                if (this.count == this.ids.length) {
+                    this.ids = Arrays.copyOf(this.ids, Math.max(2, this.count + (this.count >> 1)));
+                }
+                System.arraycopy(this.ids, index, this.ids, index + 1, this.count - index);
+                this.ids[index] = id;
+                this.count++;
+            }
+        }
+
+        public void remove(int id) {
+            int index = Arrays.binarySearch(this.ids, 0, this.count, id);
+            if (index >= 0) {
+                System.arraycopy(this.ids, index + 1, this.ids, index, this.count - index - 1);
+                this.count--;
+                if (this.count < this.ids.length / 4) {
+                    this.ids = Arrays.copyOf(this.ids, this.count * 2);
+                }
+            }
+        }
+
+    }
+
+    private static final Postings droppedPostings = new Postings(); // Of the trigrams not indexed anymore, never modified
+
+    private final ReentrantReadWriteLock lock;
+    private final LongHashMap<Postings> grams; // Key ids by trigram
+    private final Map<String, Integer> keyIds;
+    private final List<String> keysById; // null for the ids which are free
+    private final List<Postings> keyValues; // Value ids by key id
+    private final List<Integer> freeKeyIds;
+    private final Map<T, Integer> valueIds;
+    private final List<T> valuesById; // null for the ids which are free
+    private final List<int[]> valuesKeys; // Key ids by value id
+    private final List<Integer> freeValueIds;
+    private final boolean prefixOnlyMode;
+    private final long maxGramsBytes;
+    private long postingsBytes;
+
+    public TrigramStringIndex() {
+        this(false);
+    }
+
+    public TrigramStringIndex(boolean prefixOnlyMode) {
+        this(prefixOnlyMode, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxGramsBytes memory budget of the trigrams table and postings
+     */
+    public TrigramStringIndex(boolean prefixOnlyMode, long maxGramsBytes) {
+        if (maxGramsBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+
+        this.lock = new ReentrantReadWriteLock();
+        this.grams = new LongHashMap<>();
+        this.keyIds = new HashMap<>();
+        this.keysById = new ArrayList<>();
+        this.keyValues = new ArrayList<>();
+        this.freeKeyIds = new ArrayList<>();
+        this.valueIds = new HashMap<>();
+        this.valuesById = new ArrayList<>();
+        this.valuesKeys = new ArrayList<>();
+        this.freeValueIds = new ArrayList<>();
+        this.prefixOnlyMode = prefixOnlyMode;
+        this.maxGramsBytes = maxGramsBytes;
+    }
+
+    @Override
+    public void add(String indexKey, T value) {
+        if (indexKey == null || indexKey.isEmpty()) {
+            throw new IllegalArgumentException("Key must not be empty");
+        }
+
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Integer valueId = this.valueIds.get(value);
+            if (valueId == null) {
+                valueId = allocateId(this.valuesById, this.freeValueIds, value);
+                setById(this.valuesKeys, valueId, noIds);
+                this.valueIds.put(value, valueId);
+            }
+
+            Integer keyId = this.keyIds.get(indexKey);
+            if (keyId == null) {
+                keyId = allocateId(this.keysById, this.freeKeyIds, indexKey);
+                setById(this.keyValues, keyId, new Postings());
+                this.keyIds.put(indexKey, keyId);
+                this.addGrams(indexKey, keyId);
+            }
+
+            int[] keys = this.valuesKeys.get(valueId);
+            for (int id : keys) {
+                if (id == keyId) {
+                    return; // Already indexed with this key
+                }
+            }
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            keys[keys.length - 1] = keyId;
+            this.valuesKeys.set(valueId, keys);
+            this.keyValues.get(keyId).add(valueId);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<T> findContains(String key) {
+        return this.findContainsAll(Collections.singletonList(key), (T value) -> true);
+    }
+
+    /**
+     * The fuzzy keys give no trigram, they are only verified on the keys of
+     * the candidates of the other keys, or on all the distinct keys if there
+     * is none
+     */
+    @Override
+    public Collection<T> findContainsAll(Collection<String> keys, Map<String, Integer> maxDistances, Predicate<T> filter) {
+        if (keys.isEmpty() || keys.stream().anyMatch((String key) -> key == null || key.isEmpty())) {
+            throw new IllegalArgumentException("Keys must not be empty");
+        }
+
+        this.lock.readLock().lock();
+        try {
+            BitSet candidates = null;
+            List<String> fuzzyKeys = new ArrayList<>();
+            for (String key : keys) {
+                if (getMaxDistance(key, maxDistances) > 0) {
+                    fuzzyKeys.add(key);
+                } else {
+                    BitSet values = this.findValues(key, 0);
+                    if (candidates == null) {
+                        candidates = values;
+                    } else {
+                        candidates.and(values);
+                    }
+                    if (candidates.isEmpty()) {
+                        return new ArrayList<>();
+                    }
+                }
+            }
+            if (candidates == null) {
+                String key = fuzzyKeys.remove(0);
+                candidates = this.findValues(key, getMaxDistance(key, maxDistances));
+            }
+
+            List<T> result = new ArrayList<>();
+            for (int valueId = candidates.nextSetBit(0); valueId >= 0; valueId = candidates.nextSetBit(valueId + 1)) {
+                T value = this.valuesById.get(valueId);
+                if (this.matchesAll(this.valuesKeys.get(valueId), fuzzyKeys, maxDistances) && filter.test(value)) {
+                    result.add(value);
+                }
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Integer valueId = this.valueIds.remove(value);
+            if (valueId != null) {
+                for (int keyId : this.valuesKeys.get(valueId)) {
+                    Postings values = this.keyValues.get(keyId);
+                    values.remove(valueId);
+                    if (values.count == 0) {
+                        this.removeKey(keyId);
+                    }
+                }
+
+                this.valuesById.set(valueId, null);
+                this.valuesKeys.set(valueId, null);
+                this.freeValueIds.add(valueId);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the estimated bytes of the trigrams table and postings, kept
+     * within the budget unless the table of the distinct trigrams alone
+     * exceeds it
+     */
+    public long getGramsBytes() {
+        this.lock.readLock().lock();
+        try {
+            return this.grams.getTableBytes() + this.postingsBytes;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void addGrams(String key, int keyId) {
+        for (int i = 0; i + gramLength <= key.length(); i++) {
+            long gram = getGram(key, i);
+            Postings postings = this.grams.get(gram);
+            if (postings == null) {
+                postings = new Postings();
+                this.grams.put(gram, postings);
+                this.postingsBytes += postingsOverheadBytes;
+            }
+            if (postings != droppedPostings) {
+                int capacity = postings.ids.length;
+                postings.add(keyId);
+                this.postingsBytes += 4L * (postings.ids.length - capacity);
+            }
+        }
+
+        if (this.grams.getTableBytes() + this.postingsBytes > this.maxGramsBytes) {
+            this.dropFrequentGrams();
+        }
+    }
+
+    private void dropFrequentGrams() {
+        long[] liveGrams = new long[this.grams.size()];
+        long[] order = new long[this.grams.size()]; // Count of the postings in the high bits, index in liveGrams in the low ones
+        int[] liveCount = new int[1];
+        this.grams.forEach((Postings postings, long gram) -> {
+            if (postings != droppedPostings) {
+                liveGrams[liveCount[0]] = gram;
+                order[liveCount[0]] = ((long) postings.count << 32) | liveCount[0];
+                liveCount[0]++;
+            }
+        });
+        Arrays.sort(order, 0, liveCount[0]);
+
+        long targetBytes = (long) (this.maxGramsBytes * budgetRatioAfterDrop);
+        for (int i = liveCount[0] - 1; i >= 0 && this.grams.getTableBytes() + this.postingsBytes > targetBytes; i--) {
+            Postings postings = this.grams.put(liveGrams[(int) order[i]], droppedPostings);
+            this.postingsBytes -= postingsOverheadBytes + 4L * postings.ids.length;
+        }
+    }
+
+    private void removeKey(int keyId) {
+        String key = this.keysById.get(keyId);
+        for (int i = 0; i + gramLength <= key.length(); i++) {
+            long gram = getGram(key, i);
+            Postings postings = this.grams.get(gram);
+            if (postings != null && postings != droppedPostings) {
+                int capacity = postings.ids.length;
+                postings.remove(keyId);
+                this.postingsBytes += 4L * (postings.ids.length - capacity);
+                if (postings.count == 0) {
+                    this.grams.remove(gram);
+                    this.postingsBytes -= postingsOverheadBytes + 4L * postings.ids.length;
+                }
+            }
+        }
+
+        this.keyIds.remove(key);
+        this.keysById.set(keyId, null);
+        this.keyValues.set(keyId, null);
+        this.freeKeyIds.add(keyId);
+    }
+
+    /**
+     * @return the ids of the values having a key matching this one
+     */
+    private BitSet findValues(String key, int maxDistance) {
+        BitSet result = new BitSet();
+        int[] candidates = maxDistance == 0 ? this.findCandidateKeys(key) : null;
+        int candidatesCount = candidates == null ? this.keysById.size() : candidates.length;
+        for (int i = 0; i < candidatesCount; i++) {
+            int keyId = candidates == null ? i : candidates[i];
+            String indexKey = this.keysById.get(keyId);
+            if (indexKey != null && this.matches(indexKey, key, maxDistance)) {
+                Postings values = this.keyValues.get(keyId);
+                for (int j = 0; j < values.count; j++) {
+                    result.set(values.ids[j]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the ids of the keys having all the indexed trigrams of this
+     * one, or null if none of them is indexed
+     */
+    private int[] findCandidateKeys(String key) {
+        List<Postings> searchedPostings = new ArrayList<>();
+        for (int i = 0; i + gramLength <= key.length(); i++) {
+            Postings postings = this.grams.get(getGram(key, i));
+            if (postings == null) {
+                return noIds;
+            }
+            if (postings != droppedPostings && !searchedPostings.contains(postings)) {
+                searchedPostings.add(postings);
+            }
+        }
+        if (searchedPostings.isEmpty()) {
+            return null;
+        }
+
+        searchedPostings.sort(Comparator.comparingInt((Postings postings) -> postings.count));
+        int[] candidates = Arrays.copyOf(searchedPostings.get(0).ids, searchedPostings.get(0).count);
+        for (int i = 1; i < searchedPostings.size() && candidates.length > 0; i++) {
+            candidates = PostingsHelper.intersect(candidates, candidates.length, searchedPostings.get(i).ids, searchedPostings.get(i).count);
+        }
+        return candidates;
+    }
+
+    private boolean matchesAll(int[] keyIds, List<String> keys, Map<String, Integer> maxDistances) {
+        for (String key : keys) {
+            int maxDistance = getMaxDistance(key, maxDistances);
+            boolean found = false;
+            for (int keyId : keyIds) {
+                if (this.matches(this.keysById.get(keyId), key, maxDistance)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Having all the trigrams does not mean having them in the right order
+    private boolean matches(String indexKey, String key, int maxDistance) {
+        return maxDistance > 0 ? EditDistanceHelper.containsApproximately(indexKey, key, maxDistance, this.prefixOnlyMode) : this.prefixOnlyMode ? indexKey.startsWith(key) : indexKey.contains(key);
+    }
+
+    private static int getMaxDistance(String key, Map<String, Integer> maxDistances) {
+        return Math.min(maxDistances.getOrDefault(key, 0), key.length() - 1);
+    }
+
+    private static long getGram(String key, int start) {
+        return ((long) key.charAt(start) << 32) | ((long) key.charAt(start + 1) << 16) | key.charAt(start + 2);
+    }
+
+    private static <E> int allocateId(List<E> elementsById, List<Integer> freeIds, E element) {
+        if (freeIds.isEmpty()) {
+            elementsById.add(element);
+            return elementsById.size() - 1;
+        } else {
+            int id = freeIds.remove(freeIds.size() - 1);
+            elementsById.set(id, element);
+            return id;
+        }
+    }
+
+    private static <E> void setById(List<E> elementsById, int id, E element) {
+        if (id == elementsById.size()) {
+            elementsById.add(element);
+        } else {
+            elementsById.set(id, element);
+        }
+    }
+
+    @Override
+    public Collection<T> values() {
+        this.lock.readLock().lock();
+        try {
+            return new ArrayList<>(this.valueIds.keySet());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.valueIds.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.lock.writeLock().lock();
+        try {
+            this.grams.clear();
+            this.keyIds.clear();
+            this.keysById.clear();
+            this.keyValues.clear();
+            this.freeKeyIds.clear();
+            this.valueIds.clear();
+            this.valuesById.clear();
+            this.valuesKeys.clear();
+            this.freeValueIds.clear();
+            this.postingsBytes = 0;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+}
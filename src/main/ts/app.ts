@@ -10,6 +10,7 @@ declare var pako: any;
 
 class GalleryViewModel {
     private static batchSize: number = 50;
+    private static searchPageSize: number = 500; // Search results are ranked, the best first, and loaded while scrolling
     public bannerMessage: KnockoutObservable<string>;
     public medias: KnockoutComputed<PhotatoMedia[]>;
     public folders: KnockoutObservableArray<PhotatoFolder>;
@@ -22,6 +23,8 @@ class GalleryViewModel {
     private currentAjaxRequest: any;
     private allMedias: KnockoutObservableArray<PhotatoMedia>;
     private displayedPicturesCount: KnockoutObservable<number>;
+    private nextMediasOffset: number;
+    private nextPageAjaxRequest: any;
 
     constructor() {
         this.bannerMessage = ko.observable<string>("");
@@ -107,18 +110,21 @@ class GalleryViewModel {
         this.allMedias([]);
         this.bannerMessage("");
         this.displayedPicturesCount(GalleryViewModel.batchSize);
+        this.nextMediasOffset = null;
         this.currentSearchQuery(query);
         this.currentFolder(folder);
 
         var that = this;
 
-        var queryParameter = query ? ("&query=" + encodeURIComponent(query)) : '';
+        var queryParameter = query ? ("&query=" + encodeURIComponent(query) + "&limit=" + GalleryViewModel.searchPageSize) : '';
 
         this.currentAjaxRequest && this.currentAjaxRequest.abort();
+        this.nextPageAjaxRequest && this.nextPageAjaxRequest.abort();
         this.currentAjaxRequest = $.ajax("/api/list?folder=" + encodeURIComponent(folder) + queryParameter)
             .success(function(res: PhotatoRequestResults) {
                 that.folders(res.folders);
                 that.allMedias(res.medias);
+                that.nextMediasOffset = res.nextOffset || null;
 
                 if (res.folders.length == 0 && res.medias.length == 0) {
                     that.bannerMessage(Messages.noResult);
@@ -129,6 +135,7 @@ class GalleryViewModel {
                 state.allMedias = that.allMedias();
                 state.bannerMessage = that.bannerMessage();
                 state.displayedPicturesCount = that.displayedPicturesCount();
+                state.nextMediasOffset = that.nextMediasOffset;
                 GalleryViewModel.historyReplaceState(state);
 
                 that.layoutManager.run();
@@ -137,6 +144,29 @@ class GalleryViewModel {
             });
     }
 
+    private loadNextSearchPage(): void {
+        var that = this;
+        var query: string = this.currentSearchQuery();
+
+        this.nextPageAjaxRequest = $.ajax("/api/list?folder=" + encodeURIComponent(this.currentFolder()) + "&query=" + encodeURIComponent(query) + "&limit=" + GalleryViewModel.searchPageSize + "&offset=" + this.nextMediasOffset)
+            .success(function(res: PhotatoRequestResults) {
+                that.nextPageAjaxRequest = null;
+                that.allMedias(that.allMedias().concat(res.medias));
+                that.nextMediasOffset = res.nextOffset || null;
+                that.displayedPicturesCount(that.displayedPicturesCount() + GalleryViewModel.batchSize);
+
+                var state = <HistoryState>history.state;
+                state.allMedias = that.allMedias();
+                state.displayedPicturesCount = that.displayedPicturesCount();
+                state.nextMediasOffset = that.nextMediasOffset;
+                GalleryViewModel.historyReplaceState(state);
+
+                that.layoutManager.run();
+            }).error(function() {
+                that.nextPageAjaxRequest = null;
+            });
+    }
+
 
     public openLightGallery(pictureIndex: number): void {
         this.pushState(this.currentFolder(), this.currentSearchQuery(), true);
@@ -223,8 +253,8 @@ class GalleryViewModel {
             newFullScreenOpened = false;
         }
 
-        var state: HistoryState = <HistoryState>{ currentSearchQuery: this.currentSearchQuery(), currentFolder: this.currentFolder(), allMedias: this.allMedias(), folders: this.folders(), displayedPicturesCount: this.displayedPicturesCount(), bannerMessage: this.bannerMessage() };
-        var newState: HistoryState = <HistoryState>{ currentSearchQuery: newSearchQuery, currentFolder: newFolder, fullScreenOpened: newFullScreenOpened, allMedias: this.allMedias(), folders: this.folders(), displayedPicturesCount: this.displayedPicturesCount(), bannerMessage: this.bannerMessage(), compressedAllMedias: null };
+        var state: HistoryState = <HistoryState>{ currentSearchQuery: this.currentSearchQuery(), currentFolder: this.currentFolder(), allMedias: this.allMedias(), folders: this.folders(), displayedPicturesCount: this.displayedPicturesCount(), nextMediasOffset: this.nextMediasOffset, bannerMessage: this.bannerMessage() };
+        var newState: HistoryState = <HistoryState>{ currentSearchQuery: newSearchQuery, currentFolder: newFolder, fullScreenOpened: newFullScreenOpened, allMedias: this.allMedias(), folders: this.folders(), displayedPicturesCount: this.displayedPicturesCount(), nextMediasOffset: this.nextMediasOffset, bannerMessage: this.bannerMessage(), compressedAllMedias: null };
         GalleryViewModel.historyReplaceState(state);
 
         GalleryViewModel.historyPushState(newState, newUrl);
@@ -244,6 +274,8 @@ class GalleryViewModel {
                 this.folders(state.folders);
                 this.bannerMessage(state.bannerMessage);
                 this.displayedPicturesCount(state.displayedPicturesCount);
+                this.nextPageAjaxRequest && this.nextPageAjaxRequest.abort();
+                this.nextMediasOffset = state.nextMediasOffset || null;
 
                 if (state.compressedAllMedias) {
                     console.log("PopState had compressed data");
@@ -269,6 +301,8 @@ class GalleryViewModel {
                     GalleryViewModel.historyReplaceState(state);
 
                     this.layoutManager.run();
+                } else if (this.nextMediasOffset && !this.nextPageAjaxRequest) {
+                    this.loadNextSearchPage();
                 }
             }
 
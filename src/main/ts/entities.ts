@@ -1,6 +1,8 @@
 class PhotatoRequestResults {
     public folders: PhotatoFolder[];
     public medias: PhotatoMedia[];
+    public mediasCount: number; // Only for search results
+    public nextOffset: number; // Missing after the last page of search results
 }
 
 class PictureInfos {
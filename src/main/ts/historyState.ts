@@ -4,6 +4,7 @@ class HistoryState {
     public allMedias: PhotatoMedia[];
     public folders: PhotatoFolder[];
     public displayedPicturesCount: number;
+    public nextMediasOffset: number;
     public bannerMessage: string;
     public compressedAllMedias: string;
 }
\ No newline at end of file
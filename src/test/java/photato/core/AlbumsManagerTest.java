@@ -0,0 +1,42 @@
+package photato.core;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import org.junit.Assert;
+import org.junit.Test;
+import photato.core.entities.PhotatoFolder;
+import photato.core.entities.PhotatoMedia;
+import photato.core.entities.PhotatoPicture;
+import photato.core.entities.PictureInfos;
+import photato.core.metadata.Metadata;
+import photato.core.metadata.gps.Position;
+
+public class AlbumsManagerTest {
+
+    @Test
+    public void testNestedAggregates() {
+        Path rootFolderPath = Paths.get("/home/myself/images");
+        AlbumsManager albumsManager = new AlbumsManager();
+
+        Metadata metadata = new Metadata();
+        metadata.position = new Position(48.8584, 2.2945, null, "Tour Eiffel, Paris, Ile-de-France, France");
+        metadata.pictureDate = new GregorianCalendar(2019, Calendar.JULY, 14).getTimeInMillis();
+        PhotatoMedia media = new PhotatoPicture(rootFolderPath, rootFolderPath.resolve("eiffel.jpg"), metadata, new PictureInfos("eiffel.jpg", 0, 0), new PictureInfos("eiffel.jpg", 0, 0), 0, 1000);
+        albumsManager.addMedia(media);
+
+        // In both Calendar/2019 and Calendar/2019/2019-07, and at every level of the places
+        for (String path : new String[]{"Albums", "Albums/Calendar", "Albums/Calendar/2019", "Albums/Calendar/2019/2019-07", "Albums/Places", "Albums/Places/France", "Albums/Places/France/Ile-de-France/Paris"}) {
+            PhotatoFolder folder = albumsManager.getCurrentFolder(path);
+            Assert.assertEquals(path, 1, folder.getMediasCount());
+            Assert.assertEquals(path, 1000, folder.getTotalFilesize());
+            Assert.assertEquals(path, media.timestamp, folder.getLatestTimestamp());
+        }
+
+        albumsManager.removeMedia(media);
+        Assert.assertNull(albumsManager.getCurrentFolder("Albums"));
+        Assert.assertTrue(albumsManager.getCurrentFolder("/").isEmpty());
+    }
+
+}
@@ -0,0 +1,54 @@
+package photato.core;
+
+import java.nio.file.Paths;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FolderIntervalIndexTest {
+
+    @Test
+    public void testIntervals() {
+        FolderIntervalIndex index = new FolderIntervalIndex();
+
+        FolderIntervalIndex.Folder newYork = index.addMedia(Paths.get("/home/myself/images/new-york"));
+        FolderIntervalIndex.Folder canada = index.addMedia(Paths.get("/home/myself/images/canada"));
+        FolderIntervalIndex.Folder montreal = index.addMedia(Paths.get("/home/myself/images/canada/montreal"));
+        index.addMedia(Paths.get("/home/myself/images/canada/montreal"));
+
+        index.read(() -> {
+            FolderIntervalIndex.Folder images = index.getFolder(Paths.get("/home/myself/images"));
+            Assert.assertTrue(images.contains(newYork));
+            Assert.assertTrue(images.contains(canada));
+            Assert.assertTrue(images.contains(montreal));
+            Assert.assertTrue(canada.contains(montreal));
+            Assert.assertTrue(canada.contains(canada));
+            Assert.assertFalse(canada.contains(newYork));
+            Assert.assertFalse(montreal.contains(canada));
+            Assert.assertFalse(newYork.contains(montreal));
+            return null;
+        });
+
+        // A folder created afterwards is numbered by the next read
+        FolderIntervalIndex.Folder quebec = index.addMedia(Paths.get("/home/myself/images/canada/quebec"));
+        index.read(() -> {
+            Assert.assertTrue(canada.contains(quebec));
+            Assert.assertFalse(montreal.contains(quebec));
+            Assert.assertFalse(newYork.contains(quebec));
+            return null;
+        });
+
+        // Folders are dropped with their last media only
+        index.removeMedia(montreal);
+        Assert.assertNotNull(index.getFolder(Paths.get("/home/myself/images/canada/montreal")));
+        index.removeMedia(montreal);
+        Assert.assertNull(index.getFolder(Paths.get("/home/myself/images/canada/montreal")));
+        index.removeMedia(quebec);
+        Assert.assertNotNull(index.getFolder(Paths.get("/home/myself/images/canada")));
+        index.removeMedia(canada);
+        Assert.assertNull(index.getFolder(Paths.get("/home/myself/images/canada")));
+        index.removeMedia(newYork);
+        Assert.assertNull(index.getFolder(Paths.get("/home/myself")));
+        Assert.assertNull(index.getFolder(Paths.get("/")));
+    }
+
+}
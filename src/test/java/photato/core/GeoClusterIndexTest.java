@@ -0,0 +1,111 @@
+package photato.core;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import photato.core.entities.PhotatoMedia;
+import photato.core.entities.PhotatoPicture;
+import photato.core.entities.PictureInfos;
+import photato.core.metadata.Metadata;
+import photato.core.metadata.gps.Position;
+
+public class GeoClusterIndexTest {
+
+    @Test
+    public void testClusters() {
+        Path rootFolderPath = Paths.get("/home/myself/images");
+        GeoClusterIndex index = new GeoClusterIndex();
+
+        PhotatoMedia eiffel = createPicture(rootFolderPath, "eiffel.jpg", 48.8584, 2.2945, 1000);
+        PhotatoMedia louvre = createPicture(rootFolderPath, "louvre.jpg", 48.8606, 2.3376, 3000);
+        PhotatoMedia london = createPicture(rootFolderPath, "london.jpg", 51.5074, -0.1278, 2000);
+        PhotatoMedia suva = createPicture(rootFolderPath, "suva.jpg", -18.1248, 178.4501, 4000);
+        for (PhotatoMedia media : new PhotatoMedia[]{eiffel, louvre, london, suva}) {
+            index.addMedia(media);
+        }
+
+        // The whole world in a single cell
+        List<GeoCluster> clusters = index.getClusters(-90, -180, 90, 180, -2);
+        Assert.assertEquals(1, clusters.size());
+        Assert.assertEquals(4, clusters.get(0).getCount());
+        Assert.assertEquals(suva, clusters.get(0).getRepresentative());
+        Assert.assertEquals((48.8584 + 48.8606 + 51.5074 - 18.1248) / 4, clusters.get(0).getLatitude(), 1e-9);
+
+        // Europe: Paris together, London apart
+        clusters = sorted(index.getClusters(40, -10, 60, 20, 6));
+        Assert.assertEquals(2, clusters.size());
+        Assert.assertEquals(2, clusters.get(0).getCount());
+        Assert.assertEquals(louvre, clusters.get(0).getRepresentative());
+        Assert.assertEquals((2.2945 + 2.3376) / 2, clusters.get(0).getLongitude(), 1e-9);
+        Assert.assertTrue(clusters.get(0).getSouth() <= 48.8584 && 48.8606 < clusters.get(0).getNorth());
+        Assert.assertEquals(london, clusters.get(1).getRepresentative());
+
+        // Paris apart at street level
+        Assert.assertEquals(2, index.getClusters(48.8, 2.2, 48.9, 2.4, 16).size());
+
+        // Across the antimeridian, and in all the columns at low zoom
+        Assert.assertEquals(1, index.getClusters(-20, 170, -10, -170, 6).size());
+        Assert.assertEquals(4, index.getClusters(-90, 10, 90, 5, 0).stream().mapToInt(GeoCluster::getCount).sum());
+
+        // The representative is picked again among the remaining medias
+        index.removeMedia(louvre);
+        clusters = sorted(index.getClusters(40, -10, 60, 20, 6));
+        Assert.assertEquals(1, clusters.get(0).getCount());
+        Assert.assertEquals(eiffel, clusters.get(0).getRepresentative());
+        Assert.assertEquals(2.2945, clusters.get(0).getLongitude(), 1e-9);
+        index.removeMedia(eiffel);
+        index.removeMedia(eiffel);
+        Assert.assertEquals(1, index.getClusters(40, -10, 60, 20, 6).size());
+        Assert.assertEquals(2, index.getClusters(-90, -180, 90, 180, -2).get(0).getCount());
+        index.removeMedia(suva);
+        Assert.assertEquals(london, index.getClusters(-90, -180, 90, 180, -2).get(0).getRepresentative());
+    }
+
+    @Test
+    public void testRandomized() {
+        Path rootFolderPath = Paths.get("/home/myself/images");
+        GeoClusterIndex index = new GeoClusterIndex();
+        Random random = new Random(42);
+        List<PhotatoMedia> medias = new ArrayList<>();
+
+        for (int i = 0; i < 3000; i++) {
+            if (!medias.isEmpty() && random.nextInt(4) == 0) {
+                index.removeMedia(medias.remove(random.nextInt(medias.size())));
+            } else {
+                PhotatoMedia media = createPicture(rootFolderPath, "img" + i + ".jpg", 45 + random.nextDouble(), 5 + random.nextDouble(), random.nextInt(100000));
+                medias.add(media);
+                index.addMedia(media);
+            }
+        }
+
+        for (int zoom = 0; zoom <= 20; zoom += 4) {
+            List<GeoCluster> clusters = index.getClusters(44, 4, 47, 7, zoom);
+            Assert.assertEquals(medias.size(), clusters.stream().mapToInt(GeoCluster::getCount).sum());
+            for (GeoCluster cluster : clusters) {
+                PhotatoMedia expected = medias.stream()
+                        .filter((PhotatoMedia m) -> cluster.getSouth() <= m.position.latitude && m.position.latitude < cluster.getNorth() && cluster.getWest() <= m.position.longitude && m.position.longitude < cluster.getEast())
+                        .max(Comparator.comparingLong((PhotatoMedia m) -> m.timestamp).thenComparing((PhotatoMedia m) -> m.fsPath, Comparator.reverseOrder()))
+                        .get();
+                Assert.assertEquals(expected, cluster.getRepresentative());
+            }
+        }
+    }
+
+    private static List<GeoCluster> sorted(List<GeoCluster> clusters) {
+        clusters.sort(Comparator.comparingInt((GeoCluster c) -> -c.getCount()));
+        return clusters;
+    }
+
+    private static PhotatoMedia createPicture(Path rootFolderPath, String path, double latitude, double longitude, long pictureDate) {
+        Metadata metadata = new Metadata();
+        metadata.position = new Position(latitude, longitude, null, null);
+        metadata.pictureDate = pictureDate;
+        return new PhotatoPicture(rootFolderPath, rootFolderPath.resolve(path), metadata, new PictureInfos(path, 0, 0), new PictureInfos(path, 0, 0), 0);
+    }
+
+}
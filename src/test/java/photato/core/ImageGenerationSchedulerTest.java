@@ -0,0 +1,163 @@
+package photato.core;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.junit.Assert;
+import org.junit.Test;
+import photato.core.entities.PhotatoMedia;
+import photato.core.entities.PhotatoPicture;
+import photato.core.entities.PictureInfos;
+import photato.core.metadata.Metadata;
+import photato.core.metadata.gps.Position;
+import photato.core.resize.fullscreen.IFullScreenImageGetter;
+import photato.core.resize.thumbnails.IThumbnailGenerator;
+
+public class ImageGenerationSchedulerTest {
+
+    private static final Path rootFolder = Paths.get("/home/myself/images");
+
+    private static class BlockingThumbnailGenerator implements IThumbnailGenerator {
+
+        private final List<String> generated = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void generateThumbnail(PhotatoMedia media) throws IOException {
+            this.started.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            this.generated.add(media.filename);
+        }
+
+        @Override
+        public void deleteThumbnail(Path originalFilename, long lastModifiedTimestamp) throws IOException {
+        }
+
+        @Override
+        public String getThumbnailUrl(Path originalFilename, long lastModifiedTimestamp) {
+            return null;
+        }
+
+        @Override
+        public int getThumbnailWidth(int originalWidth, int originalHeight) {
+            return originalWidth;
+        }
+
+        @Override
+        public int getThumbnailHeight(int originalWidth, int originalHeight) {
+            return originalHeight;
+        }
+    }
+
+    private static class FullScreenImageGetterMock implements IFullScreenImageGetter {
+
+        @Override
+        public void generateImage(PhotatoMedia media) throws IOException {
+        }
+
+        @Override
+        public void deleteImage(PhotatoMedia media) throws IOException {
+        }
+
+        @Override
+        public FileEntity getImage(PhotatoMedia media, ContentType contentType) throws IOException {
+            return null;
+        }
+
+        @Override
+        public String getImageUrl(Path originalFilename, long lastModifiedTimestamp) {
+            return null;
+        }
+
+        @Override
+        public int getImageWidth(int originalWidth, int originalHeight) {
+            return originalWidth;
+        }
+
+        @Override
+        public int getImageHeight(int originalWidth, int originalHeight) {
+            return originalHeight;
+        }
+    }
+
+    private static PhotatoMedia createPicture(String filename) {
+        Metadata metadata = new Metadata();
+        metadata.persons = new String[]{};
+        metadata.tags = new String[]{};
+        metadata.position = new Position(null, null, null, null);
+        return new PhotatoPicture(rootFolder, rootFolder.resolve(filename), metadata, new PictureInfos("", 0, 0), new PictureInfos("", 0, 0), 0);
+    }
+
+    @Test
+    public void testPriorities() throws Exception {
+        BlockingThumbnailGenerator thumbnailGenerator = new BlockingThumbnailGenerator();
+        IndexingProgress progress = new IndexingProgress();
+
+        try (ImageGenerationScheduler scheduler = new ImageGenerationScheduler(thumbnailGenerator, new FullScreenImageGetterMock(), progress, 1, 10)) {
+            scheduler.submit(createPicture("first.jpg"), ImageGenerationScheduler.Priority.LOW);
+            thumbnailGenerator.started.await(); // The single worker is now busy
+
+            PhotatoMedia cancelled = createPicture("cancelled.jpg");
+            scheduler.submit(createPicture("low1.jpg"), ImageGenerationScheduler.Priority.LOW);
+            scheduler.submit(cancelled, ImageGenerationScheduler.Priority.LOW);
+            scheduler.submit(createPicture("low2.jpg"), ImageGenerationScheduler.Priority.LOW);
+            scheduler.submit(createPicture("high.jpg"), ImageGenerationScheduler.Priority.HIGH);
+            Assert.assertEquals(4, scheduler.getQueueSize());
+            Assert.assertEquals(5, progress.getImagesPending());
+
+            scheduler.cancel(cancelled);
+            Assert.assertEquals(3, scheduler.getQueueSize());
+            Assert.assertEquals(4, progress.getImagesPending());
+
+            thumbnailGenerator.release.countDown();
+            progress.waitForPendingImages();
+
+            Assert.assertEquals(0, scheduler.getQueueSize());
+            Assert.assertEquals(0, progress.getImagesPending());
+            Assert.assertEquals(Arrays.asList("first.jpg", "high.jpg", "low1.jpg", "low2.jpg"), new ArrayList<>(thumbnailGenerator.generated));
+        }
+    }
+
+    @Test
+    public void testBoundedQueue() throws Exception {
+        BlockingThumbnailGenerator thumbnailGenerator = new BlockingThumbnailGenerator();
+        IndexingProgress progress = new IndexingProgress();
+
+        try (ImageGenerationScheduler scheduler = new ImageGenerationScheduler(thumbnailGenerator, new FullScreenImageGetterMock(), progress, 1, 2)) {
+            scheduler.submit(createPicture("first.jpg"), ImageGenerationScheduler.Priority.LOW);
+            thumbnailGenerator.started.await();
+            scheduler.submit(createPicture("second.jpg"), ImageGenerationScheduler.Priority.LOW);
+            scheduler.submit(createPicture("third.jpg"), ImageGenerationScheduler.Priority.LOW);
+
+            // The queue is full, this submission waits for the worker
+            Thread producer = new Thread(() -> {
+                try {
+                    scheduler.submit(createPicture("fourth.jpg"), ImageGenerationScheduler.Priority.LOW);
+                } catch (InterruptedException ex) {
+                }
+            });
+            producer.start();
+            producer.join(200);
+            Assert.assertTrue(producer.isAlive());
+            Assert.assertEquals(2, scheduler.getQueueSize());
+
+            thumbnailGenerator.release.countDown();
+            producer.join();
+            progress.waitForPendingImages();
+            Assert.assertEquals(4, thumbnailGenerator.generated.size());
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package photato.core;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import photato.core.metadata.IMetadataAggregator;
+import photato.core.metadata.Metadata;
+import photato.core.scan.ScannedFile;
+import photato.helpers.Tuple;
+
+public class IngestPipelineTest {
+
+    private static final Path rootFolder = Paths.get("/home/myself/images");
+
+    private static class MetadataAggregatorMock implements IMetadataAggregator {
+
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public Metadata getMetadata(Path path, long lastModificationTimestamp) {
+            throw new UnsupportedOperationException("The medias must be extracted by batches");
+        }
+
+        @Override
+        public Map<Path, Metadata> getMetadatas(List<Tuple<Path, Long>> paths) {
+            this.batchSizes.add(paths.size());
+            Map<Path, Metadata> result = new HashMap<>();
+            for (Tuple<Path, Long> path : paths) {
+                if (!path.o1.getFileName().toString().startsWith("unreadable")) {
+                    result.put(path.o1, new Metadata());
+                }
+            }
+            return result;
+        }
+    }
+
+    private static ScannedFile createFile(String filename, long lastModificationTimestamp) {
+        return new ScannedFile(rootFolder.resolve(filename), lastModificationTimestamp, 0, false);
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        MetadataAggregatorMock metadataAggregator = new MetadataAggregatorMock();
+        List<String> indexed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        IngestPipeline[] pipeline = new IngestPipeline[1];
+
+        pipeline[0] = new IngestPipeline(metadataAggregator, (List<Tuple<ScannedFile, Metadata>> files) -> {
+            for (Tuple<ScannedFile, Metadata> file : files) {
+                if (pipeline[0].claim(file.o1)) {
+                    indexed.add(file.o1.path.getFileName().toString());
+                }
+            }
+            if (indexed.size() >= 8) {
+                done.countDown();
+            }
+        }, 5, 200, 1);
+
+        try (IngestPipeline p = pipeline[0]) {
+            p.submit(createFile("holidays/cancelled.jpg", 1));
+            p.cancel(rootFolder.resolve("holidays"));
+            for (int i = 0; i < 7; i++) {
+                p.submit(createFile("pic" + i + ".jpg", 1));
+            }
+            p.submit(createFile("modified.jpg", 1));
+            p.submit(createFile("modified.jpg", 2)); // Only its last version is indexed
+
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(8, indexed.size());
+            Assert.assertFalse(indexed.contains("cancelled.jpg"));
+            Assert.assertEquals(1, indexed.stream().filter((String f) -> f.equals("modified.jpg")).count());
+            Assert.assertEquals(0, p.getPendingCount());
+
+            // A full batch is extracted right away, the remaining files once the delay is over
+            Assert.assertEquals(Integer.valueOf(5), metadataAggregator.batchSizes.get(0));
+            Assert.assertEquals(Integer.valueOf(3), metadataAggregator.batchSizes.get(1)); // The outdated version of modified.jpg is not extracted
+            Assert.assertEquals(2, metadataAggregator.batchSizes.size());
+        }
+    }
+
+    @Test
+    public void testUnreadableFiles() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        IngestPipeline[] pipeline = new IngestPipeline[1];
+
+        pipeline[0] = new IngestPipeline(new MetadataAggregatorMock(), (List<Tuple<ScannedFile, Metadata>> files) -> {
+            Assert.assertEquals(1, files.size());
+            pipeline[0].claim(files.get(0).o1);
+            done.countDown();
+        }, 5, 100, 1);
+
+        try (IngestPipeline p = pipeline[0]) {
+            p.submit(createFile("pic.jpg", 1));
+            p.submit(createFile("unreadable.jpg", 1));
+
+            // Without metadata, it is not indexed and not pending anymore
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, p.getPendingCount());
+        }
+    }
+
+}
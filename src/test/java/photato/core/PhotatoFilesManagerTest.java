@@ -6,11 +6,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
 
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.FileEntity;
@@ -25,11 +28,11 @@ import photato.core.entities.PhotatoFolder;
 import photato.core.entities.PhotatoMedia;
 import photato.core.metadata.IMetadataAggregator;
 import photato.core.metadata.Metadata;
+import photato.core.metadata.gps.Position;
 import photato.core.resize.fullscreen.IFullScreenImageGetter;
 import photato.core.resize.thumbnails.IThumbnailGenerator;
 import photato.helpers.Tuple;
 
-@Ignore
 public class PhotatoFilesManagerTest {
 
     private static class ThumbnailsGeneratorMock implements IThumbnailGenerator {
@@ -88,6 +91,7 @@ public class PhotatoFilesManagerTest {
             List<String> tagsList = this.map.get(path.toString());
             metadata.tags = tagsList == null ? new String[0] : tagsList.toArray(new String[tagsList.size()]);
             metadata.persons = new String[0];
+            metadata.position = new Position(null, null, null, null);
 
             return metadata;
         }
@@ -135,6 +139,7 @@ public class PhotatoFilesManagerTest {
         }
     }
 
+    @Ignore
     @Test
     public void test() throws Exception {
         
@@ -176,6 +181,8 @@ public class PhotatoFilesManagerTest {
             metadataGetterMock.addMetadata(photatoPicture2, "Canada");
 
             try (PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(fileSystem.getPath(rootFolder), fileSystem, metadataGetterMock, thumbnailsGeneratorMock, fullScreenGetterMock, true, true, false)) {
+                photatoFilesManager.waitForInitialIndexing();
+
                 // TEST SEARCH
                 List<PhotatoMedia> res = photatoFilesManager.searchMediasInFolder("/home/myself/images", "pierre-arthur");
                 Assert.assertEquals(2, res.size());
@@ -249,4 +256,215 @@ public class PhotatoFilesManagerTest {
         }
     }
 
+
+    @Test
+    public void testSearchWhileIndexing() throws Exception {
+        String rootFolder = "/home/myself/indexing";
+        CountDownLatch explorationBlocked = new CountDownLatch(1);
+        CountDownLatch explorationReleased = new CountDownLatch(1);
+
+        // The exploration of the "slow" folder waits until the searches are done
+        MetadataGetterMock metadataGetterMock = new MetadataGetterMock() {
+            @Override
+            public Map<Path, Metadata> getMetadatas(List<Tuple<Path, Long>> paths) {
+                if (paths.stream().anyMatch((Tuple<Path, Long> p) -> p.o1.getParent().endsWith("slow"))) {
+                    explorationBlocked.countDown();
+                    try {
+                        explorationReleased.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getMetadatas(paths);
+            }
+        };
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath(rootFolder + "/slow"));
+            Files.createFile(fileSystem.getPath(rootFolder + "/slow/sunset.jpg"));
+
+            try (PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(fileSystem.getPath(rootFolder), fileSystem, metadataGetterMock, new ThumbnailsGeneratorMock(), new FullScreenGetterMock(), true, true, false)) {
+                explorationBlocked.await();
+
+                // The folder exists but has not been published yet
+                Assert.assertEquals(0, photatoFilesManager.searchMediasInFolder("slow", "sunset").size());
+                SearchResultsPage page = photatoFilesManager.searchMediasInFolder("slow", "sunset", 0, 10);
+                Assert.assertEquals(0, page.getMedias().size());
+                Assert.assertEquals(0, page.getTotalCount());
+                Assert.assertEquals(-1, page.getNextOffset());
+                Assert.assertEquals(0, photatoFilesManager.searchMediasInFolder("", "sunset").size());
+
+                explorationReleased.countDown();
+                photatoFilesManager.waitForInitialIndexing();
+
+                Assert.assertEquals(1, photatoFilesManager.searchMediasInFolder("slow", "sunset").size());
+                Assert.assertEquals(1, photatoFilesManager.searchMediasInFolder("slow", "sunset", 0, 10).getTotalCount());
+            }
+        }
+    }
+
+
+    @Test
+    public void testResyncAfterOverflow() throws Exception {
+        String rootFolder = "/home/myself/overflow";
+        MetadataGetterMock metadataGetterMock = new MetadataGetterMock();
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = fileSystem.getPath(rootFolder);
+            Files.createDirectories(root.resolve("a/b/c"));
+            Files.createDirectories(root.resolve("a b"));
+            Files.createDirectories(root.resolve("z"));
+            Path deepPicture = Files.createFile(root.resolve("a/b/c/deep.jpg"));
+            Path otherPicture = Files.createFile(root.resolve("z/other.jpg"));
+            Files.createFile(root.resolve("a b/untouched.jpg"));
+
+            // Polling once an hour, the changes below are only found by the resync
+            PhotatoFilesManagerOptions options = new PhotatoFilesManagerOptions();
+            options.changeDetectionMode = ChangeDetectionMode.POLL;
+            options.pollIntervalMs = 3600000;
+            options.watchQuietPeriodMs = 0;
+            options.ingestBatchDelayMs = 100;
+            try (PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(root, fileSystem, metadataGetterMock, new ThumbnailsGeneratorMock(), new FullScreenGetterMock(), options)) {
+                photatoFilesManager.waitForInitialIndexing();
+
+                // Modifying a file does not modify its directory, the polling does not list them again
+                metadataGetterMock.addMetadata(deepPicture, "yoda");
+                metadataGetterMock.addMetadata(otherPicture, "leia");
+                Files.setLastModifiedTime(deepPicture, FileTime.fromMillis(System.currentTimeMillis() - 100000));
+                Files.setLastModifiedTime(otherPicture, FileTime.fromMillis(System.currentTimeMillis() - 100000));
+
+                // As after an overflow reported on the key of every folder of the subtrees
+                List<Path> roots = photatoFilesManager.resyncFolders(Arrays.asList(root.resolve("a/b/c"), root.resolve("z"), root.resolve("a"), root.resolve("a/b")));
+                Assert.assertEquals(Arrays.asList(root.resolve("a"), root.resolve("z")), roots);
+
+                waitFor(() -> photatoFilesManager.searchMediasInFolder("", "yoda").size() == 1 && photatoFilesManager.searchMediasInFolder("", "leia").size() == 1);
+                Assert.assertEquals(1, photatoFilesManager.getMediasInFolder("a/b/c").size());
+                Assert.assertEquals(1, photatoFilesManager.getMediasInFolder("z").size());
+                Assert.assertEquals(1, photatoFilesManager.searchMediasInFolder("", "untouched").size());
+
+                Assert.assertEquals(Arrays.asList(root), photatoFilesManager.resyncFolders(Arrays.asList(root.resolve("a b"), root, root.resolve("a/b"))));
+                Assert.assertEquals(1, photatoFilesManager.searchMediasInFolder("", "yoda").size());
+                Assert.assertEquals(1, photatoFilesManager.getMediasInFolder("a b").size());
+            }
+        }
+    }
+
+
+    @Test
+    public void testReplacedDirectory() throws Exception {
+        String rootFolder = "/home/myself/replaced";
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = fileSystem.getPath(rootFolder);
+            Files.createDirectories(root.resolve("trip/day"));
+            Files.createFile(root.resolve("trip/old.jpg"));
+            Files.createFile(root.resolve("trip/day/morning.jpg"));
+
+            try (PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(root, fileSystem, new MetadataGetterMock(), new ThumbnailsGeneratorMock(), new FullScreenGetterMock(), true, true, false)) {
+                photatoFilesManager.waitForInitialIndexing();
+                Assert.assertEquals(1, photatoFilesManager.searchMediasInFolder("", "morning").size());
+
+                // Replaced by another directory with the same name, whose events are not watched yet
+                Files.createDirectories(root.resolve("incoming/day"));
+                Files.createFile(root.resolve("incoming/new.jpg"));
+                Files.createFile(root.resolve("incoming/day/evening.jpg"));
+                Files.move(root.resolve("trip"), fileSystem.getPath("/home/myself/replaced-trip"));
+                Files.move(root.resolve("incoming"), root.resolve("trip"));
+
+                waitFor(() -> photatoFilesManager.searchMediasInFolder("", "evening").size() == 1);
+                Assert.assertEquals(1, photatoFilesManager.searchMediasInFolder("", "new").size());
+                Assert.assertEquals(0, photatoFilesManager.searchMediasInFolder("", "old").size());
+                Assert.assertEquals(0, photatoFilesManager.searchMediasInFolder("", "morning").size());
+                Assert.assertEquals(1, photatoFilesManager.getMediasInFolder("trip/day").size());
+
+                // The new directories are watched
+                Files.createFile(root.resolve("trip/day/night.jpg"));
+                waitFor(() -> photatoFilesManager.searchMediasInFolder("trip/day", "night").size() == 1);
+            }
+        }
+    }
+
+    @Test
+    public void testModifiedDirectory() throws Exception {
+        String rootFolder = "/home/myself/modified";
+        MetadataGetterMock metadataGetterMock = new MetadataGetterMock();
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = fileSystem.getPath(rootFolder);
+            Files.createDirectories(root.resolve("a/b"));
+            Files.createDirectories(root.resolve("a/c"));
+            Path sibling = Files.createFile(root.resolve("a/c/sibling.jpg"));
+
+            // Polling once an hour, the changes are only the ones given below
+            PhotatoFilesManagerOptions options = new PhotatoFilesManagerOptions();
+            options.changeDetectionMode = ChangeDetectionMode.POLL;
+            options.pollIntervalMs = 3600000;
+            options.watchQuietPeriodMs = 0;
+            options.ingestBatchDelayMs = 100;
+            try (PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(root, fileSystem, metadataGetterMock, new ThumbnailsGeneratorMock(), new FullScreenGetterMock(), options)) {
+                photatoFilesManager.waitForInitialIndexing();
+
+                // Only found if a/c is listed again
+                metadataGetterMock.addMetadata(sibling, "leia");
+                Files.setLastModifiedTime(sibling, FileTime.fromMillis(System.currentTimeMillis() - 100000));
+
+                // As reported on Windows for a file created in a/b: its parents are modified too
+                Files.createFile(root.resolve("a/b/new.jpg"));
+                photatoFilesManager.applyChanges(Arrays.asList(
+                        new WatchEventCoalescer.Change(root.resolve("a"), WatchEventCoalescer.ChangeKind.MODIFIED),
+                        new WatchEventCoalescer.Change(root.resolve("a/b"), WatchEventCoalescer.ChangeKind.MODIFIED),
+                        new WatchEventCoalescer.Change(root.resolve("a/b/new.jpg"), WatchEventCoalescer.ChangeKind.CREATED)));
+                waitFor(() -> photatoFilesManager.getMediasInFolder("a/b").size() == 1);
+                Assert.assertEquals(0, photatoFilesManager.searchMediasInFolder("", "leia").size());
+
+                // Created again, as reported after the exploration of its parent raced with it, it is not explored again
+                photatoFilesManager.applyChanges(Arrays.asList(new WatchEventCoalescer.Change(root.resolve("a/c"), WatchEventCoalescer.ChangeKind.CREATED)));
+                Assert.assertEquals(0, photatoFilesManager.searchMediasInFolder("", "leia").size());
+                Assert.assertEquals(1, photatoFilesManager.getMediasInFolder("a/c").size());
+
+                // Replaced, its subtree is listed again
+                photatoFilesManager.applyChanges(Arrays.asList(new WatchEventCoalescer.Change(root.resolve("a"), WatchEventCoalescer.ChangeKind.REPLACED)));
+                waitFor(() -> photatoFilesManager.searchMediasInFolder("", "leia").size() == 1);
+                Assert.assertEquals(1, photatoFilesManager.getMediasInFolder("a/b").size());
+            }
+        }
+    }
+
+    @Test
+    public void testCloseWhileIndexing() throws Exception {
+        String rootFolder = "/home/myself/closed";
+        List<Throwable> uncaughtExceptions = new ArrayList<>();
+        Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((Thread thread, Throwable ex) -> {
+            synchronized (uncaughtExceptions) {
+                uncaughtExceptions.add(ex);
+            }
+        });
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = fileSystem.getPath(rootFolder);
+            Files.createDirectories(root.resolve("a"));
+            Files.createFile(root.resolve("a/picture.jpg"));
+
+            // Closed before, during and after the initial exploration
+            for (int i = 0; i < 50; i++) {
+                PhotatoFilesManager photatoFilesManager = new PhotatoFilesManager(root, fileSystem, new MetadataGetterMock(), new ThumbnailsGeneratorMock(), new FullScreenGetterMock(), true, true, false);
+                Thread.sleep(i % 5);
+                photatoFilesManager.close();
+            }
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        }
+
+        Assert.assertEquals(new ArrayList<>(), uncaughtExceptions);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out", System.currentTimeMillis() - start < 20000);
+            Thread.sleep(50);
+        }
+    }
+
 }
@@ -1,13 +1,22 @@
 package photato.core;
 
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
 import photato.core.SearchManager;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import photato.core.entities.PhotatoFolder;
+import photato.core.entities.PhotatoMedia;
 import photato.core.entities.PhotatoPicture;
 import photato.core.entities.PictureInfos;
 import photato.core.metadata.Metadata;
 import photato.core.metadata.gps.Position;
 import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -78,6 +87,192 @@ public class SearchManagerTest {
         Assert.assertEquals(1, searchManager.searchMediasInFolder(rootFolder.fsPath, "Québec", false).size());
         Assert.assertEquals(1, searchManager.searchMediasInFolder(rootFolder.fsPath, "Waldos", false).size());
 
+        // Fuzzy search
+        Assert.assertEquals(0, searchManager.searchMediasInFolder(rootFolder.fsPath, "Edouart", false).size());
+        Assert.assertEquals(2, searchManager.searchMediasInFolder(rootFolder.fsPath, "Edouart~", false).size());
+        Assert.assertEquals(1, searchManager.searchMediasInFolder(rootFolder.fsPath, "Manhatan~", false).size());
+        Assert.assertEquals(1, searchManager.searchMediasInFolder(rootFolder.fsPath, "Wlados~", false).size()); // Transposition
+        Assert.assertEquals(1, searchManager.searchMediasInFolder(rootFolder.fsPath, "Antoyne~ wololo", false).size());
+        Assert.assertEquals(0, searchManager.searchMediasInFolder(canadaFolder.fsPath, "Manhatan~", false).size());
+
+    }
+
+    @Test
+    public void testRankedPages() {
+        Path rootFolderPath = Paths.get("/home/myself/images");
+        PhotatoFolder rootFolder = new PhotatoFolder(rootFolderPath, rootFolderPath);
+
+        SearchManager searchManager = new SearchManager(false, true);
+
+        PhotatoPicture inFolder = createPicture(rootFolderPath, "paris/img001.jpg", new String[]{}, new String[]{}, 0);
+        PhotatoPicture tagged = createPicture(rootFolderPath, "img002.jpg", new String[]{"Paris"}, new String[]{}, 2000);
+        PhotatoPicture personPrefix = createPicture(rootFolderPath, "img003.jpg", new String[]{}, new String[]{"Parisa"}, 0);
+        PhotatoPicture person = createPicture(rootFolderPath, "img004.jpg", new String[]{}, new String[]{"Paris Hilton"}, 0);
+        PhotatoPicture other = createPicture(rootFolderPath, "img005.jpg", new String[]{"London"}, new String[]{}, 0);
+        for (PhotatoPicture picture : Arrays.asList(inFolder, tagged, personPrefix, person, other)) {
+            searchManager.addMedia(rootFolder, picture);
+        }
+
+        // Person above tag above folder name, exact above prefix
+        SearchResultsPage page = searchManager.searchMediasInFolder(rootFolder.fsPath, "paris", false, 0, 10);
+        Assert.assertEquals(Arrays.asList(person, tagged, personPrefix, inFolder), page.getMedias());
+        Assert.assertEquals(4, page.getTotalCount());
+        Assert.assertEquals(-1, page.getNextOffset());
+
+        page = searchManager.searchMediasInFolder(rootFolder.fsPath, "paris", false, 0, 2);
+        Assert.assertEquals(Arrays.asList(person, tagged), page.getMedias());
+        Assert.assertEquals(2, page.getNextOffset());
+        page = searchManager.searchMediasInFolder(rootFolder.fsPath, "paris", false, page.getNextOffset(), 2);
+        Assert.assertEquals(Arrays.asList(personPrefix, inFolder), page.getMedias());
+        Assert.assertEquals(-1, page.getNextOffset());
+
+        page = searchManager.searchMediasInFolder(rootFolder.fsPath, "paris", false, 10, 2);
+        Assert.assertTrue(page.getMedias().isEmpty());
+        Assert.assertEquals(4, page.getTotalCount());
+
+        // Same score, the oldest first
+        searchManager.removeMedia(person);
+        PhotatoPicture olderTagged = createPicture(rootFolderPath, "img000.jpg", new String[]{"Paris"}, new String[]{}, 1000);
+        searchManager.addMedia(rootFolder, olderTagged);
+        Assert.assertEquals(Arrays.asList(olderTagged, tagged), searchManager.searchMediasInFolder(rootFolder.fsPath, "paris", false, 0, 2).getMedias());
+    }
+
+    @Test
+    public void testPersistedIndex() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path rootFolderPath = fileSystem.getPath("/home/myself/images");
+            PhotatoFolder rootFolder = new PhotatoFolder(rootFolderPath, rootFolderPath);
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path indexFile = fileSystem.getPath("/home/myself/cache/medias.index");
+
+            PhotatoPicture beach = createPicture(rootFolderPath, "holidays/beach.jpg", new String[]{"Biarritz"}, new String[]{}, 0);
+            PhotatoPicture mountain = createPicture(rootFolderPath, "holidays/mountain.jpg", new String[]{"Chamonix"}, new String[]{}, 0);
+
+            SearchManager searchManager = new SearchManager(false, true, 0, SearchIndexType.TRIE, 1 << 20, indexFile);
+            searchManager.addMedia(rootFolder, beach);
+            searchManager.addMedia(rootFolder, mountain);
+            searchManager.saveIndex();
+
+            // Next start: the beach did not change, the mountain has a new tag
+            PhotatoPicture newMountain = createPicture(rootFolderPath, "holidays/mountain.jpg", new String[]{"Mont-Blanc"}, new String[]{}, 0);
+            searchManager = new SearchManager(false, true, 0, SearchIndexType.TRIE, 1 << 20, indexFile);
+            searchManager.addMedia(rootFolder, beach);
+            searchManager.addMedia(rootFolder, newMountain);
+
+            Assert.assertEquals(Arrays.asList(beach), searchManager.searchMediasInFolder(rootFolderPath, "biarritz", false));
+            Assert.assertEquals(Arrays.asList(beach), searchManager.searchMediasInFolder(rootFolderPath, "biaritz~", false));
+            Assert.assertEquals(0, searchManager.searchMediasInFolder(rootFolderPath, "chamonix", false).size());
+            Assert.assertEquals(Arrays.asList(newMountain), searchManager.searchMediasInFolder(rootFolderPath, "blanc", false));
+            Assert.assertEquals(2, searchManager.searchMediasInFolder(rootFolderPath, "holidays", false).size());
+            Assert.assertEquals(0, searchManager.searchMediasInFolder(rootFolderPath.resolve("holidays/beach"), "holidays", false).size());
+
+            searchManager.removeMedia(beach);
+            Assert.assertEquals(0, searchManager.searchMediasInFolder(rootFolderPath, "biarritz", false).size());
+            Assert.assertEquals(Arrays.asList(newMountain), searchManager.searchMediasInFolder(rootFolderPath, "holidays", false));
+        }
+    }
+
+    @Test
+    public void testFilters() {
+        Path rootFolderPath = Paths.get("/home/myself/images");
+        PhotatoFolder rootFolder = new PhotatoFolder(rootFolderPath, rootFolderPath);
+
+        SearchManager searchManager = new SearchManager(false, true);
+
+        PhotatoMedia summerPicture = createMedia(rootFolderPath, "2019/sea.jpg", "Beach", getTimestamp(2019, 7, 14), 4000, 3000);
+        PhotatoMedia summerVideo = createMedia(rootFolderPath, "2019/waves.mp4", "Beach", getTimestamp(2019, 8, 31), 1920, 1080);
+        PhotatoMedia winterPicture = createMedia(rootFolderPath, "2019/snow.jpg", "Mountain", getTimestamp(2019, 12, 25), 3000, 3000);
+        PhotatoMedia oldPicture = createMedia(rootFolderPath, "2018/sand.jpg", "Beach", getTimestamp(2018, 6, 1), 3000, 4000);
+        PhotatoMedia undatedPicture = createMedia(rootFolderPath, "misc/dune.jpg", "Beach", 0, 0, 0);
+        for (PhotatoMedia media : Arrays.asList(summerPicture, summerVideo, winterPicture, oldPicture, undatedPicture)) {
+            searchManager.addMedia(rootFolder, media);
+        }
+
+        Assert.assertEquals("beach~", SearchFilters.parse("date:2019-06..2019-08 beach~ type:video").getTextQuery());
+        Assert.assertEquals("date:2019-13", SearchFilters.parse("date:2019-13").getTextQuery());
+
+        Assert.assertEquals(Arrays.asList(summerVideo), searchManager.searchMediasInFolder(rootFolderPath, "date:2019-06..2019-08 type:video beach", false));
+        Assert.assertEquals(Arrays.asList(summerPicture, summerVideo), searchManager.searchMediasInFolder(rootFolderPath, "date:2019-06..2019-08", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(oldPicture, summerPicture, summerVideo), searchManager.searchMediasInFolder(rootFolderPath, "date:..2019-08 beach", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(summerPicture, summerVideo), searchManager.searchMediasInFolder(rootFolderPath, "orientation:landscape", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(oldPicture), searchManager.searchMediasInFolder(rootFolderPath, "orientation:portrait type:photo", false));
+        Assert.assertEquals(Arrays.asList(winterPicture), searchManager.searchMediasInFolder(rootFolderPath, "orientation:square date:2019-12-25", false));
+        Assert.assertEquals(Arrays.asList(summerPicture, winterPicture), searchManager.searchMediasInFolder(rootFolderPath.resolve("2019"), "type:picture", false, 0, 10).getMedias());
+        Assert.assertEquals(4, searchManager.searchMediasInFolder(rootFolderPath, "beach", false).size());
+
+        searchManager.removeMedia(summerVideo);
+        Assert.assertEquals(0, searchManager.searchMediasInFolder(rootFolderPath, "type:video", false).size());
+
+        // Takes the id of the removed video
+        PhotatoMedia autumnVideo = createMedia(rootFolderPath, "2019/leaves.mp4", "Forest", getTimestamp(2019, 10, 2), 1080, 1920);
+        searchManager.addMedia(rootFolder, autumnVideo);
+        Assert.assertEquals(Arrays.asList(autumnVideo), searchManager.searchMediasInFolder(rootFolderPath, "type:video date:2019", false));
+        Assert.assertEquals(0, searchManager.searchMediasInFolder(rootFolderPath, "type:video date:2019-08", false).size());
+    }
+
+    @Test
+    public void testAreaFilters() {
+        Path rootFolderPath = Paths.get("/home/myself/images");
+        PhotatoFolder rootFolder = new PhotatoFolder(rootFolderPath, rootFolderPath);
+
+        SearchManager searchManager = new SearchManager(false, true);
+
+        PhotatoMedia paris = createPlacedPicture(rootFolderPath, "paris.jpg", 48.8566, 2.3522, 1000);
+        PhotatoMedia versailles = createPlacedPicture(rootFolderPath, "versailles.jpg", 48.8049, 2.1204, 2000);
+        PhotatoMedia london = createPlacedPicture(rootFolderPath, "london.jpg", 51.5074, -0.1278, 3000);
+        PhotatoMedia suva = createPlacedPicture(rootFolderPath, "fiji/suva.jpg", -18.1248, 178.4501, 4000);
+        PhotatoMedia taveuni = createPlacedPicture(rootFolderPath, "fiji/taveuni.jpg", -16.8500, -179.9700, 5000);
+        PhotatoMedia elsewhere = createPicture(rootFolderPath, "elsewhere.jpg", new String[]{}, new String[]{}, 6000);
+        for (PhotatoMedia media : Arrays.asList(paris, versailles, london, suva, taveuni, elsewhere)) {
+            searchManager.addMedia(rootFolder, media);
+        }
+
+        Assert.assertEquals(Arrays.asList(paris), searchManager.searchMediasInFolder(rootFolderPath, "near:48.8566,2.3522,10km", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(paris, versailles), searchManager.searchMediasInFolder(rootFolderPath, "near:48.8566,2.3522,25", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(paris), searchManager.searchMediasInFolder(rootFolderPath, "near:48.857,2.352,500m", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(paris, versailles, london), searchManager.searchMediasInFolder(rootFolderPath, "bbox:48,-1,52,3", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(versailles), searchManager.searchMediasInFolder(rootFolderPath, "bbox:48,-1,52,3 versailles", false, 0, 10).getMedias());
+
+        // Across the antimeridian
+        Assert.assertEquals(Arrays.asList(suva, taveuni), searchManager.searchMediasInFolder(rootFolderPath, "bbox:-20,178,-15,-179", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(suva, taveuni), searchManager.searchMediasInFolder(rootFolderPath, "near:-17.5,179.5,250km", false, 0, 10).getMedias());
+        Assert.assertEquals(Arrays.asList(taveuni), searchManager.searchMediasInFolder(rootFolderPath, "near:-16.8,180,20km", false, 0, 10).getMedias());
+
+        Assert.assertEquals("near:48.85,2.35", SearchFilters.parse("near:48.85,2.35").getTextQuery());
+        Assert.assertEquals("bbox:52,-1,48,3", SearchFilters.parse("bbox:52,-1,48,3").getTextQuery());
+
+        searchManager.removeMedia(versailles);
+        Assert.assertEquals(Arrays.asList(paris), searchManager.searchMediasInFolder(rootFolderPath, "near:48.8566,2.3522,25", false, 0, 10).getMedias());
+    }
+
+    private static PhotatoMedia createPlacedPicture(Path rootFolderPath, String path, double latitude, double longitude, long pictureDate) {
+        Metadata metadata = new Metadata();
+        metadata.position = new Position(latitude, longitude, null, null);
+        metadata.pictureDate = pictureDate;
+        return new PhotatoPicture(rootFolderPath, rootFolderPath.resolve(path), metadata, new PictureInfos(path, 0, 0), new PictureInfos(path, 0, 0), 0);
+    }
+
+    private static long getTimestamp(int year, int month, int day) {
+        return LocalDate.of(year, month, day).atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static PhotatoMedia createMedia(Path rootFolderPath, String path, String tag, long pictureDate, int width, int height) {
+        Metadata metadata = new Metadata();
+        metadata.tags = new String[]{tag};
+        metadata.position = new Position(7d, 4d, null, null);
+        metadata.pictureDate = pictureDate;
+        metadata.width = width;
+        metadata.height = height;
+        return PhotatoMedia.createMedia(rootFolderPath, rootFolderPath.resolve(path), metadata, new PictureInfos(path, 0, 0), new PictureInfos(path, 0, 0), 0, 0);
+    }
+
+    private static PhotatoPicture createPicture(Path rootFolderPath, String path, String[] tags, String[] persons, long pictureDate) {
+        Metadata metadata = new Metadata();
+        metadata.tags = tags;
+        metadata.persons = persons;
+        metadata.position = new Position(7d, 4d, null, null);
+        metadata.pictureDate = pictureDate;
+        return new PhotatoPicture(rootFolderPath, rootFolderPath.resolve(path), metadata, new PictureInfos(path, 0, 0), new PictureInfos(path, 0, 0), 0);
     }
 
 }
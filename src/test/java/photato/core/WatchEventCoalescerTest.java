@@ -0,0 +1,111 @@
+package photato.core;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WatchEventCoalescerTest {
+
+    @Test
+    public void testCoalescing() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/images"));
+            Path picture = fileSystem.getPath("/home/myself/images/picture.jpg");
+            Path temporary = fileSystem.getPath("/home/myself/images/temporary.jpg");
+            Path removed = fileSystem.getPath("/home/myself/images/removed.jpg");
+
+            WatchEventCoalescer coalescer = new WatchEventCoalescer(1000);
+
+            // A copy: one creation and several modifications
+            Files.write(picture, new byte[]{1});
+            coalescer.add(picture, StandardWatchEventKinds.ENTRY_CREATE, 0);
+            Files.write(picture, new byte[]{1, 2});
+            coalescer.add(picture, StandardWatchEventKinds.ENTRY_MODIFY, 100);
+            coalescer.add(picture, StandardWatchEventKinds.ENTRY_MODIFY, 200);
+
+            // Created then deleted: nothing to do
+            Files.createFile(temporary);
+            coalescer.add(temporary, StandardWatchEventKinds.ENTRY_CREATE, 0);
+            Files.delete(temporary);
+            coalescer.add(temporary, StandardWatchEventKinds.ENTRY_DELETE, 50);
+
+            coalescer.add(removed, StandardWatchEventKinds.ENTRY_MODIFY, 0);
+            coalescer.add(removed, StandardWatchEventKinds.ENTRY_DELETE, 10);
+
+            Assert.assertEquals(2, coalescer.getPendingCount());
+            Assert.assertTrue(coalescer.poll(1000).isEmpty()); // Not quiet yet
+
+            List<WatchEventCoalescer.Change> changes = coalescer.poll(1200);
+            Assert.assertEquals(2, changes.size());
+            Assert.assertEquals(picture, changes.get(0).path);
+            Assert.assertEquals(WatchEventCoalescer.ChangeKind.CREATED, changes.get(0).kind);
+            Assert.assertEquals(removed, changes.get(1).path);
+            Assert.assertEquals(WatchEventCoalescer.ChangeKind.DELETED, changes.get(1).kind);
+            Assert.assertEquals(0, coalescer.getPendingCount());
+        }
+    }
+
+    @Test
+    public void testUnstableFile() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/images"));
+            Path picture = fileSystem.getPath("/home/myself/images/picture.jpg");
+
+            WatchEventCoalescer coalescer = new WatchEventCoalescer(1000);
+            Files.write(picture, new byte[]{1});
+            coalescer.add(picture, StandardWatchEventKinds.ENTRY_CREATE, 0);
+
+            // Still growing although no event has been received, waiting for another quiet period
+            Files.write(picture, new byte[]{1, 2, 3});
+            Assert.assertTrue(coalescer.poll(1000).isEmpty());
+            Assert.assertTrue(coalescer.poll(1500).isEmpty());
+            Assert.assertEquals(1, coalescer.poll(2000).size());
+
+            // Replaced: deleted then created again
+            coalescer.add(picture, StandardWatchEventKinds.ENTRY_DELETE, 3000);
+            coalescer.add(picture, StandardWatchEventKinds.ENTRY_CREATE, 3100);
+            List<WatchEventCoalescer.Change> changes = coalescer.poll(4100);
+            Assert.assertEquals(1, changes.size());
+            Assert.assertEquals(WatchEventCoalescer.ChangeKind.REPLACED, changes.get(0).kind);
+
+            // Vanished before its deletion event
+            coalescer.add(picture, StandardWatchEventKinds.ENTRY_MODIFY, 5000);
+            Files.delete(picture);
+            Assert.assertTrue(coalescer.poll(6000).isEmpty());
+            changes = coalescer.poll(6000);
+            Assert.assertEquals(WatchEventCoalescer.ChangeKind.DELETED, changes.get(0).kind);
+        }
+    }
+
+
+    @Test
+    public void testReplacedDirectory() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path directory = fileSystem.getPath("/home/myself/images/trip");
+            Files.createDirectories(directory);
+
+            WatchEventCoalescer coalescer = new WatchEventCoalescer(1000);
+
+            // Deleted and created again, or another directory renamed to its name
+            coalescer.add(directory, StandardWatchEventKinds.ENTRY_DELETE, 0);
+            coalescer.add(directory, StandardWatchEventKinds.ENTRY_CREATE, 100);
+            coalescer.add(directory, StandardWatchEventKinds.ENTRY_MODIFY, 200);
+            List<WatchEventCoalescer.Change> changes = coalescer.poll(1200);
+            Assert.assertEquals(1, changes.size());
+            Assert.assertEquals(directory, changes.get(0).path);
+            Assert.assertEquals(WatchEventCoalescer.ChangeKind.REPLACED, changes.get(0).kind);
+
+            // Only its content changed
+            coalescer.add(directory, StandardWatchEventKinds.ENTRY_MODIFY, 2000);
+            Assert.assertEquals(WatchEventCoalescer.ChangeKind.MODIFIED, coalescer.poll(3000).get(0).kind);
+        }
+    }
+
+}
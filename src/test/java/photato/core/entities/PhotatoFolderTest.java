@@ -0,0 +1,73 @@
+package photato.core.entities;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Assert;
+import org.junit.Test;
+import photato.core.metadata.Metadata;
+import photato.core.metadata.gps.Position;
+
+public class PhotatoFolderTest {
+
+    private static final Path rootFolder = Paths.get("/home/myself/images");
+
+    private static PhotatoMedia createPicture(String path, int thumbnailWidth, int thumbnailHeight, long timestamp, long filesize) {
+        Metadata metadata = new Metadata();
+        metadata.persons = new String[]{};
+        metadata.tags = new String[]{};
+        metadata.position = new Position(null, null, null, null);
+        metadata.pictureDate = timestamp;
+        return new PhotatoPicture(rootFolder, rootFolder.resolve(path), metadata, new PictureInfos(path, thumbnailWidth, thumbnailHeight), new PictureInfos("", 0, 0), 0, filesize);
+    }
+
+    @Test
+    public void testAggregates() {
+        PhotatoFolder root = new PhotatoFolder(rootFolder, rootFolder);
+        PhotatoFolder holidays = new PhotatoFolder(rootFolder, rootFolder.resolve("holidays"));
+        PhotatoFolder empty = new PhotatoFolder(rootFolder, rootFolder.resolve("empty"));
+        Assert.assertTrue(holidays.isEmpty());
+        Assert.assertNull(holidays.getThumbnail());
+
+        PhotatoMedia vertical = createPicture("holidays/vertical.jpg", 10, 20, 300, 1000);
+        PhotatoMedia horizontal = createPicture("holidays/horizontal.jpg", 20, 10, 100, 2000);
+        holidays.addMedia(vertical);
+        Assert.assertEquals("holidays/vertical.jpg", holidays.getThumbnail().url);
+        holidays.addMedia(horizontal);
+        Assert.assertEquals("holidays/horizontal.jpg", holidays.getThumbnail().url); // Horizontal thumbnails are preferred
+        Assert.assertEquals(2, holidays.getMediasCount());
+        Assert.assertEquals(3000, holidays.getTotalFilesize());
+        Assert.assertEquals(300, holidays.getLatestTimestamp());
+
+        root.subFolders.put(holidays.filename, holidays);
+        root.subFolders.put(empty.filename, empty);
+        root.addMedia(createPicture("root.jpg", 10, 20, 200, 500));
+        Assert.assertFalse(root.isEmpty());
+        Assert.assertEquals(3, root.getMediasCount());
+        Assert.assertEquals(3500, root.getTotalFilesize());
+        Assert.assertEquals(300, root.getLatestTimestamp());
+        Assert.assertEquals("root.jpg", root.getThumbnail().url); // Its own medias first
+
+        // Copy on write, the original folder is left untouched
+        PhotatoFolder updatedHolidays = new PhotatoFolder(holidays, true, false);
+        updatedHolidays.removeMedia(vertical);
+        Assert.assertEquals(1, updatedHolidays.getMediasCount());
+        Assert.assertEquals(100, updatedHolidays.getLatestTimestamp());
+        Assert.assertEquals(2, holidays.getMediasCount());
+        Assert.assertEquals(2, holidays.medias.size());
+
+        // Only its subfolders are copied, its medias are shared
+        PhotatoFolder updatedRoot = new PhotatoFolder(root, false, true);
+        updatedRoot.subFolders.put(updatedHolidays.filename, updatedHolidays);
+        updatedRoot.refreshAggregates();
+        Assert.assertSame(root.medias, updatedRoot.medias);
+        Assert.assertSame(holidays, root.subFolders.get(holidays.filename));
+        Assert.assertEquals(2, updatedRoot.getMediasCount());
+        Assert.assertEquals(2500, updatedRoot.getTotalFilesize());
+        Assert.assertEquals(200, updatedRoot.getLatestTimestamp());
+
+        updatedHolidays.removeMedia(horizontal);
+        Assert.assertTrue(updatedHolidays.isEmpty());
+        Assert.assertNull(updatedHolidays.getThumbnail());
+    }
+
+}
@@ -0,0 +1,85 @@
+package photato.core.scan;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DirectoryScannerTest {
+
+    @Test
+    public void testScan() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/images/holidays"));
+            Files.createDirectory(fileSystem.getPath("/home/myself/images/ignored"));
+            Files.createFile(fileSystem.getPath("/home/myself/images/ignored/.photatoIgnore"));
+            Files.write(fileSystem.getPath("/home/myself/images/beach.jpg"), new byte[]{1, 2, 3});
+            Files.createFile(fileSystem.getPath("/home/myself/images/movie.mp4"));
+            Files.createFile(fileSystem.getPath("/home/myself/images/notes.txt"));
+            Files.setLastModifiedTime(fileSystem.getPath("/home/myself/images/beach.jpg"), FileTime.fromMillis(123000));
+
+            ScannedDirectory scanned = DirectoryScanner.scan(fileSystem.getPath("/home/myself/images"));
+            Assert.assertFalse(scanned.ignored);
+            Assert.assertTrue(scanned.directory.isDirectory);
+            Assert.assertEquals("[holidays, ignored]", scanned.subFolders.stream().map((ScannedFile f) -> f.path.getFileName().toString()).sorted().collect(Collectors.toList()).toString());
+            Assert.assertEquals(2, scanned.medias.size()); // The .txt file is not a media
+
+            ScannedFile beach = scanned.medias.stream().filter((ScannedFile f) -> f.path.getFileName().toString().equals("beach.jpg")).findAny().get();
+            Assert.assertEquals(123000, beach.lastModificationTimestamp);
+            Assert.assertEquals(3, beach.size);
+            Assert.assertFalse(beach.isDirectory);
+
+            Assert.assertTrue(DirectoryScanner.scan(fileSystem.getPath("/home/myself/images/ignored")).ignored);
+            Assert.assertTrue(DirectoryScanner.scan(fileSystem.getPath("/home/myself/images/holidays")).medias.isEmpty());
+        }
+    }
+
+    @Test
+    public void testListingDigest() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/images/holidays"));
+            Files.write(fileSystem.getPath("/home/myself/images/beach.jpg"), new byte[]{1, 2, 3});
+            Files.setLastModifiedTime(fileSystem.getPath("/home/myself/images/beach.jpg"), FileTime.fromMillis(123000));
+
+            long digest = DirectoryScanner.scan(fileSystem.getPath("/home/myself/images")).getListingDigest();
+            Assert.assertEquals(digest, DirectoryScanner.scan(fileSystem.getPath("/home/myself/images")).getListingDigest());
+
+            Files.setLastModifiedTime(fileSystem.getPath("/home/myself/images/beach.jpg"), FileTime.fromMillis(124000));
+            long modifiedDigest = DirectoryScanner.scan(fileSystem.getPath("/home/myself/images")).getListingDigest();
+            Assert.assertTrue(digest != modifiedDigest);
+
+            Files.createFile(fileSystem.getPath("/home/myself/images/holidays.jpg"));
+            Assert.assertTrue(modifiedDigest != DirectoryScanner.scan(fileSystem.getPath("/home/myself/images")).getListingDigest());
+        }
+    }
+
+
+    @Test
+    public void testSymbolicLinks() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/images/gallery"));
+            Files.createDirectories(fileSystem.getPath("/home/myself/data/trip"));
+            Files.write(fileSystem.getPath("/home/myself/data/beach.jpg"), new byte[]{1, 2, 3});
+            Files.createSymbolicLink(fileSystem.getPath("/home/myself/images/gallery/trip"), fileSystem.getPath("/home/myself/data/trip"));
+            Files.createSymbolicLink(fileSystem.getPath("/home/myself/images/gallery/beach.jpg"), fileSystem.getPath("/home/myself/data/beach.jpg"));
+            Files.createSymbolicLink(fileSystem.getPath("/home/myself/images/gallery/broken.jpg"), fileSystem.getPath("/home/myself/data/missing.jpg"));
+            Files.createSymbolicLink(fileSystem.getPath("/home/myself/images/gallery/loop"), fileSystem.getPath("/home/myself/images"));
+            Files.createSymbolicLink(fileSystem.getPath("/home/myself/data/trip/back"), fileSystem.getPath("/home/myself/images/gallery"));
+
+            // The links are followed, except the broken ones and those to a parent
+            ScannedDirectory scanned = DirectoryScanner.scan(fileSystem.getPath("/home/myself/images/gallery"));
+            Assert.assertEquals("[trip]", scanned.subFolders.stream().map((ScannedFile f) -> f.path.getFileName().toString()).collect(Collectors.toList()).toString());
+            Assert.assertEquals(1, scanned.medias.size());
+            Assert.assertEquals(3, scanned.medias.get(0).size);
+
+            // A parent through another link
+            Assert.assertTrue(DirectoryScanner.scan(fileSystem.getPath("/home/myself/images/gallery/trip")).subFolders.isEmpty());
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package photato.core.snapshot;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import photato.core.metadata.Metadata;
+import photato.core.metadata.gps.Position;
+
+public class TreeSnapshotTest {
+
+    @Test
+    public void testWriteRead() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path rootFolder = fileSystem.getPath("/home/myself/images");
+            Path snapshotFile = fileSystem.getPath("/home/myself/cache/tree.snapshot");
+
+            Metadata metadata = new Metadata();
+            metadata.title = "Sunset";
+            metadata.tags = new String[]{"Beach", "Évènement"};
+            metadata.persons = new String[]{};
+            metadata.position = new Position(45.5, -73.6, null, "Montréal, Québec, Canada");
+            metadata.pictureDate = 1500000000000L;
+            metadata.width = 4000;
+            metadata.height = 3000;
+            metadata.rotationId = 6;
+
+            List<SnapshotMedia> medias = new ArrayList<>();
+            medias.add(new SnapshotMedia("sunset.jpg", 123000, 0, metadata));
+            medias.add(new SnapshotMedia("movie.mp4", 456000, 789, new Metadata()));
+
+            Map<String, SnapshotFolder> subFolders = new HashMap<>();
+            subFolders.put("holidays", new SnapshotFolder("holidays", 11, 21, false, medias, new HashMap<>()));
+            subFolders.put("private", new SnapshotFolder("private", 12, 0, true, new ArrayList<>(), new HashMap<>()));
+            SnapshotFolder root = new SnapshotFolder("images", 10, 20, false, new ArrayList<>(), subFolders);
+
+            TreeSnapshot.write(snapshotFile, rootFolder, root);
+
+            SnapshotFolder read = TreeSnapshot.read(snapshotFile, rootFolder);
+            Assert.assertEquals(10, read.lastModificationTimestamp);
+            Assert.assertEquals(20, read.listingDigest);
+            Assert.assertEquals(2, read.subFolders.size());
+            Assert.assertTrue(read.subFolders.get("private").ignored);
+
+            SnapshotFolder holidays = read.subFolders.get("holidays");
+            Assert.assertFalse(holidays.ignored);
+            Assert.assertEquals(11, holidays.lastModificationTimestamp);
+            Assert.assertEquals(21, holidays.listingDigest);
+            Assert.assertEquals(2, holidays.medias.size());
+
+            SnapshotMedia sunset = holidays.medias.get(0);
+            Assert.assertEquals("sunset.jpg", sunset.filename);
+            Assert.assertEquals(123000, sunset.lastModificationTimestamp);
+            Assert.assertEquals("Sunset", sunset.metadata.title);
+            Assert.assertEquals(Arrays.asList("Beach", "Évènement"), Arrays.asList(sunset.metadata.tags));
+            Assert.assertEquals(45.5, sunset.metadata.position.latitude, 0);
+            Assert.assertEquals(-73.6, sunset.metadata.position.longitude, 0);
+            Assert.assertEquals("Montréal, Québec, Canada", sunset.metadata.position.coordinatesDescription);
+            Assert.assertEquals(1500000000000L, sunset.metadata.pictureDate);
+            Assert.assertEquals(4000, sunset.metadata.width);
+            Assert.assertEquals(3000, sunset.metadata.height);
+            Assert.assertEquals(6, sunset.metadata.rotationId);
+
+            SnapshotMedia movie = holidays.medias.get(1);
+            Assert.assertEquals(789, movie.size);
+            Assert.assertNull(movie.metadata.title);
+            Assert.assertNull(movie.metadata.position);
+            Assert.assertEquals(0, movie.metadata.tags.length);
+
+            // A snapshot is only valid for the folder it has been written for
+            Assert.assertNull(TreeSnapshot.read(snapshotFile, fileSystem.getPath("/home/myself/other")));
+            Assert.assertNull(TreeSnapshot.read(fileSystem.getPath("/home/myself/cache/missing"), rootFolder));
+        }
+    }
+
+    @Test
+    public void testCorruptSnapshot() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path rootFolder = fileSystem.getPath("/home/myself/images");
+            Path snapshotFile = fileSystem.getPath("/home/myself/cache/tree.snapshot");
+
+            Metadata metadata = new Metadata();
+            metadata.title = "Sunset";
+            metadata.tags = new String[]{"Beach"};
+            metadata.persons = new String[]{"Leia"};
+            List<SnapshotMedia> medias = new ArrayList<>();
+            medias.add(new SnapshotMedia("sunset.jpg", 123000, 0, metadata));
+            Map<String, SnapshotFolder> subFolders = new HashMap<>();
+            subFolders.put("holidays", new SnapshotFolder("holidays", 11, 21, false, medias, new HashMap<>()));
+            TreeSnapshot.write(snapshotFile, rootFolder, new SnapshotFolder("images", 10, 20, false, new ArrayList<>(), subFolders));
+            byte[] bytes = Files.readAllBytes(snapshotFile);
+
+            // Every count and length may be negative or huge, the snapshot is then ignored instead of failing the indexing
+            for (int i = 0; i < bytes.length; i++) {
+                byte[] corrupt = bytes.clone();
+                corrupt[i] = (byte) 0x80;
+                Files.write(snapshotFile, corrupt);
+                TreeSnapshot.read(snapshotFile, rootFolder);
+            }
+
+            Files.write(snapshotFile, Arrays.copyOf(bytes, bytes.length - 1));
+            Assert.assertNull(TreeSnapshot.read(snapshotFile, rootFolder));
+        }
+    }
+
+    @Test
+    public void testLongStrings() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path rootFolder = fileSystem.getPath("/home/myself/images");
+            Path snapshotFile = fileSystem.getPath("/home/myself/cache/tree.snapshot");
+
+            // More than the 64 KB of writeUTF, with multi-byte characters
+            StringBuilder title = new StringBuilder();
+            while (title.length() < 70000) {
+                title.append("Très long titre ");
+            }
+
+            Metadata metadata = new Metadata();
+            metadata.title = title.toString();
+            metadata.tags = new String[]{title.toString()};
+            metadata.persons = new String[]{};
+
+            List<SnapshotMedia> medias = new ArrayList<>();
+            medias.add(new SnapshotMedia("long.jpg", 123000, 0, metadata));
+            TreeSnapshot.write(snapshotFile, rootFolder, new SnapshotFolder("images", 10, 20, false, medias, new HashMap<>()));
+
+            SnapshotFolder read = TreeSnapshot.read(snapshotFile, rootFolder);
+            Assert.assertEquals(title.toString(), read.medias.get(0).metadata.title);
+            Assert.assertEquals(title.toString(), read.medias.get(0).metadata.tags[0]);
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package photato.helpers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EditDistanceHelperTest {
+
+    @Test
+    public void testContainsApproximately() {
+        Assert.assertTrue(EditDistanceHelper.containsApproximately("barcelona", "barcelone", 1, true));
+        Assert.assertFalse(EditDistanceHelper.containsApproximately("barcelona", "barcelone", 0, true));
+        Assert.assertTrue(EditDistanceHelper.containsApproximately("john", "jonh", 1, true)); // Transposition
+        Assert.assertFalse(EditDistanceHelper.containsApproximately("jean", "jonh", 1, true));
+        Assert.assertTrue(EditDistanceHelper.containsApproximately("johnny", "jonh", 1, true));
+
+        // Substrings, only outside of prefix mode
+        Assert.assertTrue(EditDistanceHelper.containsApproximately("visitbarcelona2017", "barcelone", 1, false));
+        Assert.assertFalse(EditDistanceHelper.containsApproximately("visitbarcelona2017", "barcelone", 1, true));
+        Assert.assertTrue(EditDistanceHelper.containsApproximately("visitbarcelona2017", "barcleona", 1, false));
+        Assert.assertFalse(EditDistanceHelper.containsApproximately("visitbarcelona2017", "brclona", 1, false));
+        Assert.assertTrue(EditDistanceHelper.containsApproximately("visitbarcelona2017", "brclona", 2, false));
+    }
+
+}
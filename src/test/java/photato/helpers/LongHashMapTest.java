@@ -0,0 +1,39 @@
+package photato.helpers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongHashMapTest {
+
+    @Test
+    public void testRandomized() {
+        LongHashMap<String> myMap = new LongHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(2000) * 0x100000000L; // Same low bits, so that the clusters are long
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), myMap.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(key, "v" + i), myMap.put(key, "v" + i));
+            }
+            Assert.assertEquals(expected.size(), myMap.size());
+        }
+
+        for (long key = 0; key < 2000; key++) {
+            Assert.assertEquals(expected.get(key * 0x100000000L), myMap.get(key * 0x100000000L));
+        }
+        Map<Long, String> iterated = new HashMap<>();
+        myMap.forEach((String value, long key) -> iterated.put(key, value));
+        Assert.assertEquals(expected, iterated);
+
+        myMap.clear();
+        Assert.assertTrue(myMap.isEmpty());
+        Assert.assertNull(myMap.get(0));
+    }
+
+}
@@ -0,0 +1,160 @@
+package photato.helpers;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedStringIndexTest {
+
+    @Test
+    public void testWriteOpen() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path indexFile = fileSystem.getPath("/home/myself/cache/search.index");
+            Assert.assertNull(MappedStringIndex.open(indexFile, false));
+
+            Map<String, List<String>> valuesKeys = new HashMap<>();
+            valuesKeys.put("paris/eiffel.jpg", Arrays.asList("eiffel", "paris", "tower"));
+            valuesKeys.put("paris/louvre.jpg", Arrays.asList("louvre", "paris", "museum"));
+            valuesKeys.put("london.jpg", Arrays.asList("london", "tower"));
+            MappedStringIndex.write(indexFile, false, valuesKeys);
+
+            Assert.assertNull(MappedStringIndex.open(indexFile, true)); // Written for the other mode
+            MappedStringIndex index = MappedStringIndex.open(indexFile, false);
+            Assert.assertEquals(3, index.getValuesCount());
+
+            int eiffel = index.getValueId("paris/eiffel.jpg");
+            int louvre = index.getValueId("paris/louvre.jpg");
+            int london = index.getValueId("london.jpg");
+            Assert.assertEquals(-1, index.getValueId("paris"));
+            Assert.assertTrue(index.hasKeys(eiffel, Arrays.asList("tower", "eiffel", "paris")));
+            Assert.assertFalse(index.hasKeys(eiffel, Arrays.asList("tower", "eiffel")));
+
+            Assert.assertTrue(Arrays.equals(sorted(eiffel, louvre), index.findContainsAll(Arrays.asList("aris"), Collections.emptyMap())));
+            Assert.assertTrue(Arrays.equals(sorted(eiffel, london), index.findContainsAll(Arrays.asList("tow"), Collections.emptyMap())));
+            Assert.assertTrue(Arrays.equals(sorted(eiffel), index.findContainsAll(Arrays.asList("tow", "par"), Collections.emptyMap())));
+            Assert.assertEquals(0, index.findContainsAll(Arrays.asList("towers"), Collections.emptyMap()).length);
+
+            Map<String, Integer> maxDistances = new HashMap<>();
+            maxDistances.put("musuem", 1);
+            Assert.assertTrue(Arrays.equals(sorted(louvre), index.findContainsAll(Arrays.asList("musuem"), maxDistances)));
+        }
+    }
+
+    @Test
+    public void testGenerations() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path indexFile = fileSystem.getPath("/home/myself/cache/medias.index");
+
+            Map<String, List<String>> valuesKeys = new HashMap<>();
+            valuesKeys.put("paris/eiffel.jpg", Arrays.asList("eiffel", "paris"));
+            MappedStringIndex.write(indexFile, false, valuesKeys);
+            MappedStringIndex index = MappedStringIndex.open(indexFile, false);
+
+            // The mapped file is not replaced, the next start opens the new generation
+            valuesKeys.put("london.jpg", Arrays.asList("london"));
+            MappedStringIndex.write(indexFile, false, valuesKeys);
+            Assert.assertEquals(1, index.getValuesCount());
+            Assert.assertEquals(2, MappedStringIndex.open(indexFile, false).getValuesCount());
+
+            Assert.assertFalse(Files.exists(fileSystem.getPath("/home/myself/cache/medias.index.1")));
+            Assert.assertTrue(Files.exists(fileSystem.getPath("/home/myself/cache/medias.index.2")));
+            Assert.assertFalse(Files.exists(fileSystem.getPath("/home/myself/cache/medias.index.tmp")));
+        }
+    }
+
+    @Test
+    public void testRandomized() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path indexFile = fileSystem.getPath("/home/myself/cache/random.index");
+            for (boolean prefixOnlyMode : new boolean[]{false, true}) {
+                Random random = new Random(42);
+                Map<String, List<String>> valuesKeys = new HashMap<>();
+                for (int i = 0; i < 500; i++) {
+                    valuesKeys.put("value" + i, Arrays.asList(randomKey(random), randomKey(random), randomKey(random)));
+                }
+                MappedStringIndex.write(indexFile, prefixOnlyMode, valuesKeys);
+                MappedStringIndex index = MappedStringIndex.open(indexFile, prefixOnlyMode);
+
+                String[] searches = new String[]{"a", "ab", "abc", "bca", "abab", "cabac", "dd"};
+                for (String searched : searches) {
+                    for (String otherSearched : searches) {
+                        List<Integer> expected = new ArrayList<>();
+                        for (Map.Entry<String, List<String>> entry : valuesKeys.entrySet()) {
+                            if (matches(entry.getValue(), searched, prefixOnlyMode) && matches(entry.getValue(), otherSearched, prefixOnlyMode)) {
+                                expected.add(index.getValueId(entry.getKey()));
+                            }
+                        }
+                        Collections.sort(expected);
+                        int[] found = index.findContainsAll(Arrays.asList(searched, otherSearched), Collections.emptyMap());
+                        Assert.assertTrue(Arrays.equals(expected.stream().mapToInt(Integer::intValue).toArray(), found));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRandomizedSimilar() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/home/myself/cache"));
+            Path indexFile = fileSystem.getPath("/home/myself/cache/similar.index");
+            for (boolean prefixOnlyMode : new boolean[]{false, true}) {
+                Random random = new Random(42);
+                Map<String, List<String>> valuesKeys = new HashMap<>();
+                for (int i = 0; i < 500; i++) {
+                    valuesKeys.put("value" + i, Arrays.asList(randomKey(random) + randomKey(random), randomKey(random)));
+                }
+                MappedStringIndex.write(indexFile, prefixOnlyMode, valuesKeys);
+                MappedStringIndex index = MappedStringIndex.open(indexFile, prefixOnlyMode);
+
+                for (String searched : new String[]{"ab", "abc", "bca", "abab", "cabac", "ccccccc", "dd", "acbacb"}) {
+                    for (int maxDistance = 1; maxDistance <= 2; maxDistance++) {
+                        int distance = Math.min(maxDistance, searched.length() - 1);
+                        List<Integer> expected = new ArrayList<>();
+                        for (Map.Entry<String, List<String>> entry : valuesKeys.entrySet()) {
+                            if (entry.getValue().stream().anyMatch((String key) -> EditDistanceHelper.containsApproximately(key, searched, distance, prefixOnlyMode))) {
+                                expected.add(index.getValueId(entry.getKey()));
+                            }
+                        }
+                        Collections.sort(expected);
+                        int[] found = index.findContainsAll(Arrays.asList(searched), Collections.singletonMap(searched, maxDistance));
+                        Assert.assertTrue(Arrays.equals(expected.stream().mapToInt(Integer::intValue).toArray(), found));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean matches(List<String> keys, String searched, boolean prefixOnlyMode) {
+        return keys.stream().anyMatch((String key) -> prefixOnlyMode ? key.startsWith(searched) : key.contains(searched));
+    }
+
+    private static int[] sorted(int... ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static String randomKey(Random random) {
+        StringBuilder key = new StringBuilder();
+        for (int j = 0; j < 1 + random.nextInt(7); j++) {
+            key.append((char) ('a' + random.nextInt(3)));
+        }
+        return key.toString();
+    }
+
+}
@@ -0,0 +1,303 @@
+package photato.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares PartialStringIndex with the previous trie, whose children were
+ * linked lists of single characters and which cached no results. Run it
+ * manually with a large heap, the corpus size can be changed with
+ * -Dbenchmark.terms
+ */
+@Ignore
+public class PartialStringIndexBenchmarkTest {
+
+    private static final char[] alphabet = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    /**
+     * The previous implementation, reduced to what the benchmark uses
+     */
+    private static class LinkedTrieIndex<T> {
+
+        private static class Node {
+
+            public final char c;
+            public int[] postings = new int[0];
+            public int postingsCount;
+            public int weight = 1;
+            public Node firstChild;
+            public Node neighbor;
+
+            public Node(char c) {
+                this.c = c;
+            }
+
+            public Node findChild(char c) {
+                Node n = this.firstChild;
+                while (n != null && n.c != c) {
+                    n = n.neighbor;
+                }
+                return n;
+            }
+
+            public void addChild(Node newChild) {
+                if (this.firstChild == null) {
+                    this.firstChild = newChild;
+                } else {
+                    Node lastChild = this.firstChild;
+                    while (lastChild.neighbor != null) {
+                        lastChild = lastChild.neighbor;
+                    }
+                    lastChild.neighbor = newChild;
+                }
+            }
+
+            public void removeChild(char c) {
+                Node previous = null;
+                Node current = this.firstChild;
+                while (current != null && current.c != c) {
+                    previous = current;
+                    current = current.neighbor;
+                }
+                if (current != null) {
+                    if (previous == null) {
+                        this.firstChild = current.neighbor;
+                    } else {
+                        previous.neighbor = current.neighbor;
+                    }
+                }
+            }
+
+            public void addPosting(int id) {
+                int index = Arrays.binarySearch(this.postings, 0, this.postingsCount, id);
+                if (index < 0) {
+                    index = -index - 1;
+                    if (this.postingsCount == this.postings.length) {
+                        this.postings = Arrays.copyOf(this.postings, Math.max(2, this.postingsCount + (this.postingsCount >> 1)));
+                    }
+                    System.arraycopy(this.postings, index, this.postings, index + 1, this.postingsCount - index);
+                    this.postings[index] = id;
+                    this.postingsCount++;
+                }
+            }
+
+            public void removePosting(int id) {
+                int index = Arrays.binarySearch(this.postings, 0, this.postingsCount, id);
+                if (index >= 0) {
+                    System.arraycopy(this.postings, index + 1, this.postings, index, this.postingsCount - index - 1);
+                    this.postingsCount--;
+                }
+            }
+        }
+
+        private final Node rootNode = new Node('*');
+        private final Map<T, Integer> ids = new HashMap<>();
+        private final Map<T, Set<String>> valuesMap = new HashMap<>();
+        private final List<T> valuesById = new ArrayList<>();
+
+        public void add(String indexKey, T value) {
+            Integer id = this.ids.get(value);
+            if (id == null) {
+                id = this.valuesById.size();
+                this.valuesById.add(value);
+                this.ids.put(value, id);
+                this.valuesMap.put(value, new HashSet<>());
+            }
+            if (!this.valuesMap.get(value).add(indexKey)) {
+                return;
+            }
+
+            for (int i = 0; i < indexKey.length(); i++) {
+                Node currentNode = this.rootNode;
+                for (int j = i; j < indexKey.length(); j++) {
+                    char c = indexKey.charAt(j);
+                    Node child = currentNode.findChild(c);
+                    if (child == null) {
+                        child = new Node(c);
+                        currentNode.addChild(child);
+                    } else {
+                        child.weight++;
+                    }
+                    currentNode = child;
+                }
+                currentNode.addPosting(id);
+            }
+        }
+
+        public Collection<T> findContains(String key) {
+            Node currentNode = this.rootNode;
+            for (int i = 0; i < key.length() && currentNode != null; i++) {
+                currentNode = currentNode.findChild(key.charAt(i));
+            }
+            if (currentNode == null) {
+                return new HashSet<>();
+            }
+
+            BitSet resultIds = new BitSet();
+            Queue<Node> toExplore = new LinkedList<>();
+            toExplore.add(currentNode);
+            while (!toExplore.isEmpty()) {
+                Node n = toExplore.remove();
+                for (int i = 0; i < n.postingsCount; i++) {
+                    resultIds.set(n.postings[i]);
+                }
+                for (Node child = n.firstChild; child != null; child = child.neighbor) {
+                    toExplore.add(child);
+                }
+            }
+
+            Set<T> result = new HashSet<>();
+            for (int id = resultIds.nextSetBit(0); id >= 0; id = resultIds.nextSetBit(id + 1)) {
+                result.add(this.valuesById.get(id));
+            }
+            return result;
+        }
+
+        public void remove(T value) {
+            Integer id = this.ids.remove(value);
+            if (id == null) {
+                return;
+            }
+
+            for (String key : this.valuesMap.remove(value)) {
+                for (int i = 0; i < key.length(); i++) {
+                    Node currentNode = this.rootNode;
+                    for (int j = i; j < key.length(); j++) {
+                        char c = key.charAt(j);
+                        Node n = currentNode.findChild(c);
+                        if (n == null) {
+                            break;
+                        }
+                        n.weight--;
+                        if (n.weight == 0) {
+                            currentNode.removeChild(c);
+                            break;
+                        }
+                        currentNode = n;
+                    }
+                    currentNode.removePosting(id);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        int termsCount = Integer.getInteger("benchmark.terms", 1000000);
+        Random random = new Random(42);
+
+        // Short words from a small vocabulary, like tags and filenames, so that terms share prefixes and suffixes
+        String[] vocabulary = new String[termsCount / 10 + 1];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[4 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            vocabulary[i] = new String(word);
+        }
+        String[] terms = new String[termsCount];
+        for (int i = 0; i < termsCount; i++) {
+            terms[i] = vocabulary[random.nextInt(vocabulary.length)];
+        }
+        Integer[] values = new Integer[termsCount / 4]; // Each value is indexed with 4 terms, like a media with its tags
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new Integer(i);
+        }
+        String[] queries = new String[1000];
+        for (int i = 0; i < queries.length; i++) {
+            String term = terms[random.nextInt(termsCount)];
+            int start = random.nextInt(term.length() - 2);
+            queries[i] = term.substring(start, start + 3);
+        }
+
+        LinkedTrieIndex<Integer> previousIndex = new LinkedTrieIndex<>();
+        long previousInsert = time(() -> {
+            for (int i = 0; i < termsCount; i++) {
+                previousIndex.add(terms[i], values[i % values.length]);
+            }
+        });
+        PartialStringIndex<Integer> index = new PartialStringIndex<>();
+        long insert = time(() -> {
+            for (int i = 0; i < termsCount; i++) {
+                index.add(terms[i], values[i % values.length]);
+            }
+        });
+
+        long[] resultsCount = new long[2];
+        long previousFind = time(() -> {
+            for (String query : queries) {
+                resultsCount[0] += previousIndex.findContains(query).size();
+            }
+        });
+        long find = time(() -> {
+            for (String query : queries) {
+                resultsCount[1] += index.findContains(query).size();
+            }
+        });
+        Assert.assertEquals(resultsCount[0], resultsCount[1]);
+        long previousRepeatedFind = time(() -> {
+            for (String query : queries) {
+                previousIndex.findContains(query);
+            }
+        });
+        long repeatedFind = time(() -> {
+            for (String query : queries) {
+                index.findContains(query);
+            }
+        });
+
+        // Misspelled vocabulary words, with the edit distance a search would allow them
+        List<String> fuzzyQueries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            char[] word = vocabulary[random.nextInt(vocabulary.length)].toCharArray();
+            word[random.nextInt(word.length)] = alphabet[random.nextInt(alphabet.length)];
+            fuzzyQueries.add(new String(word));
+        }
+        long fuzzyFind = time(() -> {
+            for (String query : fuzzyQueries) {
+                Map<String, Integer> maxDistances = new HashMap<>();
+                maxDistances.put(query, query.length() >= 8 ? 2 : 1);
+                index.findContainsAll(Arrays.asList(query), maxDistances, (Integer value) -> true);
+            }
+        });
+
+        long previousRemove = time(() -> {
+            for (int i = 0; i < values.length; i += 2) {
+                previousIndex.remove(values[i]);
+            }
+        });
+        long remove = time(() -> {
+            for (int i = 0; i < values.length; i += 2) {
+                index.remove(values[i]);
+            }
+        });
+        Assert.assertEquals(previousIndex.findContains(queries[0]), new HashSet<>(index.findContains(queries[0])));
+
+        System.out.println("PartialStringIndex benchmark, " + termsCount + " terms (previous trie / radix trie, ms)");
+        System.out.println("insert:       " + previousInsert + " / " + insert);
+        System.out.println("findContains: " + previousFind + " / " + find + " (" + queries.length + " queries)");
+        System.out.println("  repeated:   " + previousRepeatedFind + " / " + repeatedFind);
+        System.out.println("fuzzy:        - / " + fuzzyFind + " (" + fuzzyQueries.size() + " queries)");
+        System.out.println("remove:       " + previousRemove + " / " + remove);
+    }
+
+    private static long time(Runnable runnable) {
+        long start = System.nanoTime();
+        runnable.run();
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+}
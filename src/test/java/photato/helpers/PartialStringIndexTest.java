@@ -1,7 +1,15 @@
 package photato.helpers;
 
 import photato.helpers.PartialStringIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -151,4 +159,163 @@ public class PartialStringIndexTest {
 
     }
 
+    @Test
+    public void testRemovedIdsReuse() {
+        PartialStringIndex<Object> myMap = new PartialStringIndex<>();
+        Random random = new Random(42);
+        List<StringContainer> indexed = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            if (!indexed.isEmpty() && random.nextInt(3) == 0) {
+                myMap.remove(indexed.remove(random.nextInt(indexed.size())));
+            } else {
+                StringBuilder key = new StringBuilder();
+                for (int j = 0; j < 1 + random.nextInt(6); j++) {
+                    key.append((char) ('a' + random.nextInt(4)));
+                }
+                StringContainer value = new StringContainer(key.toString());
+                myMap.add(value.value, value);
+                myMap.add(value.value, value); // Adding twice must not break the removal
+                indexed.add(value);
+            }
+        }
+
+        Assert.assertEquals(indexed.size(), myMap.size());
+        for (String searched : new String[]{"a", "ab", "dc", "bad", "cccc", "abcd"}) {
+            Set<Object> expected = new HashSet<>();
+            for (StringContainer value : indexed) {
+                if (value.value.contains(searched)) {
+                    expected.add(value);
+                }
+            }
+            Assert.assertEquals(expected, new HashSet<>(myMap.findContains(searched)));
+        }
+
+        for (StringContainer value : indexed) {
+            myMap.remove(value);
+        }
+        Assert.assertEquals(0, myMap.size());
+        Assert.assertEquals(0, myMap.findContains("a").size());
+    }
+
+    @Test
+    public void testCachedSearches() {
+        PartialStringIndex<Object> myMap = new PartialStringIndex<>(false, 2);
+        Random random = new Random(7);
+        List<StringContainer> indexed = new ArrayList<>();
+        String[] searches = new String[]{"a", "b", "ab", "ba", "abc", "cab"};
+
+        for (int i = 0; i < 1000; i++) {
+            if (!indexed.isEmpty() && random.nextInt(3) == 0) {
+                myMap.remove(indexed.remove(random.nextInt(indexed.size())));
+            } else {
+                StringBuilder key = new StringBuilder();
+                for (int j = 0; j < 1 + random.nextInt(5); j++) {
+                    key.append((char) ('a' + random.nextInt(3)));
+                }
+                StringContainer value = new StringContainer(key.toString());
+                myMap.add(value.value, value);
+                indexed.add(value);
+            }
+
+            // Searching after every change, so that the cached results are always checked after an invalidation
+            String searched = searches[i % searches.length];
+            Set<Object> expected = new HashSet<>();
+            for (StringContainer value : indexed) {
+                if (value.value.contains(searched)) {
+                    expected.add(value);
+                }
+            }
+            Assert.assertEquals(expected, new HashSet<>(myMap.findContains(searched)));
+        }
+    }
+
+    @Test
+    public void testFindContainsAll() {
+        for (boolean prefixOnlyMode : new boolean[]{false, true}) {
+            for (int cachedDepth : new int[]{0, 4}) {
+                PartialStringIndex<Object> myMap = new PartialStringIndex<>(prefixOnlyMode, cachedDepth);
+                Random random = new Random(3);
+                List<String[]> keys = new ArrayList<>();
+                List<StringContainer> indexed = new ArrayList<>();
+
+                // Frequent keys made of few letters, and rare ones made of many, so that both ways of intersecting are used
+                for (int i = 0; i < 3000; i++) {
+                    String[] valueKeys = new String[]{randomKey(random, 2, 4), randomKey(random, 6, 3)};
+                    StringContainer value = new StringContainer(String.join(" ", valueKeys));
+                    for (String key : valueKeys) {
+                        myMap.add(key, value);
+                    }
+                    keys.add(valueKeys);
+                    indexed.add(value);
+                }
+
+                String[][] searches = new String[][]{{"a"}, {"ab", "c"}, {"a", "ba", "fd"}, {"ab", "ba"}, {"fde", "a"}, {"abab", "b"}, {"zz", "a"}};
+                for (String[] searched : searches) {
+                    Set<Object> expected = new HashSet<>();
+                    Set<Object> expectedFiltered = new HashSet<>();
+                    for (int i = 0; i < indexed.size(); i++) {
+                        boolean matches = true;
+                        for (String term : searched) {
+                            boolean termMatches = false;
+                            for (String key : keys.get(i)) {
+                                termMatches |= prefixOnlyMode ? key.startsWith(term) : key.contains(term);
+                            }
+                            matches &= termMatches;
+                        }
+                        if (matches) {
+                            expected.add(indexed.get(i));
+                            if (i % 2 == 0) {
+                                expectedFiltered.add(indexed.get(i));
+                            }
+                        }
+                    }
+
+                    Assert.assertEquals(expected, new HashSet<>(myMap.findContainsAll(Arrays.asList(searched), (Object value) -> true)));
+                    Assert.assertEquals(expectedFiltered, new HashSet<>(myMap.findContainsAll(Arrays.asList(searched), (Object value) -> indexed.indexOf(value) % 2 == 0)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFuzzy() {
+        for (boolean prefixOnlyMode : new boolean[]{false, true}) {
+            PartialStringIndex<Object> myMap = new PartialStringIndex<>(prefixOnlyMode);
+            Random random = new Random(5);
+            List<StringContainer> indexed = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                StringContainer value = new StringContainer(randomKey(random, 4, 3 + random.nextInt(6)));
+                myMap.add(value.value, value);
+                indexed.add(value);
+            }
+
+            for (String searched : new String[]{"abcd", "dcba", "aabbc", "abdcab", "cadbcadb"}) {
+                for (int maxDistance = 1; maxDistance <= 2; maxDistance++) {
+                    Set<Object> expected = new HashSet<>();
+                    for (StringContainer value : indexed) {
+                        if (EditDistanceHelper.containsApproximately(value.value, searched, maxDistance, prefixOnlyMode)) {
+                            expected.add(value);
+                        }
+                    }
+                    Map<String, Integer> maxDistances = new HashMap<>();
+                    maxDistances.put(searched, maxDistance);
+                    Assert.assertEquals(expected, new HashSet<>(myMap.findContainsAll(Arrays.asList(searched), maxDistances, (Object value) -> true)));
+
+                    // With an exact key, the candidates are few enough to be verified instead
+                    expected.removeIf((Object value) -> !((StringContainer) value).value.startsWith("ab"));
+                    Assert.assertEquals(expected, new HashSet<>(myMap.findContainsAll(Arrays.asList(searched, "ab"), maxDistances, (Object value) -> ((StringContainer) value).value.startsWith("ab"))));
+                }
+            }
+        }
+    }
+
+    private static String randomKey(Random random, int letters, int length) {
+        StringBuilder key = new StringBuilder();
+        for (int j = 0; j < length; j++) {
+            key.append((char) ('a' + random.nextInt(letters)));
+        }
+        return key.toString();
+    }
+
 }
@@ -0,0 +1,39 @@
+package photato.helpers;
+
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PostingsHelperTest {
+
+    @Test
+    public void testIntersect() {
+        Assert.assertArrayEquals(new int[]{3, 7}, PostingsHelper.intersect(new int[]{1, 3, 5, 7}, new int[]{2, 3, 4, 7, 8, 9}));
+        Assert.assertArrayEquals(new int[]{}, PostingsHelper.intersect(new int[]{}, new int[]{2, 3}));
+        Assert.assertArrayEquals(new int[]{}, PostingsHelper.intersect(new int[]{10, 11}, new int[]{2, 3}));
+        Assert.assertArrayEquals(new int[]{2, 3}, PostingsHelper.intersect(new int[]{0, 1, 2, 3, 4}, new int[]{2, 3}));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            TreeSet<Integer> small = new TreeSet<>();
+            TreeSet<Integer> large = new TreeSet<>();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                small.add(random.nextInt(1000));
+            }
+            for (int j = random.nextInt(800); j > 0; j--) {
+                large.add(random.nextInt(1000));
+            }
+
+            TreeSet<Integer> expected = new TreeSet<>(small);
+            expected.retainAll(large);
+            Assert.assertArrayEquals(toArray(expected), PostingsHelper.intersect(toArray(small), toArray(large)));
+            Assert.assertArrayEquals(toArray(expected), PostingsHelper.intersect(toArray(large), toArray(small)));
+        }
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        return set.stream().mapToInt((Integer i) -> i).toArray();
+    }
+
+}
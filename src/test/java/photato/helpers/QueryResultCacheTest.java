@@ -0,0 +1,42 @@
+package photato.helpers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+    @Test
+    public void testGenerations() {
+        QueryResultCache<String, String> cache = new QueryResultCache<>(2);
+        AtomicInteger computations = new AtomicInteger();
+
+        Assert.assertEquals("a0", cache.get("a", 0, () -> "a" + computations.getAndIncrement()));
+        Assert.assertEquals("a0", cache.get("a", 0, () -> "a" + computations.getAndIncrement()));
+        Assert.assertEquals(1, computations.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0.5, cache.getHitRate(), 0.001);
+
+        // The data changed, the result is computed again
+        Assert.assertEquals("a1", cache.get("a", 1, () -> "a" + computations.getAndIncrement()));
+        Assert.assertEquals("a1", cache.get("a", 1, () -> "a" + computations.getAndIncrement()));
+
+        // Least recently used eviction
+        cache.get("b", 1, () -> "b");
+        cache.get("a", 1, () -> "a" + computations.getAndIncrement());
+        cache.get("c", 1, () -> "c");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("a1", cache.get("a", 1, () -> "a" + computations.getAndIncrement()));
+        Assert.assertEquals("b1", cache.get("b", 1, () -> "b1"));
+    }
+
+    @Test
+    public void testDisabled() {
+        QueryResultCache<String, String> cache = new QueryResultCache<>(0);
+        Assert.assertEquals("a", cache.get("a", 0, () -> "a"));
+        Assert.assertEquals("b", cache.get("a", 0, () -> "b"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,103 @@
+package photato.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SegmentedStringIndexTest {
+
+    @Test
+    public void testSegments() {
+        SegmentedStringIndex<String> myMap = new SegmentedStringIndex<>(() -> new PartialStringIndex<>(), Integer.MAX_VALUE);
+
+        myMap.add("toto", "a");
+        myMap.add("titi", "b");
+        myMap.add("tata", "c");
+        Assert.assertEquals(3, myMap.getDeltaSize());
+        Assert.assertEquals(0, myMap.getSegmentsCount());
+
+        myMap.compact();
+        Assert.assertEquals(0, myMap.getDeltaSize());
+        Assert.assertEquals(1, myMap.getSegmentsCount());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), new HashSet<>(myMap.findContains("t")));
+
+        // Removed from the base segment by a tombstone
+        myMap.remove("b");
+        Assert.assertEquals(0, myMap.findContains("titi").size());
+        Assert.assertEquals(2, myMap.size());
+
+        // Moved to the delta with all its keys, so that it still matches both
+        myMap.add("xyz", "a");
+        Assert.assertEquals(1, myMap.getDeltaSize());
+        Assert.assertEquals(Arrays.asList("a"), new ArrayList<>(myMap.findContainsAll(Arrays.asList("toto", "xyz"), (String value) -> true)));
+        Assert.assertEquals(Arrays.asList("a"), new ArrayList<>(myMap.findContains("toto")));
+
+        // Added again after its removal
+        myMap.add("titi", "b");
+        Assert.assertEquals(Arrays.asList("b"), new ArrayList<>(myMap.findContains("titi")));
+
+        myMap.compact();
+        Assert.assertEquals(0, myMap.getDeltaSize());
+        Assert.assertEquals(1, myMap.getSegmentsCount());
+        Assert.assertEquals(Arrays.asList("a"), new ArrayList<>(myMap.findContainsAll(Arrays.asList("toto", "xyz"), (String value) -> true)));
+        Assert.assertEquals(Arrays.asList("b"), new ArrayList<>(myMap.findContains("titi")));
+        Assert.assertEquals(3, myMap.size());
+
+        myMap.clear();
+        Assert.assertEquals(0, myMap.size());
+        Assert.assertEquals(0, myMap.findContains("toto").size());
+    }
+
+    @Test
+    public void testRandomized() {
+        // Small deltas, so that the background compactions run along the changes
+        SegmentedStringIndex<Integer> myMap = new SegmentedStringIndex<>(() -> new PartialStringIndex<>(), 8);
+        Random random = new Random(42);
+        Map<Integer, Set<String>> indexed = new HashMap<>();
+        String[] searches = new String[]{"a", "ab", "abc", "bca", "abab", "cabac"};
+
+        for (int i = 0; i < 5000; i++) {
+            int value = random.nextInt(300);
+            if (indexed.containsKey(value) && random.nextInt(3) == 0) {
+                myMap.remove(value);
+                indexed.remove(value);
+            } else {
+                String key = randomKey(random);
+                myMap.add(key, value);
+                indexed.computeIfAbsent(value, (Integer v) -> new HashSet<>()).add(key);
+            }
+            if (i % 500 == 0) {
+                myMap.compact();
+            }
+
+            String searched = searches[i % searches.length];
+            String otherSearched = searches[(i / searches.length) % searches.length];
+            Set<Integer> expectedAll = new HashSet<>();
+            for (Map.Entry<Integer, Set<String>> entry : indexed.entrySet()) {
+                if (entry.getValue().stream().anyMatch((String key) -> key.contains(searched)) && entry.getValue().stream().anyMatch((String key) -> key.contains(otherSearched))) {
+                    expectedAll.add(entry.getKey());
+                }
+            }
+            Collection<Integer> found = myMap.findContainsAll(Arrays.asList(searched, otherSearched), (Integer v) -> true);
+            Assert.assertEquals(expectedAll, new HashSet<>(found));
+            Assert.assertEquals(expectedAll.size(), found.size()); // Each value is live in a single segment
+        }
+        Assert.assertEquals(indexed.size(), myMap.size());
+    }
+
+    private static String randomKey(Random random) {
+        StringBuilder key = new StringBuilder();
+        for (int j = 0; j < 1 + random.nextInt(7); j++) {
+            key.append((char) ('a' + random.nextInt(3)));
+        }
+        return key.toString();
+    }
+
+}
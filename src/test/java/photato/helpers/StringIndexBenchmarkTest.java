@@ -0,0 +1,93 @@
+package photato.helpers;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the memory and the speed of the suffix trie and of the trigram
+ * index in substring mode. Run it manually with a large heap, the corpus size
+ * can be changed with -Dbenchmark.terms
+ */
+@Ignore
+public class StringIndexBenchmarkTest {
+
+    private static final char[] alphabet = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    @Test
+    public void benchmark() {
+        int termsCount = Integer.getInteger("benchmark.terms", 1000000);
+        Random random = new Random(42);
+
+        // Words of 4 to 19 characters, the long ones being like folder names and place descriptions
+        String[] vocabulary = new String[termsCount / 10 + 1];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[4 + random.nextInt(16)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            vocabulary[i] = new String(word);
+        }
+        String[] terms = new String[termsCount];
+        for (int i = 0; i < termsCount; i++) {
+            terms[i] = vocabulary[random.nextInt(vocabulary.length)];
+        }
+        Integer[] values = new Integer[termsCount / 4]; // Each value is indexed with 4 terms, like a media with its tags
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new Integer(i);
+        }
+        String[][] queries = new String[1000][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new String[1 + i % 2];
+            for (int j = 0; j < queries[i].length; j++) {
+                String term = terms[random.nextInt(termsCount)];
+                int start = random.nextInt(term.length() - 2);
+                queries[i][j] = term.substring(start, start + 3 + random.nextInt(term.length() - start - 2));
+            }
+        }
+
+        long[] trieResults = this.run("trie", () -> new PartialStringIndex<>(false, 0), terms, values, queries);
+        long[] trigramResults = this.run("trigram", () -> new TrigramStringIndex<>(false), terms, values, queries);
+        Assert.assertTrue(Arrays.equals(trieResults, trigramResults));
+    }
+
+    private long[] run(String name, Supplier<IStringIndex<Integer>> indexSupplier, String[] terms, Integer[] values, String[][] queries) {
+        long memoryBefore = usedMemory();
+        IStringIndex<Integer> index = indexSupplier.get();
+        long insert = time(() -> {
+            for (int i = 0; i < terms.length; i++) {
+                index.add(terms[i], values[i % values.length]);
+            }
+        });
+        long memory = usedMemory() - memoryBefore;
+
+        long[] resultsCount = new long[queries.length];
+        long find = time(() -> {
+            for (int i = 0; i < queries.length; i++) {
+                resultsCount[i] = new HashSet<>(index.findContainsAll(Arrays.asList(queries[i]), (Integer value) -> true)).size();
+            }
+        });
+
+        System.out.println(name + ", " + terms.length + " terms: insert " + insert + " ms, " + (memory >> 20) + " MB, "
+                + queries.length + " searches " + find + " ms");
+        return resultsCount;
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    private static long time(Runnable runnable) {
+        long start = System.nanoTime();
+        runnable.run();
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+}
@@ -0,0 +1,137 @@
+package photato.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TrigramStringIndexTest {
+
+    private static class StringContainer {
+
+        public final String[] keys;
+
+        public StringContainer(String... keys) {
+            this.keys = keys;
+        }
+
+        public boolean matches(String searched, boolean prefixOnlyMode) {
+            return Arrays.stream(this.keys).anyMatch((String key) -> prefixOnlyMode ? key.startsWith(searched) : key.contains(searched));
+        }
+
+    }
+
+    @Test
+    public void testContains() {
+        TrigramStringIndex<Object> myMap = new TrigramStringIndex<>();
+
+        StringContainer toto = new StringContainer("toto");
+        StringContainer tototo = new StringContainer("tototo");
+        StringContainer otot = new StringContainer("otot", "xyz");
+        myMap.add("toto", toto);
+        myMap.add("tototo", tototo);
+        myMap.add("otot", otot);
+        myMap.add("xyz", otot);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(toto, tototo)), new HashSet<>(myMap.findContains("toto")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(tototo)), new HashSet<>(myMap.findContains("ototo")));
+        Assert.assertEquals(0, myMap.findContains("ottt").size()); // All its trigrams are indexed, but not in this order
+        Assert.assertEquals(3, myMap.findContains("to").size()); // Shorter than a trigram
+        Assert.assertEquals(1, myMap.findContainsAll(Arrays.asList("xyz", "oto"), (Object value) -> true).size());
+
+        myMap.remove(otot);
+        Assert.assertEquals(0, myMap.findContains("xyz").size());
+        Assert.assertEquals(2, myMap.findContains("oto").size());
+        Assert.assertEquals(2, myMap.size());
+
+        myMap.clear();
+        Assert.assertEquals(0, myMap.size());
+        Assert.assertEquals(0, myMap.findContains("toto").size());
+    }
+
+    @Test
+    public void testRandomized() {
+        for (boolean prefixOnlyMode : new boolean[]{false, true}) {
+            TrigramStringIndex<Object> myMap = new TrigramStringIndex<>(prefixOnlyMode);
+            Random random = new Random(42);
+            List<StringContainer> indexed = new ArrayList<>();
+            String[] searches = new String[]{"a", "ab", "abc", "bca", "abab", "cabac", "aaaa"};
+
+            for (int i = 0; i < 2000; i++) {
+                if (!indexed.isEmpty() && random.nextInt(3) == 0) {
+                    myMap.remove(indexed.remove(random.nextInt(indexed.size())));
+                } else {
+                    StringContainer value = new StringContainer(randomKey(random), randomKey(random));
+                    for (String key : value.keys) {
+                        myMap.add(key, value);
+                    }
+                    indexed.add(value);
+                }
+
+                String searched = searches[i % searches.length];
+                String otherSearched = searches[(i / searches.length) % searches.length];
+                Set<Object> expected = new HashSet<>();
+                Set<Object> expectedAll = new HashSet<>();
+                for (StringContainer value : indexed) {
+                    if (value.matches(searched, prefixOnlyMode)) {
+                        expected.add(value);
+                        if (value.matches(otherSearched, prefixOnlyMode)) {
+                            expectedAll.add(value);
+                        }
+                    }
+                }
+                Assert.assertEquals(expected, new HashSet<>(myMap.findContains(searched)));
+                Assert.assertEquals(expectedAll, new HashSet<>(myMap.findContainsAll(Arrays.asList(searched, otherSearched), (Object value) -> true)));
+            }
+            Assert.assertEquals(indexed.size(), myMap.size());
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        long budget = 128 * 1024;
+        TrigramStringIndex<Object> myMap = new TrigramStringIndex<>(false, budget);
+        Random random = new Random(42);
+        List<StringContainer> indexed = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            StringContainer value = new StringContainer("img" + i + "_" + randomKey(random) + randomKey(random), "paris");
+            for (String key : value.keys) {
+                myMap.add(key, value);
+            }
+            indexed.add(value);
+        }
+        Assert.assertTrue(myMap.getGramsBytes() <= budget);
+
+        // The dropped trigrams are verified instead
+        for (String searched : new String[]{"img", "g12", "123_", "_abc", "ari", "pa", "zzz"}) {
+            Set<Object> expected = new HashSet<>();
+            for (StringContainer value : indexed) {
+                if (value.matches(searched, false)) {
+                    expected.add(value);
+                }
+            }
+            Assert.assertEquals(expected, new HashSet<>(myMap.findContains(searched)));
+        }
+        Assert.assertEquals(1, myMap.findContainsAll(Arrays.asList("img1234_", "paris"), (Object value) -> true).size());
+
+        for (StringContainer value : indexed) {
+            myMap.remove(value);
+        }
+        Assert.assertEquals(0, myMap.size());
+        Assert.assertEquals(0, myMap.findContains("ari").size());
+    }
+
+    private static String randomKey(Random random) {
+        StringBuilder key = new StringBuilder();
+        for (int j = 0; j < 1 + random.nextInt(7); j++) {
+            key.append((char) ('a' + random.nextInt(3)));
+        }
+        return key.toString();
+    }
+
+}